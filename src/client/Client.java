@@ -1,12 +1,14 @@
 package client;
 
 import java.net.Socket;
+import java.util.List;
 import java.util.Scanner;
 
 import client.frames.LoginDialog;
 import merrimackutil.json.types.JSONArray;
 import merrimackutil.json.types.JSONObject;
 import shared.MessageSocket;
+import shared.TradeRecord;
 import shared.messages.*;
 
 public class Client {
@@ -219,21 +221,17 @@ public class Client {
                     messageSocket.close();
                     if (response instanceof ViewTradesResponse) {
                         ViewTradesResponse viewTradesResponse = (ViewTradesResponse) response;
-                        JSONArray trades = viewTradesResponse.getTrades();
+                        List<TradeRecord> trades = viewTradesResponse.getTrades();
                         System.out.println("Active trades:");
 
                         System.out.println("Trade Requests (You are the recipient):");
                         for (int i = 0; i < trades.size(); i++) {
-                            JSONArray trade = trades.getArray(i);
-                            if (trade == null || trade.size() < 4)
-                                continue;
+                            TradeRecord trade = trades.get(i);
+                            String requesterID = trade.requesterID();
+                            String recipientID = trade.recipientID();
+                            String offerCardID = trade.offerCardID();
 
-                            String type = trade.getString(0); // "request" or "response"
-                            String requesterID = trade.getString(1);
-                            String recipientID = trade.getString(2);
-                            String offerCardID = trade.getString(3);
-
-                            if ("request".equals(type) && username.equals(recipientID)) {
+                            if (trade.isRequest() && username.equals(recipientID)) {
                                 System.out.println(
                                         (i + 1) + ". From: " + requesterID + " | Offered Card: " + offerCardID);
                             }
@@ -241,17 +239,13 @@ public class Client {
 
                         System.out.println("\nTrade Responses (You are the original requester):");
                         for (int i = 0; i < trades.size(); i++) {
-                            JSONArray trade = trades.getArray(i);
-                            if (trade == null || trade.size() < 5)
-                                continue; // Ensure at least 5 elements for response
-
-                            String type = trade.getString(0); // "request" or "response"
-                            String requesterID = trade.getString(1);
-                            String recipientID = trade.getString(2);
-                            String offerCardID = trade.getString(3);
-                            String responseCardID = trade.getString(4); // Response card, could be null
+                            TradeRecord trade = trades.get(i);
+                            String requesterID = trade.requesterID();
+                            String recipientID = trade.recipientID();
+                            String offerCardID = trade.offerCardID();
+                            String responseCardID = trade.responseCardID(); // Response card, could be null
 
-                            if ("response".equals(type) && username.equals(requesterID)) {
+                            if (trade.isResponse() && username.equals(requesterID)) {
                                 System.out.println((i + 1) + ". From: " + recipientID + " | Offered Card: "
                                         + offerCardID + " | Response Card: "
                                         + (responseCardID == null ? "None" : responseCardID));
@@ -265,20 +259,13 @@ public class Client {
                         if (tradeChoice < 1 || tradeChoice > trades.size()) {
                             System.out.println("Invalid choice.");
                         } else {
-                            JSONArray selectedTrade = trades.getArray(tradeChoice - 1);
-
-                            String tradeType = selectedTrade.getString(0);
-                            String requesterID = selectedTrade.getString(1);
-                            String recipientID = selectedTrade.getString(2);
-                            String offerCardID = selectedTrade.getString(3);
-                            String responseCardID = selectedTrade.size() > 4 && selectedTrade.get(4) != null
-                                    ? selectedTrade.getString(4)
-                                    : null;
+                            TradeRecord selectedTrade = trades.get(tradeChoice - 1);
 
-                            // Reconstruct the tradeKey if not provided in data
-                            String tradeKey = requesterID + recipientID;
+                            String requesterID = selectedTrade.requesterID();
+                            String recipientID = selectedTrade.recipientID();
+                            long tradeID = selectedTrade.tradeID();
 
-                            if (tradeType.equals("request") && recipientID.equals(username)) {
+                            if (selectedTrade.isRequest() && recipientID.equals(username)) {
                                 // You're the recipient, so you can respond to this trade
                                 System.out.println("Retrieving your collection to select a card...");
                                 MessageSocket messageSocket3 = new MessageSocket(new Socket(serverAddress, port));
@@ -308,7 +295,7 @@ public class Client {
                                         JSONObject selectedCard = (JSONObject) cards.get(cardChoice - 1);
                                         String responseInputCardID = selectedCard.getString("cardID");
 
-                                        TradeResponse tradeResponse = new TradeResponse(true, tradeKey, responseInputCardID);
+                                        TradeResponse tradeResponse = new TradeResponse(true, tradeID, responseInputCardID);
                                         MessageSocket messageSocket4 = new MessageSocket(new Socket(serverAddress, port));
                                         messageSocket4.sendMessage(tradeResponse);
 
@@ -325,13 +312,13 @@ public class Client {
                                 }
                                 messageSocket3.close();
 
-                            } else if (tradeType.equals("response") && requesterID.equals(username)) {
+                            } else if (selectedTrade.isResponse() && requesterID.equals(username)) {
                                 // You're the original requester confirming a response
                                 System.out.print("Do you want to confirm this trade? (yes/no): ");
                                 String confirmation = scanner.nextLine();
 
                                 if (confirmation.equalsIgnoreCase("yes")) {
-                                    TradeConfirmation tradeConfirmation = new TradeConfirmation(tradeKey, true);
+                                    TradeConfirmation tradeConfirmation = new TradeConfirmation(tradeID, true);
                                     MessageSocket messageSocket3 = new MessageSocket(new Socket(serverAddress, port));
                                     messageSocket3.sendMessage(tradeConfirmation);
 
@@ -2,13 +2,10 @@ package client.frames;
 
 import java.awt.*;
 import java.awt.event.*;
-import java.io.IOException;
-import java.net.Socket;
 
 import javax.swing.*;
 
-import client.utils.TCGUtils;
-import shared.MessageSocket;
+import client.utils.TcgClient;
 import shared.messages.*;
 
 /**
@@ -171,41 +168,24 @@ public class LoginDialog extends JDialog {
             return;
         }
 
-        try {
-            // Create a connection to the server
-            MessageSocket messageSocket = new MessageSocket(new Socket(TCGUtils.SERVERADDRESS, TCGUtils.PORT));
-            UserCredRequest userCredRequest = new UserCredRequest(requestType, username, password);
-
-            // Update UI message
-            messageLabel.setText("Sending " + requestType + " request...");
-
-            // Send authentication request
-            messageSocket.sendMessage(userCredRequest);
-
-            // Wait for and process the server response
-            Message response = messageSocket.getMessage();
-            if (response instanceof UserCredResponse) {
-                UserCredResponse userCredResponse = (UserCredResponse) response;
-
-                if (userCredResponse.isSuccess() && requestType.equals("Login")) {
-                    // Successful login: open main application window
-                    dispose(); // Close login dialog
-                    new MainFrame(username);
-                } else if (userCredResponse.isSuccess()) {
-                    // Successful registration
-                    messageLabel.setText("Successfully Registered");
-                } else {
-                    // Failed login or registration
-                    messageLabel.setText(requestType + " Failed");
-                }
+        // Update UI message
+        messageLabel.setText("Sending " + requestType + " request...");
+
+        // Send authentication request on the shared session without blocking the dialog
+        TcgClient.whenDone(TcgClient.authenticate(requestType, username, password), (userCredResponse, error) -> {
+            if (userCredResponse == null) {
+                messageLabel.setText(requestType + " Failed: " + error.getMessage());
+            } else if (userCredResponse.isSuccess() && requestType.equals("Login")) {
+                // Successful login: open main application window
+                dispose(); // Close login dialog
+                new MainFrame(username);
+            } else if (userCredResponse.isSuccess()) {
+                // Successful registration
+                messageLabel.setText("Successfully Registered");
             } else {
-                messageLabel.setText("Unexpected response type: " + response.getType());
+                // Failed login or registration
+                messageLabel.setText(requestType + " Failed");
             }
-
-            // Close server connection
-            messageSocket.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        });
     }
 }
\ No newline at end of file
@@ -2,15 +2,16 @@ package client.frames;
 
 import java.awt.*;
 import java.awt.event.*;
-import java.io.IOException;
-import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.*;
 
 import client.panels.*;
+import client.utils.ServerConnection;
 import client.utils.TCGUtils;
-import merrimackutil.json.types.JSONArray;
+import client.utils.TcgClient;
+import shared.TradeRecord;
 import shared.Card;
-import shared.MessageSocket;
 import shared.messages.*;
 
 public class MainFrame extends JFrame {
@@ -37,12 +38,38 @@ public class MainFrame extends JFrame {
         setBounds(rect);
         setDefaultCloseOperation(EXIT_ON_CLOSE);
 
+        // End the server session when the window is closed
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                ServerConnection.logOut(currentUser);
+            }
+        });
+
         cardLayout = new CardLayout();
         mainPanel = new JPanel(cardLayout);
+        mainPanel.add(new JLabel("Loading...", SwingConstants.CENTER), "Loading");
 
+        setContentPane(mainPanel);
+        setVisible(true);
 
+        // everything the screens need at startup in one round trip, off the event dispatch thread
+        List<Message> startup = List.of(new CollectionRequest(currentUser), new ViewTradesRequest(currentUser));
+        TcgClient.whenDone(TcgClient.batch(startup), (responses, error) -> {
+            boolean fetched = responses != null && responses.size() == 2;
+            createPanels(fetched ? responses.get(0) : null, fetched ? responses.get(1) : null);
+        });
+    }
+
+    /**
+     * Builds the screens once the startup data is in
+     *
+     * @param collection the user's collection, null for the panels to fetch it
+     * @param trades     the user's trades, null for the panels to fetch them
+     */
+    private void createPanels(Message collection, Message trades) {
         homePanel = new HomePanel(this, this.currentUser);
-        collectionPanel = new CollectionPanel(this, this.currentUser);
+        collectionPanel = new CollectionPanel(this, this.currentUser, collection);
 
         // Add Home and Collection panels to the main panel with identifiers
         mainPanel.add(homePanel, TCGUtils.HOME);
@@ -50,15 +77,19 @@ public class MainFrame extends JFrame {
 
 
 
-        mainPanel.add(new TradePanel(this, currentUser), TCGUtils.TRADE);
-        mainPanel.add(new TradeStatusPanel(this, currentUser), "TradeStatus");
+        // named so reloadPanel and trade events can find them
+        TradePanel tradePanel = new TradePanel(this, currentUser, collection, trades);
+        tradePanel.setName(TCGUtils.TRADE);
+        mainPanel.add(tradePanel, TCGUtils.TRADE);
+        TradeStatusPanel tradeStatusPanel = new TradeStatusPanel(this, currentUser, trades);
+        tradeStatusPanel.setName("TradeStatus");
+        mainPanel.add(tradeStatusPanel, "TradeStatus");
 
 
-        setContentPane(mainPanel);
         showPanel(TCGUtils.HOME);
-        setVisible(true);
 
-        checkIncomingTradeRequests();
+        checkIncomingTradeRequests(trades);
+        subscribeToTradeEvents();
     }
 
     // Named panels (preloaded)
@@ -91,22 +122,21 @@ public class MainFrame extends JFrame {
         return rect;
     }
 
-    public void sendTradeRequest(String recipient, String offeredCardId) {
-        if (currentUser == null) return;
-
-        try (MessageSocket ms = new MessageSocket(new Socket(TCGUtils.SERVERADDRESS, TCGUtils.PORT))) {
-            ms.sendMessage(new TradeRequest(currentUser, recipient, offeredCardId));
-            Message response = ms.getMessage();
+    /**
+     * Sends a trade request and shows the server's answer when it comes
+     *
+     * @return completes on the event dispatch thread once the answer was shown
+     */
+    public CompletableFuture<ServerTradeStatus> sendTradeRequest(String recipient, String offeredCardId) {
+        if (currentUser == null) return CompletableFuture.completedFuture(null);
 
-            if (response instanceof ServerTradeStatus tradeStatus) {
+        return TcgClient.whenDone(TcgClient.requestTrade(currentUser, recipient, offeredCardId), (tradeStatus, error) -> {
+            if (tradeStatus != null) {
                 JOptionPane.showMessageDialog(this, tradeStatus.getMessage(), "Trade Status", JOptionPane.INFORMATION_MESSAGE);
             } else {
-                System.err.println("Unexpected response type: " + response.getType());
+                JOptionPane.showMessageDialog(this, "Failed to send trade request.", "Error", JOptionPane.ERROR_MESSAGE);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Failed to send trade request.", "Error", JOptionPane.ERROR_MESSAGE);
-        }
+        });
     }
 
     public void openCollectionInTradeMode(String tradePartner) {
@@ -114,38 +144,71 @@ public class MainFrame extends JFrame {
         showDynamicPanel(tradeCollectionPanel, "TradeCollection_" + tradePartner);
     }
 
-    private void checkIncomingTradeRequests() {
-        try (MessageSocket ms = new MessageSocket(new Socket(TCGUtils.SERVERADDRESS, TCGUtils.PORT))) {
-            ms.sendMessage(new ViewTradesRequest(currentUser));
-            Message response = ms.getMessage();
-
-            if (response instanceof ViewTradesResponse viewResp) {
-                JSONArray trades = viewResp.getTrades();
-
-                boolean hasIncoming = false;
-
-                for (int i = 0; i < trades.size(); i++) {
-                    JSONArray trade = trades.getArray(i);
-                    if (trade != null && trade.size() >= 4) {
-                        String type = trade.getString(0);
-                        String recipientID = trade.getString(2);
-                        if ("request".equals(type) && currentUser.equals(recipientID)) {
-                            hasIncoming = true;
-                            break;
-                        }
-                    }
+    /**
+     * @param fetched the trades fetched at startup, null to fetch them
+     */
+    private void checkIncomingTradeRequests(Message fetched) {
+        if (fetched == null) {
+            TcgClient.whenDone(TcgClient.trades(currentUser), (response, error) -> {
+                if (response != null) {
+                    checkIncomingTradeRequests(response);
                 }
+            });
+            return;
+        }
 
-                if (hasIncoming) {
-                    JOptionPane.showMessageDialog(this,
-                            "You have new trade requests! Go to the Trade screen to view them.",
-                            "Trade Notification", JOptionPane.INFORMATION_MESSAGE);
+        if (fetched instanceof ViewTradesResponse viewResp) {
+            boolean hasIncoming = false;
+
+            for (TradeRecord trade : viewResp.getTrades()) {
+                if (trade.isRequest() && currentUser.equals(trade.recipientID())) {
+                    hasIncoming = true;
+                    break;
                 }
             }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+            if (hasIncoming) {
+                JOptionPane.showMessageDialog(this,
+                        "You have new trade requests! Go to the Trade screen to view them.",
+                        "Trade Notification", JOptionPane.INFORMATION_MESSAGE);
+            }
+        }
+    }
+
+    /**
+     * Replaces polling with events the server pushes when a trade changes
+     */
+    private void subscribeToTradeEvents() {
+        TcgClient.subscribe(this::showTradeEvent).exceptionally(e -> {
+            System.err.println("Could not subscribe to trade events: " + e.getMessage());
+            return null;
+        });
+    }
+
+    private void showTradeEvent(TradeEvent event) {
+        String text = switch (event.getEvent()) {
+            case TradeEvent.REQUESTED -> event.getOtherUser() + " sent you a trade request! Go to the Trade screen to view it.";
+            case TradeEvent.ACCEPTED -> event.getOtherUser() + " accepted your trade. Confirm it on the Trade Status screen.";
+            case TradeEvent.DECLINED -> event.getOtherUser() + " declined your trade request.";
+            case TradeEvent.COMPLETED -> "Your trade with " + event.getOtherUser() + " is complete.";
+            case TradeEvent.EXPIRED -> "Your trade with " + event.getOtherUser() + " expired.";
+            default -> null;
+        };
+        if (text == null) {
+            return;
+        }
+
+        // refresh the trade screens in place so they show the change without re-fetching on a timer
+        Component visible = null;
+        for (Component comp : mainPanel.getComponents()) {
+            if (comp.isVisible()) {
+                visible = comp;
+            }
+        }
+        if (visible != null && (TCGUtils.TRADE.equals(visible.getName()) || "TradeStatus".equals(visible.getName()))) {
+            reloadPanel(visible.getName());
         }
+        JOptionPane.showMessageDialog(this, text, "Trade Notification", JOptionPane.INFORMATION_MESSAGE);
     }
 
     public void reloadPanel(String panelName) {
@@ -2,24 +2,15 @@ package client.panels;
 
 import java.awt.*;
 
-import java.io.IOException;
-import java.net.Socket;
-import java.util.ArrayList;
-
-
 import javax.swing.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.IOException;
-import java.net.Socket;
-import java.util.ArrayList;
 import java.util.List;
 
 import client.frames.MainFrame;
+import client.utils.TcgClient;
 import client.utils.TCGUtils;
 
-import merrimackutil.json.types.JSONObject;
-import merrimackutil.json.types.JSONArray;
 import shared.*;
 import shared.messages.*;
 
@@ -28,7 +19,6 @@ import shared.messages.*;
  */
 public class CollectionPanel extends TCGPanel {
     private JPanel display;
-    private ArrayList<String> collection;
     private GridBagConstraints gbcCards;
 
     private final boolean isTradeMode;
@@ -39,61 +29,36 @@ public class CollectionPanel extends TCGPanel {
         this(parentFrame, username, false, null);
     }
 
+    /**
+     * Creates the panel from a collection that was already fetched
+     *
+     * @param collection the server's response to a CollectionRequest, null to fetch it
+     */
+    public CollectionPanel(MainFrame parentFrame, String username, Message collection) {
+        this(parentFrame, username, false, null, collection);
+    }
+
     public CollectionPanel(MainFrame parentFrame, String username, boolean isTradeMode, String tradePartner) {
+        this(parentFrame, username, isTradeMode, tradePartner, null);
+    }
+
+    private CollectionPanel(MainFrame parentFrame, String username, boolean isTradeMode, String tradePartner,
+            Message collection) {
         super(parentFrame, username);
         this.isTradeMode = isTradeMode;
         this.tradePartner = tradePartner;
         setName("Collection");
 
-        List<Card> userCards = TCGUtils.fetchUserCards(username);
-
         this.gbcCards = new GridBagConstraints();
-        this.gbcCards.insets = new Insets(3, 3, 3, 3);
+        this.gbcCards.insets = new Insets(10, 10, 10, 10);
         
         this.display = new JPanel(new GridBagLayout());
         display.setBackground(Color.GRAY);
 
-        GridBagConstraints gbc = new GridBagConstraints();
-        gbc.insets = new Insets(10, 10, 10, 10);
-        int columns = 3;
-
-        for (int i = 0; i < userCards.size(); i++) {
-            Card card = userCards.get(i);
-            card.setFocusable(true);
-
-            if (isTradeMode) {
-                card.addMouseListener(new MouseAdapter() {
-                    @Override
-                    public void mouseClicked(MouseEvent e) {
-                        selectedCard = card;
-                        highlightSelectedCard(display, card);
-
-                        // If initiating trade
-                        if (tradePartner != null) {
-                            SwingUtilities.invokeLater(() -> {
-                                int confirm = JOptionPane.showConfirmDialog(
-                                        CollectionPanel.this,
-                                        "Trade this card?",
-                                        "Confirm Trade",
-                                        JOptionPane.YES_NO_OPTION
-                                );
-                                if (confirm == JOptionPane.YES_OPTION) {
-                                    parentFrame.sendTradeRequest(tradePartner, card.getCardID());
-                                    parentFrame.reloadPanel(TCGUtils.TRADE);
-                                    JOptionPane.showMessageDialog(
-                                            CollectionPanel.this,
-                                            "Waiting for other user to accept trade..."
-                                    );
-                                }
-                            });
-                        }
-                    }
-                });
-            }
-
-            gbc.gridx = i % columns;
-            gbc.gridy = i / columns;
-            display.add(card, gbc);
+        if (collection != null) {
+            showCards(TCGUtils.toCards(collection));
+        } else {
+            loadCards();
         }
 
         JScrollPane scrollPane = new JScrollPane(display);
@@ -141,43 +106,65 @@ public class CollectionPanel extends TCGPanel {
         return selectedCard != null ? selectedCard.getCardID() : null;
     }
 
+    /**
+     * Fetches the collection off the event dispatch thread and shows it when it arrives
+     */
     private void loadCards() {
-        try {
-            System.out.println("Retrieving collection...");
-            MessageSocket messageSocket = new MessageSocket(new Socket(TCGUtils.SERVERADDRESS, TCGUtils.PORT));
-            CollectionRequest collectionRequest = new CollectionRequest(username);
-            messageSocket.sendMessage(collectionRequest);
-
-            Message response = messageSocket.getMessage();
-            if (response instanceof CollectionResponse) {
-                CollectionResponse collectionResponse = (CollectionResponse) response;
-                JSONArray cards = collectionResponse.getCollection();
-                System.out.println("Your collection contains the following cards:");
-                for (int i = 0; i < cards.size(); i++) {
-                    JSONObject card = (JSONObject) cards.get(i);
-                    String cardId = card.getString("cardID");
-                    String name = card.getString("name");
-                    int rarity = card.getInt("rarity");
-                    String imageLink = card.getString("imageLink");
-
-                    if (!collection.contains(imageLink)) {
-                        collection.add(imageLink);
-                        this.gbcCards.gridy = Math.floorDiv(collection.size() - 1, 4);
-                        this.display.add(new Card(cardId, name, rarity, imageLink), this.gbcCards);
+        System.out.println("Retrieving collection...");
+        TcgClient.whenDone(TcgClient.collection(username), (response, error) -> {
+            if (response != null) {
+                display.removeAll();
+                showCards(TCGUtils.toCards(response));
+                display.revalidate();
+                display.repaint();
+            }
+        });
+    }
+
+    private void showCards(List<Card> cards) {
+        int columns = 3;
+
+        for (int i = 0; i < cards.size(); i++) {
+            Card card = cards.get(i);
+            card.setFocusable(true);
+
+            if (isTradeMode) {
+                card.addMouseListener(new MouseAdapter() {
+                    @Override
+                    public void mouseClicked(MouseEvent e) {
+                        selectedCard = card;
+                        highlightSelectedCard(display, card);
+
+                        // If initiating trade
+                        if (tradePartner != null) {
+                            SwingUtilities.invokeLater(() -> {
+                                int confirm = JOptionPane.showConfirmDialog(
+                                        CollectionPanel.this,
+                                        "Trade this card?",
+                                        "Confirm Trade",
+                                        JOptionPane.YES_NO_OPTION
+                                );
+                                if (confirm == JOptionPane.YES_OPTION) {
+                                    parentFrame.sendTradeRequest(tradePartner, card.getCardID())
+                                            .thenRun(() -> parentFrame.reloadPanel(TCGUtils.TRADE));
+                                    JOptionPane.showMessageDialog(
+                                            CollectionPanel.this,
+                                            "Waiting for other user to accept trade..."
+                                    );
+                                }
+                            });
+                        }
                     }
-                }
-            } else {
-                System.err.println("Unexpected response type: " + response.getType());
+                });
             }
-            messageSocket.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+
+            gbcCards.gridx = i % columns;
+            gbcCards.gridy = i / columns;
+            display.add(card, gbcCards);
         }
     }
 
     public void refreshCollection() {
-        this.display.removeAll();
-        this.collection = new ArrayList<>();
         this.loadCards();
     }
 
@@ -2,17 +2,15 @@ package client.panels;
 
 import java.awt.*;
 import java.awt.event.*;
-import java.net.Socket;
 
 import javax.swing.*;
 
 import client.*;
 import client.frames.MainFrame;
 import client.frames.PackOpeningWindow;
-import client.utils.TCGUtils;
+import client.utils.TcgClient;
 import merrimackutil.json.types.*;
 import shared.Card;
-import shared.MessageSocket;
 import shared.messages.*;
 
 /**
@@ -185,12 +183,9 @@ public class HomePanel extends TCGPanel {
      */
     public void openPack(int packIndex) {
         System.out.println("openPack called with pack index: " + packIndex);
-        try (MessageSocket messageSocket = new MessageSocket(new Socket(TCGUtils.SERVERADDRESS, TCGUtils.PORT))) {
-            System.out.println("Opening a pack...");
-            PackRequest packRequest = new PackRequest(username, getPackName(packIndex), 5);
-            messageSocket.sendMessage(packRequest);
-            Message response = messageSocket.getMessage();
-            if (response instanceof PackResponse packResponse) {
+        System.out.println("Opening a pack...");
+        TcgClient.whenDone(TcgClient.openPack(username, getPackName(packIndex), 5), (packResponse, error) -> {
+            if (packResponse != null) {
                 JSONArray cards = packResponse.getCards();
                 System.out.println("You opened a pack with the following cards:");
                 // Create an array of Cards
@@ -206,12 +201,9 @@ public class HomePanel extends TCGPanel {
                 }
                 new PackOpeningWindow(openedCards);
             } else {
-                System.err.println("Unexpected response type: " + response.getType());
+                System.out.println("Error while opening pack: " + error.getMessage());
             }
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            System.out.println("Error while opening pack: " + ex.getMessage());
-        }
+        });
     }
 
 
@@ -3,31 +3,44 @@ package client.panels;
 import client.frames.MainFrame;
 import client.utils.ArrowHelper;
 import client.utils.TCGUtils;
+import client.utils.TcgClient;
 import merrimackutil.json.types.JSONArray;
+import shared.TradeRecord;
 import shared.Card;
-import shared.MessageSocket;
 import shared.messages.*;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.IOException;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class TradePanel extends TCGPanel {
 
     private final ArrowHelper arrowHelper;
     private final JPanel requestPanel;
-    private final List<TradeRequest> activeRequests = new ArrayList<>();
+    private final List<TradeRecord> activeRequests = new ArrayList<>();
     private String pendingTradePartner;
 
     public TradePanel(MainFrame parentFrame, String username) {
+        this(parentFrame, username, null, null);
+    }
+
+    /**
+     * Creates the panel from responses that were already fetched
+     *
+     * @param collection the server's response to a CollectionRequest, null to fetch it
+     * @param trades     the server's response to a ViewTradesRequest, null to fetch it
+     */
+    public TradePanel(MainFrame parentFrame, String username, Message collection, Message trades) {
         super(parentFrame, username);
         arrowHelper = new ArrowHelper();
+        // in flight while the trade area loads the collection
+        CompletableFuture<? extends Message> incomingTrades = trades != null
+                ? CompletableFuture.completedFuture(trades) : TcgClient.trades(username);
 
         JPanel chatPanel = createSidePanel("Trade History", new Dimension(300, 0), Color.DARK_GRAY);
-        JPanel tradeArea = createTradeArea();
+        JPanel tradeArea = createTradeArea(collection);
         tradeArea.setPreferredSize(new Dimension(500, 0));
 
         requestPanel = new JPanel();
@@ -60,7 +73,7 @@ public class TradePanel extends TCGPanel {
 
         addMainComponent(container, true);
 
-        loadIncomingRequests(); // ⬅ loads "Incoming Requests" panel on the right
+        loadIncomingRequests(incomingTrades); // ⬅ loads "Incoming Requests" panel on the right
     }
 
     private JPanel createSidePanel(String title, Dimension size, Color bg) {
@@ -75,19 +88,30 @@ public class TradePanel extends TCGPanel {
         return panel;
     }
 
-    private JPanel createTradeArea() {
-        JLayeredPane layered = new JLayeredPane();
-        layered.setPreferredSize(new Dimension(500, 500));
-
-        List<Card> userCards = fetchUserCards(getUsername());
+    private JPanel createTradeArea(Message collection) {
+        JPanel wrapper = new JPanel(new GridBagLayout());
+        wrapper.setOpaque(false);
+        if (collection != null) {
+            fillTradeArea(wrapper, TCGUtils.toCards(collection));
+        } else {
+            TcgClient.whenDone(TcgClient.collection(getUsername()), (response, error) -> {
+                fillTradeArea(wrapper, TCGUtils.toCards(response));
+                wrapper.revalidate();
+                wrapper.repaint();
+            });
+        }
+        return wrapper;
+    }
 
+    private void fillTradeArea(JPanel wrapper, List<Card> userCards) {
         if (userCards.size() < 2) {
-            JLabel noCards = new JLabel("Not enough cards to show sample trade.");
-            JPanel wrapper = new JPanel();
-            wrapper.add(noCards);
-            return wrapper;
+            wrapper.add(new JLabel("Not enough cards to show sample trade."));
+            return;
         }
 
+        JLayeredPane layered = new JLayeredPane();
+        layered.setPreferredSize(new Dimension(500, 500));
+
         Card cardA = userCards.get(0);
         Card cardB = userCards.get(1);
 
@@ -99,14 +123,18 @@ public class TradePanel extends TCGPanel {
         arrowHelper.addArrow(layered, cardA, 225);
         arrowHelper.addArrow(layered, cardB, 45);
 
-        JPanel wrapper = new JPanel(new GridBagLayout());
-        wrapper.setOpaque(false);
         wrapper.add(layered);
-        return wrapper;
     }
 
     private void initiateTrade() {
-        String[] partners = fetchActiveUsers(getUsername());
+        TcgClient.whenDone(TcgClient.users(), (response, error) -> {
+            if (response != null) {
+                choosePartner(activeUsers(response.getUsers(), getUsername()));
+            }
+        });
+    }
+
+    private void choosePartner(String[] partners) {
         if (partners.length == 0) {
             JOptionPane.showMessageDialog(this, "No other users online.");
             return;
@@ -124,38 +152,31 @@ public class TradePanel extends TCGPanel {
         parentFrame.showDynamicPanel(tradePanel, "TradeCollection_" + pendingTradePartner);
     }
 
-    private void loadIncomingRequests() {
-        activeRequests.clear();
-        try (MessageSocket ms = new MessageSocket(new Socket(TCGUtils.SERVERADDRESS, TCGUtils.PORT))) {
-            ms.sendMessage(new ViewTradesRequest(getUsername()));
-            var r = ms.getMessage();
+    private void loadIncomingRequests(CompletableFuture<? extends Message> trades) {
+        TcgClient.whenDone(trades, (r, error) -> {
+            activeRequests.clear();
             if (r instanceof ViewTradesResponse vr) {
-                JSONArray arr = vr.getTrades();
-                for (int i = 0; i < arr.size(); i++) {
-                    JSONArray t = arr.getArray(i);
-                    if (t.size() >= 4 && "request".equals(t.getString(0))
-                            && getUsername().equals(t.getString(2))) {
-                        activeRequests.add(new TradeRequest(t.getString(1), t.getString(2), t.getString(3)));
+                for (TradeRecord trade : vr.getTrades()) {
+                    if (trade.isRequest() && getUsername().equals(trade.recipientID())) {
+                        activeRequests.add(trade);
                     }
                 }
             }
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
-        refreshRequestPanel();
+            refreshRequestPanel();
+        });
     }
 
     private void refreshRequestPanel() {
         requestPanel.removeAll();
-        for (TradeRequest req : activeRequests) {
-            String tradeKey = req.getRequesterID() + req.getRecipientID();
+        for (TradeRecord req : activeRequests) {
             TradeRequestPanel item = new TradeRequestPanel(
                     parentFrame,
-                    req.getRequesterID(),
-                    new Card(req.getOfferCardID(), "", 0, req.getOfferCardID()),
-                    tradeKey,
+                    req.requesterID(),
+                    new Card(req.offerCardID(), "", 0, req.offerCardID()),
+                    req.tradeID(),
                     () -> {
-                        loadIncomingRequests(); // refresh this list after accept/deny
+                        // refresh this list after accept/deny
+                        loadIncomingRequests(TcgClient.trades(getUsername()));
                         parentFrame.reloadPanel(TCGUtils.TRADE); // ensure panel refreshes visually
                     },
                     true
@@ -166,47 +187,12 @@ public class TradePanel extends TCGPanel {
         requestPanel.repaint();
     }
 
-    private String[] fetchActiveUsers(String self) {
-        try (MessageSocket ms = new MessageSocket(new Socket(TCGUtils.SERVERADDRESS, TCGUtils.PORT))) {
-            ms.sendMessage(new UserListRequest());
-            var r = ms.getMessage();
-            if (!(r instanceof UserListResponse)) return new String[0];
-            JSONArray a = ((UserListResponse) r).getUsers();
-            List<String> list = new ArrayList<>();
-            for (int i = 0; i < a.size(); i++) {
-                String u2 = a.getString(i);
-                if (!u2.equals(self)) list.add(u2);
-            }
-            return list.toArray(new String[0]);
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            return new String[0];
+    private String[] activeUsers(JSONArray a, String self) {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < a.size(); i++) {
+            String u2 = a.getString(i);
+            if (!u2.equals(self)) list.add(u2);
         }
-    }
-
-    private List<Card> fetchUserCards(String username) {
-        List<Card> cardList = new ArrayList<>();
-
-        try (MessageSocket ms = new MessageSocket(new Socket(TCGUtils.SERVERADDRESS, TCGUtils.PORT))) {
-            ms.sendMessage(new CollectionRequest(username));
-            var response = ms.getMessage();
-
-            if (response instanceof CollectionResponse cr) {
-                JSONArray collection = cr.getCollection();
-                for (int i = 0; i < collection.size(); i++) {
-                    var obj = collection.getObject(i);
-                    String cardID = obj.getString("cardID");
-                    String name = obj.getString("name");
-                    double rarity = obj.getDouble("rarity");
-                    String image = obj.getString("imageLink");
-                    cardList.add(new Card(cardID, name, (int) rarity, image));
-                }
-            }
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return cardList;
+        return list.toArray(new String[0]);
     }
 }
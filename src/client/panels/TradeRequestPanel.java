@@ -2,31 +2,27 @@ package client.panels;
 
 import client.frames.MainFrame;
 import client.utils.TCGUtils;
+import client.utils.TcgClient;
 import shared.Card;
-import shared.MessageSocket;
 import shared.messages.*;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.IOException;
-import java.net.Socket;
-
-import static client.utils.TCGUtils.PORT;
-import static client.utils.TCGUtils.SERVERADDRESS;
+import java.util.concurrent.CompletableFuture;
 
 public class TradeRequestPanel extends JPanel {
 
-    private final String tradeKey;
+    private final long tradeID;
 
     public TradeRequestPanel(
             MainFrame parentFrame,
             String fromUser,
             Card proposedCard,
-            String tradeKey,
+            long tradeID,
             Runnable onDecision,
             boolean isListItem
     ) {
-        this.tradeKey = tradeKey;
+        this.tradeID = tradeID;
         setName("TradeRequest"); // Important for reloadPanel cleanup
 
         if (isListItem) {
@@ -48,7 +44,7 @@ public class TradeRequestPanel extends JPanel {
                 @Override
                 public void mouseClicked(java.awt.event.MouseEvent e) {
                     TradeRequestPanel fullView = new TradeRequestPanel(
-                            parentFrame, fromUser, proposedCard, tradeKey, onDecision, false
+                            parentFrame, fromUser, proposedCard, tradeID, onDecision, false
                     );
                     fullView.setName("TradeRequest");
                     parentFrame.showDynamicPanel(fullView, "TradeRequest");
@@ -60,21 +56,28 @@ public class TradeRequestPanel extends JPanel {
             setLayout(new BorderLayout());
             setBackground(Color.WHITE);
 
-            Card realCard = TCGUtils.fetchCardByID(fromUser, proposedCard.getCardID());
-
             JPanel center = new JPanel(new GridBagLayout());
             GridBagConstraints gbc = new GridBagConstraints();
             gbc.gridx = 0;
             gbc.gridy = 0;
             gbc.anchor = GridBagConstraints.CENTER;
 
-            JLabel lbl = new JLabel(fromUser + " offers: " + realCard.getName() + " (Rarity " + realCard.getRarity() + ")");
+            JLabel lbl = new JLabel(fromUser + " offers: " + proposedCard.getCardID());
             lbl.setFont(new Font("Arial", Font.BOLD, 16));
             center.add(lbl, gbc);
 
             gbc.gridy = 1;
-            ImageIcon icon = new ImageIcon(realCard.getImage());
-            center.add(new JLabel(icon), gbc);
+            JLabel image = new JLabel();
+            center.add(image, gbc);
+
+            // fill in the card's details once the offering user's collection arrives
+            TcgClient.whenDone(TcgClient.collection(fromUser), (response, error) -> {
+                Card realCard = TCGUtils.findCard(TCGUtils.toCards(response), proposedCard.getCardID());
+                lbl.setText(fromUser + " offers: " + realCard.getName() + " (Rarity " + realCard.getRarity() + ")");
+                image.setIcon(new ImageIcon(realCard.getImage()));
+                revalidate();
+                repaint();
+            });
 
             gbc.gridy = 2;
             JPanel buttons = new JPanel();
@@ -95,8 +98,7 @@ public class TradeRequestPanel extends JPanel {
 
             // Deny trade
             deny.addActionListener(e -> {
-                sendTradeResponse(null);
-                SwingUtilities.invokeLater(() -> parentFrame.reloadPanel("TradeStatus"));
+                sendTradeResponse(null).whenComplete((sts, error) -> parentFrame.reloadPanel("TradeStatus"));
             });
 
             // Accept trade
@@ -112,8 +114,7 @@ public class TradeRequestPanel extends JPanel {
 
                 String selectedCardID = collectionPanel.getSelectedCardID();
                 if (result == JOptionPane.OK_OPTION && selectedCardID != null) {
-                    sendTradeResponse(selectedCardID);
-                    SwingUtilities.invokeLater(() -> {
+                    sendTradeResponse(selectedCardID).whenComplete((sts, error) -> {
                         JOptionPane.showMessageDialog(this, "Trade response sent.");
                         parentFrame.reloadPanel("TradeStatus");
                         parentFrame.reloadPanel(TCGUtils.TRADE);
@@ -126,19 +127,19 @@ public class TradeRequestPanel extends JPanel {
         }
     }
 
-    private void sendTradeResponse(String responseCardID) {
-        try (MessageSocket ms = new MessageSocket(new Socket(SERVERADDRESS, PORT))) {
-            ms.sendMessage(new TradeResponse(true, tradeKey, responseCardID));
-            var msg = ms.getMessage();
-            if (msg instanceof ServerTradeStatus sts) {
+    /**
+     * @return completes on the event dispatch thread once the server's answer was shown
+     */
+    private CompletableFuture<ServerTradeStatus> sendTradeResponse(String responseCardID) {
+        return TcgClient.whenDone(TcgClient.respondToTrade(tradeID, responseCardID), (sts, error) -> {
+            if (sts != null) {
                 JOptionPane.showMessageDialog(this,
                         sts.getMessage(),
                         sts.getStatus() ? "Success" : "Error",
                         sts.getStatus() ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.ERROR_MESSAGE);
+            } else {
+                JOptionPane.showMessageDialog(this, "Trade failed due to server error.");
             }
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Trade failed due to server error.");
-        }
+        });
     }
 }
@@ -0,0 +1,315 @@
+package client.utils;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import shared.MessageSocket;
+import shared.messages.CollectionRequest;
+import shared.messages.LogOutRequest;
+import shared.messages.Message;
+import shared.messages.SubscribeRequest;
+import shared.messages.TradeEvent;
+import shared.messages.UserCredRequest;
+import shared.messages.UserCredResponse;
+import shared.messages.UserListRequest;
+import shared.messages.ViewTradesRequest;
+
+/**
+ * Single shared connection to the server used by every screen of the client.
+ * The server keeps a session open per connection, so requests reuse one socket
+ * instead of paying for a new connection each time.
+ *
+ * Requests are tagged with an id and may be sent back to back without waiting,
+ * a reader thread hands each response to the request with the same id. Trade
+ * events the server pushes go to the listeners given to subscribe.
+ */
+public class ServerConnection {
+    private static Session session;
+    private static UserCredRequest login; // replayed when the session has to be reopened
+    private static final List<Consumer<TradeEvent>> listeners = new CopyOnWriteArrayList<>();
+    private static boolean subscribed; // resubscribe when the session is reopened
+
+    private ServerConnection() {
+    }
+
+    /**
+     * Sends a request on the shared connection and waits for its response.
+     * If the server dropped the session (e.g. idle timeout) the connection is
+     * reopened and a request that only reads is sent once more. Any other
+     * request may already have been applied, so its error is returned instead.
+     *
+     * @param request message to send
+     * @return the response from the server
+     * @throws IOException Throws if the server cannot be reached
+     */
+    public static Message request(Message request) throws IOException {
+        Session used;
+        boolean reused;
+        CompletableFuture<Message> response;
+        synchronized (ServerConnection.class) {
+            reused = session != null;
+            used = session();
+            response = used.send(request);
+        }
+        try {
+            return await(response);
+        } catch (IOException e) {
+            if (!reused || !isIdempotent(request)) {
+                throw e;
+            }
+        }
+
+        // stale session, retry once on a fresh connection
+        synchronized (ServerConnection.class) {
+            if (session == used) {
+                session = null;
+            }
+            response = session().send(request);
+        }
+        return await(response);
+    }
+
+    /**
+     * @return whether sending the request twice does the same as sending it once
+     */
+    private static boolean isIdempotent(Message request) {
+        return request instanceof CollectionRequest || request instanceof ViewTradesRequest
+                || request instanceof UserListRequest;
+    }
+
+    /**
+     * Sends a request without waiting, so several can be in flight at once
+     *
+     * @param request message to send
+     * @return completes with the response, or exceptionally with an IOException
+     *         if the connection fails first
+     */
+    public static synchronized CompletableFuture<Message> send(Message request) {
+        try {
+            return session().send(request);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Waits for a response from send
+     *
+     * @param response future returned by send
+     * @return the response from the server
+     * @throws IOException Throws if the connection failed before the response came
+     */
+    public static Message await(CompletableFuture<Message> response) throws IOException {
+        try {
+            return response.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the server", e);
+        }
+    }
+
+    /**
+     * Asks the server to push trade events for the logged in user. Listeners
+     * run on the connection's reader thread, so they should hand work to the
+     * event dispatch thread rather than block.
+     *
+     * @param listener called for every pushed event
+     * @throws IOException Throws if the server cannot be reached
+     */
+    public static void subscribe(Consumer<TradeEvent> listener) throws IOException {
+        listeners.add(listener);
+        synchronized (ServerConnection.class) {
+            if (subscribed) {
+                return;
+            }
+            subscribed = true;
+        }
+        request(new SubscribeRequest());
+    }
+
+    /**
+     * Ends the session by sending a LogOutRequest and closing the connection
+     *
+     * @param username the logged in user, may be null
+     */
+    public static synchronized void logOut(String username) {
+        if (session != null) {
+            session.socket.sendMessage(new LogOutRequest(username));
+            session.close(new IOException("Logged out"));
+            session = null;
+        }
+        login = null;
+        subscribed = false;
+        listeners.clear();
+    }
+
+    /**
+     * @return the open session, connecting first if needed
+     */
+    private static Session session() throws IOException {
+        if (session == null || session.closed) {
+            session = new Session();
+        }
+        return session;
+    }
+
+    /**
+     * One connection to the server and the requests waiting on it
+     */
+    private static class Session implements Runnable {
+        private final MessageSocket socket;
+        // in send order, so a server that does not echo ids is answered oldest first
+        private final Map<Integer, CompletableFuture<Message>> pending = new LinkedHashMap<>();
+        private final Map<Integer, Message> requests = new LinkedHashMap<>();
+        private int nextID = 1;
+        private volatile boolean closed;
+        // keeps ids in the order they hit the wire, separate from the lock the reader uses
+        private final Object sendLock = new Object();
+
+        /**
+         * Opens the connection and replays the login and subscription if there were any
+         */
+        Session() throws IOException {
+            MessageSocket opened = new MessageSocket(TCGUtils.SERVERADDRESS, TCGUtils.PORT);
+            try {
+                opened.requestFraming(TCGUtils.CODEC, TCGUtils.COMPRESSION);
+            } catch (NoSuchElementException e) {
+                // older servers hang up on a Hello, stay line delimited with them
+                close(opened);
+                opened = new MessageSocket(TCGUtils.SERVERADDRESS, TCGUtils.PORT);
+            }
+            socket = opened;
+            try {
+                if (login != null) {
+                    socket.sendMessage(login);
+                    socket.getMessage();
+                    if (subscribed) {
+                        socket.sendMessage(new SubscribeRequest());
+                        socket.getMessage();
+                    }
+                }
+            } catch (NoSuchElementException e) {
+                close(socket);
+                throw new IOException("Connection closed by server", e);
+            }
+
+            Thread reader = new Thread(this, "server-connection-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        CompletableFuture<Message> send(Message request) {
+            CompletableFuture<Message> response = new CompletableFuture<>();
+            synchronized (sendLock) {
+                synchronized (this) {
+                    if (closed) {
+                        response.completeExceptionally(new IOException("Connection closed by server"));
+                        return response;
+                    }
+                    int id = nextID++;
+                    if (nextID <= 0) {
+                        nextID = 1;
+                    }
+                    request.setRequestID(id);
+                    pending.put(id, response);
+                    requests.put(id, request);
+                }
+                socket.sendMessage(request);
+            }
+            return response;
+        }
+
+        /**
+         * Reads responses until the connection ends
+         */
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Message response = socket.getMessage();
+                    if (response instanceof TradeEvent event) {
+                        for (Consumer<TradeEvent> listener : listeners) {
+                            try {
+                                listener.accept(event);
+                            } catch (RuntimeException e) {
+                                System.err.println("Trade event listener failed: " + e.getMessage());
+                            }
+                        }
+                        continue;
+                    }
+                    Message request;
+                    CompletableFuture<Message> waiting;
+                    synchronized (this) {
+                        int id = response.getRequestID();
+                        if (id == 0 && !pending.isEmpty()) {
+                            id = pending.keySet().iterator().next();
+                        }
+                        waiting = pending.remove(id);
+                        request = requests.remove(id);
+                    }
+                    if (waiting == null) {
+                        System.err.println("Dropping unexpected " + response.getType() + " from server");
+                        continue;
+                    }
+                    rememberLogin(request, response);
+                    waiting.complete(response);
+                }
+            } catch (NoSuchElementException e) {
+                close(new IOException("Connection closed by server", e));
+            } catch (RuntimeException e) {
+                System.err.println("Error reading from server: " + e.getMessage());
+                close(new IOException("Bad response from server", e));
+            }
+        }
+
+        /**
+         * Closes the connection and fails the requests still waiting on it
+         */
+        void close(IOException reason) {
+            synchronized (this) {
+                closed = true;
+                Iterator<CompletableFuture<Message>> waiting = pending.values().iterator();
+                while (waiting.hasNext()) {
+                    waiting.next().completeExceptionally(reason);
+                    waiting.remove();
+                }
+                requests.clear();
+            }
+            close(socket);
+        }
+
+        /**
+         * Closes a socket, ignoring errors
+         */
+        private static void close(MessageSocket socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("Error closing server connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Remembers a successful login so a reopened session is logged in again
+     */
+    private static synchronized void rememberLogin(Message request, Message response) {
+        if (request instanceof UserCredRequest credRequest && credRequest.getType().equals("Login")
+                && response instanceof UserCredResponse credResponse && credResponse.isSuccess()) {
+            login = credRequest;
+        }
+    }
+}
@@ -2,13 +2,13 @@ package client.utils;
 
 import merrimackutil.json.types.JSONArray;
 import shared.Card;
-import shared.MessageSocket;
 import shared.messages.CollectionRequest;
 import shared.messages.CollectionResponse;
+import shared.messages.Hello;
+import shared.messages.Message;
 
 import java.awt.*;
 import java.io.IOException;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,6 +28,10 @@ public class TCGUtils {
 
     public static final String SERVERADDRESS = "localhost";
     public static final int PORT = 5000;
+    // "binary" for the compact codec, run with -Dtcg.codec=json to see messages as JSON
+    public static final String CODEC = System.getProperty("tcg.codec", Hello.CODEC_BINARY);
+    // "deflate" compresses large responses such as collections, "none" turns it off
+    public static final String COMPRESSION = System.getProperty("tcg.compression", Hello.COMPRESSION_DEFLATE);
 
     public static final String HOME = "Home";
     public static final String COLLECTION = "Collection";
@@ -40,24 +44,33 @@ public class TCGUtils {
      * @return list of Card objects
      */
     public static List<Card> fetchUserCards(String username) {
-        List<Card> cardList = new ArrayList<>();
-        try (MessageSocket ms = new MessageSocket(new Socket(SERVERADDRESS, PORT))) {
-            ms.sendMessage(new CollectionRequest(username));
-            var response = ms.getMessage();
-
-            if (response instanceof CollectionResponse cr) {
-                JSONArray collection = cr.getCollection();
-                for (int i = 0; i < collection.size(); i++) {
-                    var obj = collection.getObject(i);
-                    String cardID = obj.getString("cardID");
-                    String name = obj.getString("name");
-                    double rarity = obj.getDouble("rarity");
-                    String image = obj.getString("imageLink");
-                    cardList.add(new Card(cardID, name, (int) rarity, image));
-                }
-            }
+        try {
+            return toCards(ServerConnection.request(new CollectionRequest(username)));
         } catch (IOException e) {
             e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Builds Card objects from a collection response that was already fetched,
+     * e.g. as part of a batch.
+     *
+     * @param response the server's response to a CollectionRequest
+     * @return list of Card objects, empty if the response is not a CollectionResponse
+     */
+    public static List<Card> toCards(Message response) {
+        List<Card> cardList = new ArrayList<>();
+        if (response instanceof CollectionResponse cr) {
+            JSONArray collection = cr.getCollection();
+            for (int i = 0; i < collection.size(); i++) {
+                var obj = collection.getObject(i);
+                String cardID = obj.getString("cardID");
+                String name = obj.getString("name");
+                double rarity = obj.getDouble("rarity");
+                String image = obj.getString("imageLink");
+                cardList.add(new Card(cardID, name, (int) rarity, image));
+            }
         }
         return cardList;
     }
@@ -70,7 +83,18 @@ public class TCGUtils {
      * @return the Card object if found, or a fallback "Unknown" card
      */
     public static Card fetchCardByID(String username, String cardID) {
-        return fetchUserCards(username).stream()
+        return findCard(fetchUserCards(username), cardID);
+    }
+
+    /**
+     * Finds a card by ID in a list of cards.
+     *
+     * @param cards  the cards to search
+     * @param cardID the ID of the card to find
+     * @return the Card object if found, or a fallback "Unknown" card
+     */
+    public static Card findCard(List<Card> cards, String cardID) {
+        return cards.stream()
                 .filter(c -> c.getCardID().equals(cardID))
                 .findFirst()
                 .orElse(new Card(cardID, "Unknown", 0, ""));
@@ -0,0 +1,165 @@
+package client.utils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+import shared.messages.*;
+
+/**
+ * Asynchronous facade over the shared ServerConnection for the Swing screens.
+ *
+ * Every call runs its round trip on a small background pool and returns a
+ * future that completes on the event dispatch thread, so callbacks chained
+ * with thenAccept or whenComplete may touch Swing components directly. Never
+ * join or get one of these futures on the event dispatch thread, it would
+ * wait on itself.
+ */
+public class TcgClient {
+    // round trips are pipelined on one connection, a few threads keep it busy
+    private static final int POOL_SIZE = 4;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService pool = Executors.newFixedThreadPool(POOL_SIZE, r -> {
+        Thread thread = new Thread(r, "tcg-client-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Runs tasks on the event dispatch thread
+     */
+    public static final Executor EDT = SwingUtilities::invokeLater;
+
+    private TcgClient() {
+    }
+
+    public static CompletableFuture<UserCredResponse> authenticate(String requestType, String username, String password) {
+        return call(new UserCredRequest(requestType, username, password), UserCredResponse.class);
+    }
+
+    public static CompletableFuture<PackResponse> openPack(String username, String packName, int cardCount) {
+        return call(new PackRequest(username, packName, cardCount), PackResponse.class);
+    }
+
+    public static CompletableFuture<CollectionResponse> collection(String username) {
+        return call(new CollectionRequest(username), CollectionResponse.class);
+    }
+
+    public static CompletableFuture<ViewTradesResponse> trades(String username) {
+        return call(new ViewTradesRequest(username), ViewTradesResponse.class);
+    }
+
+    public static CompletableFuture<UserListResponse> users() {
+        return call(new UserListRequest(), UserListResponse.class);
+    }
+
+    public static CompletableFuture<ServerTradeStatus> requestTrade(String requester, String recipient, String cardID) {
+        return call(new TradeRequest(requester, recipient, cardID), ServerTradeStatus.class);
+    }
+
+    /**
+     * @param cardID card sent back, null to decline the trade
+     */
+    public static CompletableFuture<ServerTradeStatus> respondToTrade(long tradeID, String cardID) {
+        return call(new TradeResponse(cardID != null, tradeID, cardID), ServerTradeStatus.class);
+    }
+
+    public static CompletableFuture<ServerTradeStatus> confirmTrade(long tradeID) {
+        return call(new TradeConfirmation(tradeID, true), ServerTradeStatus.class);
+    }
+
+    /**
+     * Sends several requests in one BatchRequest
+     *
+     * @return the responses in request order
+     */
+    public static CompletableFuture<List<Message>> batch(List<Message> requests) {
+        return call(new BatchRequest(requests), BatchResponse.class).thenApply(BatchResponse::getResponses);
+    }
+
+    /**
+     * Subscribes to trade events, the listener is called on the event dispatch thread
+     */
+    public static CompletableFuture<Void> subscribe(Consumer<TradeEvent> listener) {
+        return onEdt(CompletableFuture.runAsync(() -> {
+            try {
+                ServerConnection.subscribe(event -> SwingUtilities.invokeLater(() -> listener.accept(event)));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, pool));
+    }
+
+    /**
+     * Sends any request off the event dispatch thread
+     *
+     * @return completes on the event dispatch thread with the response
+     */
+    public static CompletableFuture<Message> request(Message request) {
+        return call(request, Message.class);
+    }
+
+    /**
+     * Convenience for the usual callback, logs the failure and hands the
+     * result or null to the handler on the event dispatch thread
+     *
+     * @param handler gets the result, or null and the failure
+     * @return completes with the same outcome after the handler ran
+     */
+    public static <T> CompletableFuture<T> whenDone(CompletableFuture<T> future, BiConsumer<T, Throwable> handler) {
+        return future.whenComplete((result, error) -> {
+            Throwable cause = unwrap(error);
+            if (cause != null) {
+                System.err.println("Server request failed: " + cause.getMessage());
+            }
+            handler.accept(result, cause);
+        });
+    }
+
+    /**
+     * Sends a request on the pool and checks the type of its response
+     */
+    private static <T extends Message> CompletableFuture<T> call(Message request, Class<T> expected) {
+        return onEdt(CompletableFuture.supplyAsync(() -> {
+            Message response;
+            try {
+                response = ServerConnection.request(request);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            if (expected.isInstance(response)) {
+                return expected.cast(response);
+            }
+            String detail = response instanceof ErrorResponse error ? error.getMessage() : response.getType();
+            throw new CompletionException(new IOException("Unexpected response to " + request.getType() + ": " + detail));
+        }, pool));
+    }
+
+    /**
+     * @return future completing on the event dispatch thread with the same outcome
+     */
+    private static <T> CompletableFuture<T> onEdt(CompletableFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        future.whenComplete((value, error) -> EDT.execute(() -> {
+            if (error != null) {
+                result.completeExceptionally(unwrap(error));
+            } else {
+                result.complete(value);
+            }
+        }));
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
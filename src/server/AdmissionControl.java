@@ -0,0 +1,127 @@
+package server;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps how many requests the server works on at once. A request that cannot
+ * get a permit within the wait time is rejected instead of piling up.
+ */
+public class AdmissionControl {
+    private final Semaphore permits;
+    private final int maxInFlight;
+    private final long waitMillis;
+    private volatile boolean closed; // set by drain, nothing is admitted after
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param maxInFlight most requests handled at the same time
+     * @param waitMillis  how long a request may wait for a permit
+     */
+    public AdmissionControl(int maxInFlight, long waitMillis) {
+        this.permits = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * Waits up to the configured time for a permit. Refuses once drain was
+     * called, even a request that was already waiting.
+     *
+     * @return true if the request may run, in which case release must be called
+     */
+    public boolean tryAdmit() {
+        if (closed) {
+            rejected.increment();
+            return false;
+        }
+        queueDepth.incrementAndGet();
+        try {
+            if (permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                // drain may have started while this waited, and may already have
+                // counted this permit as free, so the request must not run
+                if (closed) {
+                    permits.release();
+                } else {
+                    admitted.increment();
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queueDepth.decrementAndGet();
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Gives back the permit of an admitted request
+     */
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * Stops admitting requests and waits for the admitted ones to finish
+     *
+     * @param timeoutMillis longest time to wait
+     * @return true if every admitted request finished in time
+     */
+    public boolean drain(long timeoutMillis) {
+        closed = true;
+        try {
+            // every permit back means nothing is in flight, and closed keeps it that
+            // way: a request that gets a permit after this checks closed and gives it back
+            if (permits.tryAcquire(maxInFlight, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                permits.release(maxInFlight);
+                return true;
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return whether drain was called and requests are no longer admitted
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return requests currently waiting for a permit
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return requests currently being handled
+     */
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "in flight " + getInFlight() + "/" + maxInFlight + ", queued " + getQueueDepth()
+                + ", admitted " + getAdmittedCount() + ", rejected " + getRejectedCount();
+    }
+}
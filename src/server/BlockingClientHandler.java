@@ -0,0 +1,174 @@
+package server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+
+import shared.MessageSocket;
+import shared.UnknownMessageTypeException;
+import shared.messages.LogOutRequest;
+import shared.messages.Message;
+
+/**
+ * ClientHandler for a connection of the blocking engine. The connection's
+ * own thread reads requests and runs the untagged ones, tagged requests go to
+ * the server's executor. Pushes are written by a task on the executor that
+ * only runs while pushes are waiting, so an idle subscriber holds no thread.
+ */
+public class BlockingClientHandler extends ClientHandler implements Runnable {
+    private final Socket socket;
+    private final ServerConnectionHandler server;
+    private MessageSocket msgSocket;
+
+    // pushes waiting to be written, guarded by itself
+    private final Queue<Message> pushes = new ArrayDeque<>();
+    private boolean draining; // a writePushes task is running, guarded by pushes
+
+    public BlockingClientHandler(Socket socket, ServerConnectionHandler server) {
+        super(server);
+        this.socket = socket;
+        this.server = server;
+        try {
+            this.msgSocket = new MessageSocket(socket);
+            this.msgSocket.setMaxFrameBytes(server.getConfig().getMaxFrameBytes());
+            this.msgSocket.setBinaryAllowed(server.getConfig().allowBinaryCodec());
+            this.msgSocket.setCompressionThreshold(server.getConfig().getCompressionThreshold());
+        } catch (IOException e) {
+            System.err.println("Could not create MessageSocket: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Serves requests on this connection until the client logs out, closes the
+     * connection or the SessionReaper closes it for being idle
+     */
+    @Override
+    public void run() {
+        if (msgSocket == null) {
+            closeSocket();
+            return;
+        }
+
+        try {
+            while (true) {
+                // Receive the next message from the client
+                Message recvMsg;
+                try {
+                    recvMsg = msgSocket.getMessage();
+                } catch (UnknownMessageTypeException e) {
+                    touch();
+                    sendMessage(unknownType(e));
+                    continue;
+                }
+                touch();
+                System.out.println("Received message: " + recvMsg.getType());
+
+                if (recvMsg instanceof LogOutRequest) {
+                    awaitPipelined(); // only holds up this connection's own thread
+                    break;
+                }
+                dispatchPipelined(recvMsg, server.getRequestExecutor());
+            }
+        } catch (NoSuchElementException e) {
+            // stream ended: client hung up or the reaper closed the idle session
+        } catch (RuntimeException e) {
+            System.err.println("Error handling client request: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            closeSocket();
+        }
+    }
+
+    @Override
+    public void sendMessage(Message message) {
+        msgSocket.sendMessage(message);
+    }
+
+    /**
+     * Queues a push and starts a task to write it unless one is running
+     */
+    @Override
+    protected boolean queuePush(Message event) {
+        synchronized (pushes) {
+            if (pushes.size() >= MAX_QUEUED_PUSHES) {
+                return false;
+            }
+            pushes.add(event);
+            if (draining) {
+                return true;
+            }
+            draining = true;
+        }
+        try {
+            server.getRequestExecutor().execute(this::writePushes);
+        } catch (RejectedExecutionException e) {
+            // every thread is busy or the server is shutting down, the push stays
+            // queued for the next one to start a task
+            synchronized (pushes) {
+                draining = false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends queued pushes until none are left, then ends so the thread goes
+     * back to the executor. A slow client only holds up this task, not the
+     * thread that pushed.
+     */
+    private void writePushes() {
+        while (true) {
+            Message event;
+            synchronized (pushes) {
+                event = isClosed() ? null : pushes.poll();
+                if (event == null) {
+                    draining = false; // the next push starts a new task
+                    return;
+                }
+            }
+            sendMessage(event);
+        }
+    }
+
+    @Override
+    protected String remoteAddress() {
+        return socket.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * Closing the socket ends the blocking read in run, which then cleans up
+     */
+    @Override
+    protected void closeIdle() {
+        closeSocket();
+    }
+
+    @Override
+    protected void closeForShutdown() {
+        closeSocket();
+    }
+
+    /**
+     * Closes the connection to the client, a running push task stops at its
+     * next push
+     */
+    private void closeSocket() {
+        sessionClosed();
+        synchronized (pushes) {
+            pushes.clear();
+        }
+        try {
+            if (msgSocket != null) {
+                msgSocket.close();
+            } else {
+                socket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing client socket: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package server;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import merrimackutil.json.JsonIO;
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+
+/**
+ * Every card that exists, read once from cards.json. Each card gets a dense
+ * index in file order, collections are arrays of counts by that index and
+ * the name, rarity and image come from here. Card IDs are only used at the
+ * edges, in messages and in the files.
+ */
+public class CardCatalog {
+    public static final File DEFAULT_FILE = new File("src/server/cardinfo/cards.json");
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * A card as described in cards.json
+     */
+    public record CardInfo(int index, String cardID, String name, int rarity, String imageLink, String pack) {
+        /**
+         * @return the card in the shape clients get it in packs and collections
+         */
+        public JSONObject toJSON() {
+            JSONObject cardJSON = new JSONObject();
+            cardJSON.put("cardID", cardID);
+            cardJSON.put("name", name);
+            cardJSON.put("rarity", rarity);
+            cardJSON.put("imageLink", imageLink);
+            return cardJSON;
+        }
+    }
+
+    private final List<CardInfo> cards = new ArrayList<>(); // by index
+    private final Map<String, CardInfo> byID = new HashMap<>();
+    private final Map<String, int[]> packs = new HashMap<>(); // pack name -> indices of its cards
+
+    /**
+     * Creates an empty catalog
+     */
+    public CardCatalog() {
+    }
+
+    /**
+     * Reads the catalog from the default cards.json, empty if it cannot be read
+     */
+    public static CardCatalog loadDefault() {
+        try {
+            return load(DEFAULT_FILE);
+        } catch (FileNotFoundException | InvalidObjectException e) {
+            System.err.println("Could not read cards.json, packs will be empty: " + e.getMessage());
+            return new CardCatalog();
+        }
+    }
+
+    /**
+     * Reads the catalog from a cards.json file
+     *
+     * @throws FileNotFoundException  Throws if the file does not exist
+     * @throws InvalidObjectException Throws if a card is missing a field
+     */
+    public static CardCatalog load(File file) throws FileNotFoundException, InvalidObjectException {
+        CardCatalog catalog = new CardCatalog();
+        JSONArray cardArray = JsonIO.readArray(file);
+        for (int i = 0; i < cardArray.size(); i++) {
+            JSONObject card = (JSONObject) cardArray.get(i);
+            card.checkValidity(new String[] { "cardID", "name", "rarity", "imageLink", "pack" });
+            String cardID = card.getString("cardID");
+            if (catalog.byID.containsKey(cardID)) {
+                throw new InvalidObjectException("Card listed twice: " + cardID);
+            }
+            catalog.add(new CardInfo(catalog.cards.size(), cardID, card.getString("name"), card.getInt("rarity"),
+                    card.getString("imageLink"), card.getString("pack")));
+        }
+        return catalog;
+    }
+
+    private void add(CardInfo card) {
+        cards.add(card);
+        byID.put(card.cardID(), card);
+        int[] pack = packs.getOrDefault(card.pack(), new int[0]);
+        pack = Arrays.copyOf(pack, pack.length + 1);
+        pack[pack.length - 1] = card.index();
+        packs.put(card.pack(), pack);
+    }
+
+    /**
+     * @return the card with the index
+     * @throws IndexOutOfBoundsException if no card has the index
+     */
+    public CardInfo get(int index) {
+        return cards.get(index);
+    }
+
+    /**
+     * @return the card, null if there is no card with the ID
+     */
+    public CardInfo get(String cardID) {
+        return byID.get(cardID);
+    }
+
+    /**
+     * @return index of the card with the ID, -1 if there is none
+     */
+    public int indexOf(String cardID) {
+        CardInfo card = byID.get(cardID);
+        return card == null ? -1 : card.index();
+    }
+
+    /**
+     * @return indices of the cards that can be pulled from a pack, empty for
+     *         an unknown pack. Shared, do not modify.
+     */
+    public int[] inPack(String pack) {
+        return packs.getOrDefault(pack, EMPTY);
+    }
+
+    public int size() {
+        return cards.size();
+    }
+
+    /**
+     * Expands a collection of counts into the array of cards clients expect,
+     * one entry per copy, in catalog order
+     *
+     * @param counts copies owned by card index
+     */
+    public JSONArray expand(int[] counts) {
+        JSONArray collection = new JSONArray();
+        for (int index = 0; index < counts.length; index++) {
+            if (counts[index] == 0) {
+                continue;
+            }
+            JSONObject cardJSON = cards.get(index).toJSON(); // copies share one object, it is only serialized
+            for (int i = 0; i < counts[index]; i++) {
+                collection.add(cardJSON);
+            }
+        }
+        return collection;
+    }
+}
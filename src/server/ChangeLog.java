@@ -0,0 +1,67 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+
+import merrimackutil.json.types.JSONObject;
+
+/**
+ * Append-only log of a database's changes, replayed over its snapshot on
+ * startup. Each record gets a sequence number so a snapshot can say which
+ * records it already holds.
+ *
+ * Not thread safe, the owning database appends under its own lock. Only sync
+ * may run alongside the other methods.
+ */
+public interface ChangeLog extends Closeable {
+
+    /**
+     * Applies a replayed record to the database
+     */
+    @FunctionalInterface
+    interface Replayer {
+        void apply(JSONObject record) throws InvalidObjectException;
+    }
+
+    /**
+     * Replays the records after a snapshot and opens the log for appending
+     *
+     * @param snapshotSeq last sequence number the snapshot holds
+     * @param replayer    applies each record newer than the snapshot
+     * @return number of records replayed
+     * @throws IOException Throws if the log cannot be read or opened
+     */
+    int open(long snapshotSeq, Replayer replayer) throws IOException;
+
+    /**
+     * Appends a record, it is only durable once sync is called. Sets the
+     * record's "seq" field.
+     *
+     * @return sequence number of the record
+     * @throws IOException Throws if the record cannot be written
+     */
+    long append(JSONObject record) throws IOException;
+
+    /**
+     * Makes every record appended so far durable
+     */
+    void sync() throws IOException;
+
+    /**
+     * Empties the log once a snapshot holds everything in it
+     *
+     * @throws IOException Throws if the log cannot be emptied
+     */
+    void reset() throws IOException;
+
+    /**
+     * @return sequence number of the last record appended or replayed
+     */
+    long getLastSeq();
+
+    /**
+     * @return records in the log, replay gets slower the more there are
+     */
+    int getRecordCount();
+}
@@ -1,151 +1,284 @@
 package server;
 
-import java.io.IOException;
-import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import merrimackutil.json.types.JSONArray;
-import shared.MessageSocket;
+import shared.UnknownMessageTypeException;
 import shared.messages.*;
 
-public class ClientHandler implements Runnable {
-    private Socket socket;
-    private MessageSocket msgSocket;
+/**
+ * One client session, whatever engine serves its connection: who is logged
+ * in, the tagged requests still running and the trade events it wants.
+ * BlockingClientHandler serves a connection on a thread of its own,
+ * NioClientHandler on the NioServerEngine's event loops.
+ */
+public abstract class ClientHandler {
+    // default for how long a session may sit without a request before the server drops it
+    public static final int SESSION_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+    // tagged requests one connection may have running at once, past this the
+    // connection's own thread handles them and stops reading
+    public static final int MAX_PIPELINED = 32;
+    // server initiated messages a session may have waiting on the client, past
+    // this the client stops being pushed to
+    public static final int MAX_QUEUED_PUSHES = 64;
+    // how long a logout waits for the connection's running requests
+    private static final long PIPELINE_DRAIN_MS = 5000;
+
     private ServerConnectionHandler server;
-    private String username;
+    private volatile String username;
+    private volatile boolean subscribed; // client wants TradeEvents pushed
+    private String addressKey; // rate limit key before login
+    private volatile long lastActivity = System.currentTimeMillis(); // when the last request came in
+    private volatile boolean closed;
+
+    // tagged requests of this connection that are still running
+    private final AtomicInteger pipelined = new AtomicInteger();
 
-    public ClientHandler(Socket socket, ServerConnectionHandler server) {
-        this.socket = socket;
+    protected ClientHandler(ServerConnectionHandler server) {
         this.server = server;
+    }
+
+    /**
+     * Handles a request if the server has room for it, otherwise tells the
+     * client the server is busy
+     * 
+     * @param recvMsg message received from the client
+     */
+    protected void dispatch(Message recvMsg) {
+        AdmissionControl admission = server.getAdmissionControl();
+        if (!admission.tryAdmit()) {
+            if (admission.isClosed()) {
+                reply(recvMsg, new ErrorResponse(ErrorResponse.SHUTTING_DOWN, "Server is shutting down."));
+                return;
+            }
+            System.err.println("Rejected " + recvMsg.getType() + ", server busy (" + admission + ")");
+            reply(recvMsg, new ErrorResponse(ErrorResponse.BUSY, "Server is busy, try again later."));
+            return;
+        }
+
         try {
-            this.msgSocket = new MessageSocket(socket);
-        } catch (IOException e) {
-            System.err.println("Could not create MessageSocket: " + e.getMessage());
-            e.printStackTrace();
+            handleMessage(recvMsg);
+        } finally {
+            admission.release();
         }
     }
 
-    @Override
-    public void run() {
-        Message recvMsg;
-        // Receive the message from the client
-        recvMsg = msgSocket.getMessage();
-        System.out.println("Received message: " + recvMsg.getType());
-
-        if (recvMsg instanceof UserCredRequest) {
-            UserCredRequest userCredRequest = (UserCredRequest) recvMsg;
-            switch (recvMsg.getType()) {
-                case "Login":
-                    // these methods must be implemented in the ServerConnectionHandler class
-                    // to handle the different client connections
-                    if (server.handleLogin(userCredRequest)) {
-                        this.username = userCredRequest.getUsername();
-                        server.addClient(this.username, this);
-                        UserCredResponse response = new UserCredResponse(true);
-                        sendMessage(response);
-                    } else {
-                        UserCredResponse response = new UserCredResponse(false);
-                        sendMessage(response);
-                    }
-                    break;
-                case "Register":
-                    if (server.handleRegistration(userCredRequest)) {
-                        this.username = userCredRequest.getUsername();
-                        server.addClient(this.username, this);
-                        UserCredResponse response = new UserCredResponse(true);
-                        sendMessage(response);
-                    } else {
-                        UserCredResponse response = new UserCredResponse(false);
-                        sendMessage(response);
-                    }
-                    break;
-                default:
-                    System.err.println("Unknown message type: " + recvMsg.getType());
-            }
-        } else if (recvMsg instanceof PackRequest) {
-            PackRequest packRequest = (PackRequest) recvMsg;
-            switch (recvMsg.getType()) {
-                case "PackRequest":
-                    JSONArray cards = server.handlePackRequest(packRequest);
-                    PackResponse packResponse = new PackResponse(cards);
-                    sendMessage(packResponse);
-                    break;
-                default:
-                    System.err.println("Unknown message type: " + recvMsg.getType());
+    /**
+     * Dispatches a tagged request on the executor so later requests on the
+     * connection need not wait for it. Untagged requests, and tagged ones past
+     * MAX_PIPELINED, run on the calling thread to keep their order.
+     * 
+     * @param recvMsg  message received from the client
+     * @param executor runs tagged requests
+     */
+    protected void dispatchPipelined(Message recvMsg, Executor executor) {
+        if (recvMsg.getRequestID() == 0 || pipelined.incrementAndGet() > MAX_PIPELINED) {
+            if (recvMsg.getRequestID() != 0) {
+                pipelined.decrementAndGet();
             }
-        } else if (recvMsg instanceof CollectionRequest) {
-            CollectionRequest collectionRequest = (CollectionRequest) recvMsg;
-            switch (recvMsg.getType()) {
-                case "CollectionRequest":
-                    JSONArray collection = server.handleCollectionRequest(collectionRequest);
-                    CollectionResponse collectionResponse = new CollectionResponse(collection);
-                    sendMessage(collectionResponse);
-                    break;
-                default:
-                    System.err.println("Unknown message type: " + recvMsg.getType());
-            }
-        } else if (recvMsg instanceof TradeRequest) {
-            System.out.println("Trade request received");
-            TradeRequest tradeRequest = (TradeRequest) recvMsg;
-            switch (recvMsg.getType()) {
-                case "TradeRequest":
-                    System.out.println("Trade request from " + tradeRequest.getRequesterID() + " to "
-                            + tradeRequest.getRecipientID());
-                    server.handleTradeRequest(tradeRequest);
-                    ServerTradeStatus response = new ServerTradeStatus(true, "Trade request added successfully.");
-                    sendMessage(response);
-                    break;
-                default:
-                    System.err.println("Unknown message type: " + recvMsg.getType());
-            }
-        } else if (recvMsg instanceof TradeResponse) {
-            TradeResponse tradeResponse = (TradeResponse) recvMsg;
-            switch (recvMsg.getType()) {
-                case "TradeResponse":
-                    server.handleTradeResponse(tradeResponse);
-                    ServerTradeStatus response = new ServerTradeStatus(true, "Trade response processed successfully.");
-                    sendMessage(response);
-                    break;
-                default:
-                    System.err.println("Unknown message type: " + recvMsg.getType());
-            }
-        } else if (recvMsg instanceof ViewTradesRequest) {
-            ViewTradesRequest viewTradesRequest = (ViewTradesRequest) recvMsg;
-            switch (recvMsg.getType()) {
-                case "ViewTradesRequest":
-                    JSONArray trades = server.handleViewTradesRequest(viewTradesRequest);
-                    ViewTradesResponse viewTradesResponse = new ViewTradesResponse(trades);
-                    sendMessage(viewTradesResponse);
-                    break;
-                default:
-                    System.err.println("Unknown message type: " + recvMsg.getType());
-            }
-        } else if (recvMsg instanceof TradeConfirmation) {
-            TradeConfirmation tradeConfirmation = (TradeConfirmation) recvMsg;
-            switch (recvMsg.getType()) {
-                case "TradeConfirmation":
-                    server.handleTradeConfirmation(tradeConfirmation);
-                    break;
-                default:
-                    System.err.println("Unknown message type: " + recvMsg.getType());
+            dispatch(recvMsg);
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    dispatch(recvMsg);
+                } catch (RuntimeException e) {
+                    System.err.println("Error handling client request: " + e.getMessage());
+                    e.printStackTrace();
+                } finally {
+                    finishPipelined();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // executor refused the task, handle it here instead
+            finishPipelined();
+            dispatch(recvMsg);
+        }
+    }
+
+    private void finishPipelined() {
+        if (pipelined.decrementAndGet() == 0) {
+            synchronized (pipelined) {
+                pipelined.notifyAll();
             }
-        } else if (recvMsg instanceof UserListRequest) {
-            UserListRequest userListRequest = (UserListRequest) recvMsg;
-            switch (recvMsg.getType()) {
-                case "UserListRequest":
-                    JSONArray userList = server.handleUserListRequest(userListRequest);
-                    UserListResponse userListResponse = new UserListResponse(userList);
-                    sendMessage(userListResponse);
-                    break;
-                default:
-                    System.err.println("Unknown message type: " + recvMsg.getType());
+            pipelineDrained();
+        }
+    }
+
+    /**
+     * @return whether tagged requests of this connection are still running
+     */
+    protected boolean hasPipelined() {
+        return pipelined.get() > 0;
+    }
+
+    /**
+     * Called on the worker that finished the connection's last running tagged
+     * request, after its response was sent
+     */
+    protected void pipelineDrained() {
+    }
+
+    /**
+     * Waits a little for the connection's tagged requests to send their
+     * responses, so a logout does not cut them off
+     */
+    protected void awaitPipelined() {
+        long deadline = System.currentTimeMillis() + PIPELINE_DRAIN_MS;
+        synchronized (pipelined) {
+            long left;
+            while (pipelined.get() > 0 && (left = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    pipelined.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
             }
-        } else {
-            System.err.println("Unknown message type: " + recvMsg.getType());
         }
     }
 
+    /**
+     * Runs a single request through the server's pipeline and sends its response
+     * 
+     * @param recvMsg message received from the client
+     */
+    protected void handleMessage(Message recvMsg) {
+        Message response = server.getPipeline().handle(this, recvMsg);
+        if (response != null) {
+            reply(recvMsg, response);
+        }
+    }
+
+    /**
+     * Registers the connection under the user that logged in on it, replacing
+     * the user it was logged in as before
+     */
+    void loggedIn(String newUsername) {
+        String previous = this.username;
+        this.username = newUsername;
+        if (previous != null && !previous.equals(newUsername)) {
+            server.removeClient(previous, this);
+        }
+        server.addClient(newUsername, this);
+    }
+
+    /**
+     * Starts pushing trade events to this client
+     */
+    void subscribe() {
+        subscribed = true;
+    }
+
+    /**
+     * @return key the client's requests are rate limited under, the username
+     *         once logged in and the remote address before
+     */
+    String getRateLimitKey() {
+        String client = username;
+        if (client != null) {
+            return client;
+        }
+        if (addressKey == null) {
+            addressKey = "@" + remoteAddress(); // '@' keeps addresses apart from usernames
+        }
+        return addressKey;
+    }
+
+    /**
+     * @return address of the client, used to tell clients apart before login
+     */
+    protected abstract String remoteAddress();
+
+    /**
+     * Sends a server initiated message if the client subscribed to them. Never
+     * waits on the client, a client that falls MAX_QUEUED_PUSHES behind is
+     * dropped as a subscriber.
+     * 
+     * @param event message to push
+     */
+    public void push(Message event) {
+        if (subscribed && !queuePush(event)) {
+            subscribed = false;
+            System.err.println("Stopped pushing to " + username + ", it fell " + MAX_QUEUED_PUSHES
+                    + " messages behind");
+        }
+    }
+
+    /**
+     * Hands a push to the connection without waiting on the client
+     * 
+     * @return false if MAX_QUEUED_PUSHES messages are already waiting
+     */
+    protected abstract boolean queuePush(Message event);
+
+    /**
+     * Logs a request of an unknown type and builds the error sent back for it
+     */
+    protected static ErrorResponse unknownType(UnknownMessageTypeException e) {
+        System.err.println("Unknown message type: " + e.getType());
+        ErrorResponse error = new ErrorResponse(ErrorResponse.UNKNOWN_TYPE, "Unknown request type: " + e.getType());
+        error.setRequestID(e.getRequestID());
+        return error;
+    }
+
+    /**
+     * Sends the response to a request, tagged with the request's id
+     */
+    protected void reply(Message request, Message response) {
+        response.setRequestID(request.getRequestID());
+        sendMessage(response);
+    }
+
     // Method to send a message to the client
-    public void sendMessage(Message message) {
-        msgSocket.sendMessage(message);
+    public abstract void sendMessage(Message message);
+
+    /**
+     * Records that the client sent something, keeping the session alive
+     */
+    protected void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * @return time in milliseconds the client last sent a request
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Closes a session the SessionReaper found idle
+     */
+    protected abstract void closeIdle();
+
+    /**
+     * Closes the session when the server shuts down, after its requests were
+     * answered
+     */
+    protected abstract void closeForShutdown();
+
+    /**
+     * Marks the session closed and drops it from the server's clients. Safe to
+     * call more than once.
+     */
+    protected void sessionClosed() {
+        closed = true;
+        String user = username;
+        if (user != null) {
+            server.removeClient(user, this);
+        }
+        server.sessionClosed(this);
     }
 }
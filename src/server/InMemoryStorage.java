@@ -0,0 +1,119 @@
+package server;
+
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+/**
+ * Keeps everything in memory and never touches the disk, for benchmarking
+ * the request path without disk noise. Data lasts as long as the storage
+ * object, a database opened again on the same storage gets it back, a new
+ * server process starts empty.
+ */
+public class InMemoryStorage implements Storage {
+    private final ConcurrentHashMap<String, MemoryStore> stores = new ConcurrentHashMap<>();
+
+    @Override
+    public Store open(String name) {
+        return stores.computeIfAbsent(name, MemoryStore::new);
+    }
+
+    @Override
+    public String toString() {
+        return "memory";
+    }
+
+    private static class MemoryStore implements Store {
+        private final String name;
+        private final MemoryLog log = new MemoryLog();
+        private volatile JSONType snapshot; // built fresh for each write, never changed after
+
+        MemoryStore(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public JSONType read() {
+            return snapshot;
+        }
+
+        @Override
+        public void write(JSONType contents) {
+            snapshot = contents;
+        }
+
+        @Override
+        public ChangeLog log() {
+            return log;
+        }
+
+        /**
+         * Logging a change is cheaper than building a snapshot, even in memory
+         */
+        @Override
+        public boolean logsChanges() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Keeps the records since the last snapshot in a list, synced as soon as
+     * they are appended
+     */
+    private static class MemoryLog implements ChangeLog {
+        private final List<JSONObject> records = new ArrayList<>();
+        private long lastSeq;
+
+        @Override
+        public int open(long snapshotSeq, Replayer replayer) throws InvalidObjectException {
+            lastSeq = Math.max(lastSeq, snapshotSeq);
+            int replayed = 0;
+            for (JSONObject record : records) {
+                if (((Number) record.get("seq")).longValue() > snapshotSeq) {
+                    replayer.apply(record);
+                    replayed++;
+                }
+            }
+            return replayed;
+        }
+
+        @Override
+        public long append(JSONObject record) {
+            record.put("seq", lastSeq + 1);
+            records.add(record);
+            return ++lastSeq;
+        }
+
+        @Override
+        public void sync() {
+        }
+
+        @Override
+        public void reset() {
+            records.clear();
+        }
+
+        @Override
+        public long getLastSeq() {
+            return lastSeq;
+        }
+
+        @Override
+        public int getRecordCount() {
+            return records.size();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
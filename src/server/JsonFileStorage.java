@@ -0,0 +1,99 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import merrimackutil.json.JsonIO;
+import merrimackutil.json.types.JSONType;
+
+/**
+ * Keeps each database in a JSON file named after it in one directory, the
+ * files the server has always used. Databases rewrite their file on every
+ * flush, only the card database logs its changes to a ".log" file next to
+ * its snapshot.
+ */
+public class JsonFileStorage implements Storage {
+    private final File directory;
+
+    /**
+     * @param directory where the files are kept, created if missing
+     */
+    public JsonFileStorage(File directory) {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.err.println("Could not create " + directory);
+        }
+    }
+
+    @Override
+    public Store open(String name) {
+        return new FileStore(new File(directory, name + ".json"), logsChanges());
+    }
+
+    /**
+     * @return whether the databases log every change, see Store.logsChanges
+     */
+    protected boolean logsChanges() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "json files in " + directory;
+    }
+
+    /**
+     * A snapshot file and the log next to it
+     */
+    public static class FileStore implements Store {
+        private final File file;
+        private final boolean logsChanges;
+        private ChangeLog log; // opened on first use, guarded by this
+
+        /**
+         * @param file        snapshot file, the log is the same path with ".log" added
+         * @param logsChanges see Store.logsChanges
+         */
+        public FileStore(File file, boolean logsChanges) {
+            this.file = file;
+            this.logsChanges = logsChanges;
+        }
+
+        /**
+         * Reads the file, an older file may hold a bare array instead of an object
+         */
+        @Override
+        public JSONType read() throws IOException {
+            if (!file.exists() || file.length() == 0) {
+                return null;
+            }
+            String text = Files.readString(file.toPath(), StandardCharsets.UTF_8).trim();
+            return text.startsWith("[") ? JsonIO.readArray(text) : JsonIO.readObject(text);
+        }
+
+        @Override
+        public void write(JSONType contents) throws IOException {
+            PersistenceScheduler.writeAtomically(contents, file);
+        }
+
+        @Override
+        public synchronized ChangeLog log() {
+            if (log == null) {
+                log = new WriteAheadLog(new File(file.getPath() + ".log"));
+            }
+            return log;
+        }
+
+        @Override
+        public boolean logsChanges() {
+            return logsChanges;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName();
+        }
+    }
+}
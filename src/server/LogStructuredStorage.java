@@ -0,0 +1,32 @@
+package server;
+
+import java.io.File;
+
+/**
+ * Keeps each database as a snapshot file plus a log of every change since,
+ * in the same files as JsonFileStorage. A change costs one appended line
+ * instead of rewriting the whole file, the snapshot is only rewritten every
+ * so many changes and when the server shuts down.
+ *
+ * Reads the files JsonFileStorage writes. After a clean shutdown the logs
+ * are empty, so JsonFileStorage can read the snapshots back.
+ */
+public class LogStructuredStorage extends JsonFileStorage {
+
+    /**
+     * @param directory where the files are kept, created if missing
+     */
+    public LogStructuredStorage(File directory) {
+        super(directory);
+    }
+
+    @Override
+    protected boolean logsChanges() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "logged " + super.toString();
+    }
+}
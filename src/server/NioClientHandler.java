@@ -0,0 +1,454 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import shared.BinaryCodec;
+import shared.FrameCompressor;
+import shared.MessageSocket;
+import shared.UnknownMessageTypeException;
+import shared.messages.Hello;
+import shared.messages.LogOutRequest;
+import shared.messages.Message;
+
+/**
+ * ClientHandler for a connection served by the NioServerEngine. Reads and
+ * writes happen on the connection's event loop, untagged requests run on the
+ * worker pool one at a time so responses keep the order of the requests,
+ * tagged ones are handed to the pool as they arrive.
+ * 
+ * Speaks the same framing as MessageSocket: JSON lines until the client's
+ * Hello asks for length framing, optionally with the binary codec and
+ * compression.
+ */
+public class NioClientHandler extends ClientHandler {
+    private static final int INITIAL_BUFFER = 8192;
+
+    private final SocketChannel channel;
+    private final NioServerEngine engine;
+    private final int maxFrameBytes;
+    private final boolean binaryAllowed;
+    private final int compressionThreshold;
+    private final BinaryCodec codec = new BinaryCodec();
+    private final FrameCompressor compressor;
+    private NioServerEngine.EventLoop loop;
+    private SelectionKey key;
+
+    // read side state, only touched by the event loop
+    private ByteBuffer inbound = ByteBuffer.allocate(INITIAL_BUFFER);
+    private int scanned; // bytes past inbound's position already searched for a newline
+    private boolean framedReads;
+    private boolean binaryReads;
+    private boolean compressedReads;
+    private byte[] inflated = new byte[0]; // reused for incoming compressed frames
+    private boolean firstMessage = true;
+
+    private volatile boolean framedWrites;
+    private volatile boolean binaryWrites;
+    private volatile boolean compressedWrites;
+    private final ConcurrentLinkedQueue<ByteBuffer> writes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedWrites = new AtomicInteger(); // size of writes
+    private final ConcurrentLinkedQueue<Message> requests = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean processing = new AtomicBoolean(false);
+    private volatile boolean closing; // close once the queued writes are flushed
+    private volatile boolean loggingOut; // close once the running tagged requests are answered
+    private final AtomicBoolean logoutClosed = new AtomicBoolean(false);
+
+    public NioClientHandler(SocketChannel channel, ServerConnectionHandler server, NioServerEngine engine) {
+        super(server);
+        this.channel = channel;
+        this.engine = engine;
+        this.maxFrameBytes = server.getConfig().getMaxFrameBytes();
+        this.binaryAllowed = server.getConfig().allowBinaryCodec();
+        this.compressionThreshold = server.getConfig().getCompressionThreshold();
+        this.compressor = new FrameCompressor(compressionThreshold);
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Called by the event loop once the channel is registered
+     */
+    void attach(NioServerEngine.EventLoop loop, SelectionKey key) {
+        this.loop = loop;
+        this.key = key;
+    }
+
+    /**
+     * Reads what is available and queues every complete message as a request.
+     * Runs on the event loop.
+     */
+    void onReadable() {
+        try {
+            int read = 0;
+            while (!loggingOut && (read = channel.read(inbound)) > 0) {
+                touch();
+                inbound.flip();
+                boolean valid = parseMessages();
+                inbound.compact();
+                if (!valid) {
+                    close();
+                    return;
+                }
+                if (!inbound.hasRemaining()) {
+                    // a message is bigger than the buffer, parseMessages already checked the limit
+                    resize(Math.max(inbound.capacity(), Math.min(inbound.capacity() * 2, maxFrameBytes + 4)));
+                } else if (inbound.capacity() > INITIAL_BUFFER && inbound.position() <= INITIAL_BUFFER / 2) {
+                    // the big message is consumed, don't hold on to its buffer
+                    resize(INITIAL_BUFFER);
+                }
+            }
+            if (read < 0) {
+                close();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading from client: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Moves the unparsed bytes into a buffer of the given size
+     */
+    private void resize(int capacity) {
+        if (capacity == inbound.capacity()) {
+            return;
+        }
+        ByteBuffer resized = ByteBuffer.allocate(capacity);
+        inbound.flip();
+        resized.put(inbound);
+        inbound = resized;
+    }
+
+    /**
+     * Queues every complete message in the inbound buffer and leaves the
+     * buffer positioned at the first incomplete one
+     * 
+     * @return false if the client broke the size limit
+     */
+    private boolean parseMessages() throws ProtocolException {
+        byte[] bytes = inbound.array();
+        while (true) {
+            int start;
+            int length;
+            if (framedReads) {
+                if (inbound.remaining() < 4) {
+                    return true;
+                }
+                int prefix = inbound.getInt(inbound.position());
+                length = prefix & ~FrameCompressor.COMPRESSED_FLAG;
+                if (length > maxFrameBytes) {
+                    return tooLarge(length);
+                }
+                if (inbound.remaining() < 4 + length) {
+                    return true;
+                }
+                start = inbound.position() + 4;
+                inbound.position(start + length);
+                if ((prefix & FrameCompressor.COMPRESSED_FLAG) != 0) {
+                    if (!compressedReads) {
+                        throw new ProtocolException("Compressed frame on a connection that did not negotiate compression");
+                    }
+                    int originalLength = FrameCompressor.originalLength(bytes, start, length);
+                    if (originalLength < 0 || originalLength > maxFrameBytes) {
+                        return tooLarge(originalLength);
+                    }
+                    if (inflated.length < originalLength) {
+                        inflated = new byte[Math.min(Math.max(originalLength, 2 * inflated.length), maxFrameBytes)];
+                    }
+                    length = compressor.decompress(bytes, start, length, inflated);
+                    queueRequest(inflated, 0, length);
+                    continue;
+                }
+            } else {
+                start = inbound.position();
+                int end = start + scanned; // a long line arrives over many reads, only search the new bytes
+                while (end < inbound.limit() && bytes[end] != '\n') {
+                    end++;
+                }
+                if (end == inbound.limit()) {
+                    scanned = inbound.remaining();
+                    return inbound.remaining() <= maxFrameBytes || tooLarge(inbound.remaining());
+                }
+                scanned = 0;
+                inbound.position(end + 1);
+                length = end - start;
+                if (length > 0 && bytes[end - 1] == '\r') {
+                    length--;
+                }
+            }
+            queueRequest(bytes, start, length);
+        }
+    }
+
+    private boolean tooLarge(int length) {
+        System.err.println("Dropping connection, message of " + length + " bytes is over the "
+                + maxFrameBytes + " byte limit");
+        return false;
+    }
+
+    /**
+     * Writes as much queued output as the socket takes. Runs on the event loop.
+     */
+    void onWritable() {
+        if (!key.isValid()) {
+            return;
+        }
+        try {
+            ByteBuffer buffer;
+            while ((buffer = writes.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return; // socket is full, wait for the next OP_WRITE
+                }
+                writes.poll();
+                queuedWrites.decrementAndGet();
+            }
+            key.interestOps(readInterest());
+            if (closing) {
+                close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing to client: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Decodes a message and hands it to the worker pool behind any earlier requests
+     */
+    private void queueRequest(byte[] bytes, int start, int length) throws ProtocolException {
+        if (loggingOut) {
+            return; // sent after the logout, never answered
+        }
+        Message message;
+        try {
+            if (binaryReads) {
+                message = MessageSocket.decode(codec.decode(bytes, start, length));
+            } else {
+                String serializedMessage = new String(bytes, start, length, StandardCharsets.UTF_8);
+                if (serializedMessage.isBlank()) {
+                    return;
+                }
+                message = MessageSocket.decode(serializedMessage);
+            }
+        } catch (UnknownMessageTypeException e) {
+            message = new QueuedReply(unknownType(e));
+        }
+
+        if (message instanceof Hello hello) {
+            // reads switch right away since the next bytes are already framed, writes
+            // switch once the worker has sent this reply behind any earlier responses
+            boolean accept = firstMessage && !framedReads && Hello.FRAMING_LENGTH.equals(hello.getFraming());
+            boolean binary = accept && binaryAllowed && Hello.CODEC_BINARY.equals(hello.getCodec());
+            boolean compress = accept && compressionThreshold > 0
+                    && Hello.COMPRESSION_DEFLATE.equals(hello.getCompression());
+            framedReads = framedReads || accept;
+            binaryReads = binaryReads || binary;
+            compressedReads = compressedReads || compress;
+            message = new QueuedReply(new Hello(framedReads ? Hello.FRAMING_LENGTH : Hello.FRAMING_LINE,
+                    binaryReads ? Hello.CODEC_BINARY : Hello.CODEC_JSON,
+                    compressedReads ? Hello.COMPRESSION_DEFLATE : Hello.COMPRESSION_NONE));
+        }
+        firstMessage = false;
+
+        requests.add(message);
+        if (processing.compareAndSet(false, true)) {
+            engine.submit(this::processRequests);
+        }
+    }
+
+    /**
+     * Runs queued requests in order. Runs on a worker thread.
+     */
+    private void processRequests() {
+        while (true) {
+            Message recvMsg;
+            while (!loggingOut && (recvMsg = requests.poll()) != null) {
+                if (recvMsg instanceof QueuedReply queued) {
+                    if (queued.reply instanceof Hello reply) {
+                        // under the encoder's lock so no push goes out between the reply and the switch
+                        synchronized (codec) {
+                            sendMessage(reply);
+                            framedWrites = Hello.FRAMING_LENGTH.equals(reply.getFraming());
+                            binaryWrites = framedWrites && Hello.CODEC_BINARY.equals(reply.getCodec());
+                            compressedWrites = framedWrites && Hello.COMPRESSION_DEFLATE.equals(reply.getCompression());
+                        }
+                    } else {
+                        sendMessage(queued.reply);
+                    }
+                    continue;
+                }
+                System.out.println("Received message: " + recvMsg.getType());
+                if (recvMsg instanceof LogOutRequest) {
+                    // the last tagged request to finish closes the session, a worker never waits for them
+                    loggingOut = true;
+                    requests.clear();
+                    loop.execute(() -> {
+                        if (key.isValid()) {
+                            key.interestOps(readInterest() | (key.interestOps() & SelectionKey.OP_WRITE));
+                        }
+                    });
+                    if (!hasPipelined()) {
+                        closeAfterLogout();
+                    }
+                    break;
+                }
+                try {
+                    dispatchPipelined(recvMsg, engine::submit);
+                } catch (RuntimeException e) {
+                    System.err.println("Error handling client request: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+
+            processing.set(false);
+            // a request may have arrived after the poll above came back empty
+            if (loggingOut || requests.isEmpty() || !processing.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return OP_READ until the client logs out, nothing it sends after that
+     *         is read
+     */
+    private int readInterest() {
+        return loggingOut ? 0 : SelectionKey.OP_READ;
+    }
+
+    @Override
+    protected void pipelineDrained() {
+        if (loggingOut) {
+            closeAfterLogout();
+        }
+    }
+
+    /**
+     * Closes the session once its responses are written. Both the logout and
+     * the last tagged request may get here, only the first one counts.
+     */
+    private void closeAfterLogout() {
+        if (logoutClosed.compareAndSet(false, true)) {
+            closing = true;
+            loop.execute(this::onWritable);
+        }
+    }
+
+    @Override
+    public void sendMessage(Message message) {
+        // the binary codec's string table depends on the order messages hit the
+        // wire, so encoding and queueing happen together
+        synchronized (codec) {
+            byte[] payload;
+            int length;
+            if (binaryWrites) {
+                payload = codec.encode(message);
+                length = codec.length();
+            } else {
+                payload = MessageSocket.encode(message).getBytes(StandardCharsets.UTF_8);
+                length = payload.length;
+            }
+            int prefix = length;
+            if (compressedWrites) {
+                int compressedLength = compressor.compress(payload, length);
+                if (compressedLength >= 0) {
+                    payload = compressor.compressed();
+                    length = compressedLength;
+                    prefix = compressedLength | FrameCompressor.COMPRESSED_FLAG;
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length + (framedWrites ? 4 : 1));
+            if (framedWrites) {
+                buffer.putInt(prefix).put(payload, 0, length);
+            } else {
+                buffer.put(payload, 0, length).put((byte) '\n');
+            }
+            writes.add(buffer.flip());
+            queuedWrites.incrementAndGet();
+        }
+        loop.execute(() -> {
+            if (key.isValid()) {
+                key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+            }
+        });
+    }
+
+    /**
+     * Pushes go straight to the write queue, which never blocks. A client
+     * with MAX_QUEUED_PUSHES messages it has not read yet gets no more.
+     */
+    @Override
+    protected boolean queuePush(Message event) {
+        if (queuedWrites.get() >= MAX_QUEUED_PUSHES) {
+            return false;
+        }
+        sendMessage(event);
+        return true;
+    }
+
+    @Override
+    protected void closeIdle() {
+        loop.execute(this::close);
+    }
+
+    /**
+     * Closes once the responses still queued are written
+     */
+    @Override
+    protected void closeForShutdown() {
+        closing = true;
+        loop.execute(this::onWritable);
+    }
+
+    @Override
+    protected String remoteAddress() {
+        try {
+            if (channel.getRemoteAddress() instanceof InetSocketAddress address) {
+                return address.getAddress().getHostAddress();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read client address: " + e.getMessage());
+        }
+        return "unknown";
+    }
+
+    /**
+     * Closes the channel and drops it from its selector
+     */
+    void close() {
+        sessionClosed();
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing client channel: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A reply the event loop worked out itself (Hello answers, unknown request
+     * types), queued so it goes out in order with the other responses
+     */
+    private static class QueuedReply extends Message {
+        private final Message reply;
+
+        QueuedReply(Message reply) {
+            super(reply.getType());
+            this.reply = reply;
+        }
+    }
+}
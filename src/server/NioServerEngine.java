@@ -0,0 +1,182 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Non-blocking alternative to the thread per connection accept loop. A few
+ * selector threads do all socket I/O and split the stream into the same line
+ * delimited JSON messages MessageSocket uses, while a worker pool runs the
+ * ServerConnectionHandler handle* methods.
+ */
+public class NioServerEngine {
+    private final ServerConnectionHandler server;
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private ServerSocketChannel serverChannel;
+
+    public NioServerEngine(ServerConnectionHandler server, int selectorThreads, int workerThreads) {
+        this.server = server;
+        this.loops = new EventLoop[selectorThreads];
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+    }
+
+    /**
+     * Starts the event loops and accepts connections on the calling thread,
+     * handing each one to an event loop in turn. Does not return until
+     * stopAccepting is called or the server channel fails.
+     *
+     * @param port port to listen on
+     * @throws IOException Throws if the server channel or selectors cannot be opened
+     */
+    public void start(int port) throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread thread = new Thread(loops[i], "nio-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        System.out.println("Server started on port " + port + " (nio, " + loops.length + " event loops)");
+
+        int next = 0;
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                return; // stopAccepting closed the channel
+            }
+            System.out.println("Client connected: " + channel.socket().getInetAddress());
+            channel.configureBlocking(false);
+            NioClientHandler handler = new NioClientHandler(channel, server, this);
+            server.sessionOpened(handler);
+            loops[next].register(handler);
+            next = (next + 1) % loops.length;
+        }
+    }
+
+    /**
+     * Closes the server channel so no new connections come in, the open ones
+     * keep being served
+     */
+    void stopAccepting() {
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing server channel: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the workers and the event loops, call once the connections are closed
+     */
+    void stop() {
+        workers.shutdown();
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.stop();
+            }
+        }
+    }
+
+    /**
+     * Runs a request on the worker pool
+     */
+    void submit(Runnable task) {
+        workers.execute(task);
+    }
+
+    /**
+     * A selector thread. Other threads never touch its selector directly, they
+     * queue a task and wake it up.
+     */
+    class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Runs a task on this loop's thread
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void stop() {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error closing selector: " + e.getMessage());
+            }
+        }
+
+        void register(NioClientHandler handler) {
+            execute(() -> {
+                try {
+                    SelectionKey key = handler.getChannel().register(selector, SelectionKey.OP_READ, handler);
+                    handler.attach(this, key);
+                } catch (IOException e) {
+                    System.err.println("Could not register client channel: " + e.getMessage());
+                    handler.close();
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    selector.select();
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            System.err.println("Event loop task failed: " + e.getMessage());
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioClientHandler handler = (NioClientHandler) key.attachment();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            handler.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            handler.onWritable();
+                        }
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                // stopped on shutdown
+            } catch (IOException e) {
+                System.err.println("Event loop stopped: " + e.getMessage());
+            }
+        }
+    }
+}
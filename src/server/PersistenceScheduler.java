@@ -0,0 +1,301 @@
+package server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+import merrimackutil.json.types.JSONType;
+
+/**
+ * Decides when the databases write their changes to disk. A database reports
+ * each change with changed and the scheduler flushes it later, so a burst of
+ * changes costs one write instead of one each.
+ *
+ * In group and async mode a flusher thread flushes every dirty database once
+ * the flush interval has passed since the first unflushed change, or sooner
+ * when enough changes are waiting. Group mode makes requests that change
+ * something wait for that flush before they are answered, async mode answers
+ * right away. Sync mode flushes on every change in the calling thread.
+ */
+public class PersistenceScheduler {
+    /**
+     * How changes are made durable
+     */
+    public enum Durability {
+        SYNC, // flushed before the change returns
+        GROUP, // flushed in batches, requests wait for their batch
+        ASYNC; // flushed in batches, nobody waits
+
+        /**
+         * @param value "sync", "group" or "async"
+         * @throws IllegalArgumentException if the value is none of them
+         */
+        public static Durability parse(String value) {
+            switch (value) {
+                case "sync":
+                    return SYNC;
+                case "group":
+                    return GROUP;
+                case "async":
+                    return ASYNC;
+                default:
+                    throw new IllegalArgumentException("Unknown durability mode: " + value);
+            }
+        }
+    }
+
+    /**
+     * A database the scheduler flushes
+     */
+    public interface Persistent {
+        /**
+         * Writes the database's changes so they survive a crash
+         *
+         * @throws IOException Throws if the changes could not be written
+         */
+        void flush() throws IOException;
+    }
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final Durability durability;
+    private final long intervalMillis;
+    private final int maxPending;
+
+    // guarded by this
+    private final Set<Persistent> dirty = new LinkedHashSet<>();
+    private int pending; // changes since the last flush started
+    private CompletableFuture<Void> next = new CompletableFuture<>(); // completes with the next flush
+    private CompletableFuture<Void> flushing; // the flush running now, if any
+    private boolean running;
+    private Thread flusher;
+
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder changes = new LongAdder();
+
+    /**
+     * @param durability     when changes are flushed
+     * @param intervalMillis longest a change waits for its flush in group and async mode
+     * @param maxPending     changes that start a flush before the interval is up
+     */
+    public PersistenceScheduler(Durability durability, long intervalMillis, int maxPending) {
+        this.durability = durability;
+        this.intervalMillis = intervalMillis;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * @return a scheduler that flushes every change as it happens
+     */
+    public static PersistenceScheduler sync() {
+        return new PersistenceScheduler(Durability.SYNC, 0, 1);
+    }
+
+    /**
+     * Starts the flusher thread, nothing to start in sync mode
+     */
+    public synchronized void start() {
+        if (durability == Durability.SYNC || flusher != null) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::runFlusher, "persistence-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Stops the flusher and flushes whatever is still dirty on the calling
+     * thread. Changes after this are flushed as they happen.
+     */
+    public void close() {
+        Thread stopping;
+        synchronized (this) {
+            running = false;
+            stopping = flusher;
+            flusher = null;
+            notifyAll();
+        }
+        if (stopping != null) {
+            try {
+                stopping.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushDirty();
+    }
+
+    /**
+     * Records a change to a database. Call it after the change is made.
+     *
+     * @return completes once the change is flushed, exceptionally if the flush failed
+     */
+    public CompletableFuture<Void> changed(Persistent database) {
+        changes.increment();
+        synchronized (this) {
+            if (running) {
+                dirty.add(database);
+                if (++pending == 1 || pending >= maxPending) {
+                    notifyAll();
+                }
+                return next;
+            }
+        }
+        // sync mode, or the flusher is stopped
+        try {
+            database.flush();
+            flushes.increment();
+            return DONE;
+        } catch (IOException e) {
+            System.err.println("Error flushing database: " + e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @return completes once every change made so far is flushed
+     */
+    public synchronized CompletableFuture<Void> flushed() {
+        if (!dirty.isEmpty()) {
+            return next;
+        }
+        return flushing != null ? flushing : DONE;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * @return flushes done, each writes every database that was dirty
+     */
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    /**
+     * @return changes reported, more than flushes when they are coalesced
+     */
+    public long getChangeCount() {
+        return changes.sum();
+    }
+
+    private void runFlusher() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (running && dirty.isEmpty()) {
+                        wait();
+                    }
+                    // give the batch until the interval is up to fill
+                    long deadline = System.currentTimeMillis() + intervalMillis;
+                    long left;
+                    while (running && pending < maxPending && (left = deadline - System.currentTimeMillis()) > 0) {
+                        wait(left);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!running) {
+                    return; // close flushes what is left
+                }
+            }
+            flushDirty();
+        }
+    }
+
+    /**
+     * Flushes every dirty database and completes the future of the changes
+     * it covered. A database that fails stays dirty and is tried again.
+     */
+    private void flushDirty() {
+        List<Persistent> batch;
+        CompletableFuture<Void> done;
+        synchronized (this) {
+            if (dirty.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(dirty);
+            dirty.clear();
+            pending = 0;
+            done = next;
+            next = new CompletableFuture<>();
+            flushing = done;
+        }
+
+        IOException failure = null;
+        for (Persistent database : batch) {
+            try {
+                database.flush();
+            } catch (IOException e) {
+                System.err.println("Error flushing database: " + e.getMessage());
+                failure = e;
+                synchronized (this) {
+                    dirty.add(database);
+                }
+            }
+        }
+        flushes.increment();
+
+        synchronized (this) {
+            if (flushing == done) {
+                flushing = null;
+            }
+        }
+        if (failure != null) {
+            done.completeExceptionally(failure);
+        } else {
+            done.complete(null);
+        }
+    }
+
+    /**
+     * Writes a JSON file through a temporary file, so a crash leaves either
+     * the old or the new contents and never half of the new. Takes JSON
+     * already taken from a database, so the database can change while the
+     * file is written. The directory is synced after the rename, or a crash
+     * could bring back the old file.
+     *
+     * @throws IOException Throws if the file could not be written
+     */
+    public static void writeAtomically(JSONType contents, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write((contents.getFormattedJSON() + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Forces a directory's entries to disk, so a rename in it survives a crash
+     */
+    private static void syncDirectory(File directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows cannot open a directory, renames there need no sync
+        }
+    }
+
+    @Override
+    public String toString() {
+        return durability.name().toLowerCase() + " durability, " + getChangeCount() + " changes in "
+                + getFlushCount() + " flushes";
+    }
+}
@@ -0,0 +1,142 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket rate limits per client and message type. A client is its
+ * username once logged in and its remote address before that.
+ *
+ * Each bucket is a single AtomicLong updated with compare and set, so
+ * checking a request takes no lock and clients never contend with each other.
+ * The bucket stores the time at which it will be full again instead of a
+ * token count: a request costing n tokens moves that time n intervals later
+ * and is allowed while it stays within one burst of now. A request costing
+ * more than a burst is charged a burst, so it waits for a full bucket and
+ * empties it instead of never fitting.
+ */
+public class RateLimiter {
+    // past this many tracked buckets, full ones are dropped before adding more
+    private static final int SWEEP_THRESHOLD = 10_000;
+
+    private final Map<String, Limit> limits;
+    private final Limit defaultLimit;
+    private final Map<Key, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param limits       limit per message type
+     * @param defaultLimit limit for types without their own, null for none
+     */
+    public RateLimiter(Map<String, Limit> limits, Limit defaultLimit) {
+        this.limits = Map.copyOf(limits);
+        this.defaultLimit = defaultLimit;
+    }
+
+    /**
+     * Takes tokens for a request if its bucket has them
+     *
+     * @param client username, or remote address before login
+     * @param type   message type of the request
+     * @param cost   tokens the request takes, at least 1 and at most a burst
+     * @return true if the request may run
+     */
+    public boolean tryAcquire(String client, String type, int cost) {
+        Limit limit = limits.getOrDefault(type, defaultLimit);
+        if (limit == null || limit.perSecond() <= 0) {
+            return true;
+        }
+        Key key = new Key(client, type);
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= SWEEP_THRESHOLD) {
+                sweep();
+            }
+            bucket = buckets.computeIfAbsent(key, k -> new Bucket(limit));
+        }
+        if (bucket.tryAcquire(Math.max(1, cost), System.nanoTime())) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Drops buckets that have refilled completely, they behave the same as a
+     * new one
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Sustained rate and burst size of a bucket
+     *
+     * @param perSecond tokens added per second, 0 for no limit
+     * @param burst     most tokens the bucket holds
+     */
+    public record Limit(double perSecond, int burst) {
+        /**
+         * Parses "rate" or "rate/burst", the burst defaults to one second's worth
+         *
+         * @throws IllegalArgumentException Throws if the text is not a valid limit
+         */
+        public static Limit parse(String text) {
+            int split = text.indexOf('/');
+            double perSecond = Double.parseDouble(split < 0 ? text : text.substring(0, split));
+            int burst = split < 0 ? (int) Math.ceil(perSecond) : Integer.parseInt(text.substring(split + 1));
+            if (perSecond < 0 || (perSecond > 0 && burst <= 0)) {
+                throw new IllegalArgumentException("Rate limit must be positive, got: " + text);
+            }
+            return new Limit(perSecond, burst);
+        }
+
+        @Override
+        public String toString() {
+            return perSecond + "/" + burst;
+        }
+    }
+
+    private record Key(String client, String type) {
+    }
+
+    private static class Bucket {
+        private final long interval; // nanoseconds per token
+        private final int burst;
+        private final long capacity; // nanoseconds a full burst spans
+        private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+        Bucket(Limit limit) {
+            this.interval = Math.max(1, (long) (1_000_000_000L / limit.perSecond()));
+            this.burst = limit.burst();
+            this.capacity = interval * burst;
+        }
+
+        boolean tryAcquire(int cost, long now) {
+            long needed = interval * Math.min(cost, burst);
+            while (true) {
+                long current = fullAt.get();
+                long start = current == Long.MIN_VALUE || current - now < 0 ? now : current;
+                long next = start + needed;
+                if (next - now > capacity) {
+                    return false;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        boolean isFull(long now) {
+            long current = fullAt.get();
+            return current == Long.MIN_VALUE || current - now <= 0;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package server;
+
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import shared.messages.*;
+
+/**
+ * The interceptors every request goes through on its way to its handler
+ */
+public final class RequestInterceptors {
+    // requests a client may send before logging in, shutdown carries its own token
+    private static final Set<Class<? extends Message>> ANONYMOUS = Set.of(UserCredRequest.class,
+            UserListRequest.class, BatchRequest.class, ShutdownRequest.class);
+
+    // requests that change a database, the types durable waits for
+    private static final Set<String> CHANGES = Set.of("Register", "PackRequest", "TradeRequest", "TradeResponse",
+            "TradeConfirmation");
+    // longest durable waits for a flush before giving up on it
+    private static final long FLUSH_WAIT_MS = 5000;
+
+    private RequestInterceptors() {
+    }
+
+    /**
+     * Turns an exception thrown further in into an error response, so the
+     * client is answered instead of waiting on a request that died
+     */
+    public static RequestPipeline.Interceptor errors() {
+        return (client, request, next) -> {
+            try {
+                return next.proceed(client, request);
+            } catch (RuntimeException e) {
+                System.err.println("Error handling " + request.getType() + ": " + e.getMessage());
+                e.printStackTrace();
+                return new ErrorResponse(ErrorResponse.SERVER_ERROR, "Server error handling " + request.getType());
+            }
+        };
+    }
+
+    /**
+     * Takes the request's tokens from the client's bucket for its type. Packs
+     * cost one token per card so a few huge packs cannot hide under the limit.
+     *
+     * @param limiter the server's limiter, looked up per request as it is
+     *                replaced when the server starts
+     */
+    public static RequestPipeline.Interceptor rateLimit(Supplier<RateLimiter> limiter) {
+        return (client, request, next) -> {
+            int cost = request instanceof PackRequest packRequest ? packCost(packRequest.getCardCount()) : 1;
+            if (!limiter.get().tryAcquire(client.getRateLimitKey(), request.getType(), cost)) {
+                System.err.println("Rate limited " + request.getType() + " from " + client.getRateLimitKey());
+                return new ErrorResponse(ErrorResponse.RATE_LIMITED,
+                        "Too many " + request.getType() + " requests, slow down.");
+            }
+            return next.proceed(client, request);
+        };
+    }
+
+    /**
+     * @return tokens a pack of this many cards costs, one for a count the
+     *         handler refuses so the refusal is what the client sees
+     */
+    private static int packCost(int cardCount) {
+        return cardCount >= 1 && cardCount <= ServerConnectionHandler.MAX_PACK_CARDS ? cardCount : 1;
+    }
+
+    /**
+     * Requires a logged in session for everything but logging in, and that
+     * requests made on a user's behalf name the logged in user
+     */
+    public static RequestPipeline.Interceptor session() {
+        return (client, request, next) -> {
+            String user = client.getUsername();
+            if (user == null) {
+                if (!ANONYMOUS.contains(request.getClass())) {
+                    return new ErrorResponse(ErrorResponse.UNAUTHORIZED, "Log in before sending " + request.getType());
+                }
+            } else {
+                String actingFor = actingFor(request);
+                if (actingFor != null && !actingFor.equals(user)) {
+                    return new ErrorResponse(ErrorResponse.UNAUTHORIZED,
+                            user + " cannot send " + request.getType() + " for " + actingFor);
+                }
+            }
+            return next.proceed(client, request);
+        };
+    }
+
+    /**
+     * In group durability, holds back the response to a request that changed
+     * something until the scheduler has flushed the change. Requests that
+     * arrive together share the flush.
+     *
+     * @param persistence the server's scheduler, looked up per request as it
+     *                    is replaced when the server starts
+     */
+    public static RequestPipeline.Interceptor durable(Supplier<PersistenceScheduler> persistence) {
+        return (client, request, next) -> {
+            Message response = next.proceed(client, request);
+            PersistenceScheduler scheduler = persistence.get();
+            if (scheduler.getDurability() != PersistenceScheduler.Durability.GROUP
+                    || !CHANGES.contains(request.getType()) || response instanceof ErrorResponse) {
+                return response;
+            }
+            try {
+                scheduler.flushed().get(FLUSH_WAIT_MS, TimeUnit.MILLISECONDS);
+                return response;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                System.err.println("Could not flush " + request.getType() + ": " + e);
+            }
+            return new ErrorResponse(ErrorResponse.SERVER_ERROR, request.getType() + " could not be saved.");
+        };
+    }
+
+    /**
+     * @return user a request acts for, null if it does not act for anyone in particular
+     */
+    private static String actingFor(Message request) {
+        if (request instanceof PackRequest packRequest) {
+            return packRequest.getUsername();
+        } else if (request instanceof ViewTradesRequest viewTradesRequest) {
+            return viewTradesRequest.getUsername();
+        } else if (request instanceof TradeRequest tradeRequest) {
+            return tradeRequest.getRequesterID();
+        }
+        return null;
+    }
+}
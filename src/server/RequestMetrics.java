@@ -0,0 +1,77 @@
+package server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import shared.messages.ErrorResponse;
+import shared.messages.Message;
+
+/**
+ * Interceptor that counts requests and their latency per message type.
+ * Counters are striped adders so concurrent requests do not contend.
+ */
+public class RequestMetrics implements RequestPipeline.Interceptor {
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    @Override
+    public Message intercept(ClientHandler client, Message request, RequestPipeline.Chain next) {
+        long start = System.nanoTime();
+        Message response = null;
+        try {
+            response = next.proceed(client, request);
+            return response;
+        } finally {
+            Stats typeStats = stats.get(request.getType());
+            if (typeStats == null) {
+                typeStats = stats.computeIfAbsent(request.getType(), type -> new Stats());
+            }
+            typeStats.record(System.nanoTime() - start, response instanceof ErrorResponse);
+        }
+    }
+
+    /**
+     * @return requests handled of a type, errors included
+     */
+    public long getCount(String type) {
+        Stats typeStats = stats.get(type);
+        return typeStats == null ? 0 : typeStats.count.sum();
+    }
+
+    /**
+     * One line per message type with its count, errors, mean and max latency
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Stats> entry : new TreeMap<>(stats).entrySet()) {
+            Stats typeStats = entry.getValue();
+            long count = typeStats.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            out.append(String.format("%-20s count %8d  errors %6d  mean %8.3f ms  max %8.3f ms%n", entry.getKey(),
+                    count, typeStats.errors.sum(), typeStats.totalNanos.sum() / 1e6 / count,
+                    typeStats.maxNanos.get() / 1e6));
+        }
+        return out.toString();
+    }
+
+    private static class Stats {
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos, boolean error) {
+            count.increment();
+            if (error) {
+                errors.increment();
+            }
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import shared.messages.ErrorResponse;
+import shared.messages.Message;
+
+/**
+ * Routes each request to the handler registered for its class, through an
+ * ordered chain of interceptors. The first interceptor added is the
+ * outermost, it sees the request first and the response last.
+ *
+ * Handlers and interceptors are registered once at startup, the chain is
+ * built then so handling a request allocates nothing for the routing.
+ */
+public class RequestPipeline {
+    /**
+     * Handles one type of request
+     */
+    @FunctionalInterface
+    public interface Handler<T extends Message> {
+        /**
+         * @param client  connection the request came in on
+         * @param request the request
+         * @return the response, or null to send none
+         */
+        Message handle(ClientHandler client, T request);
+    }
+
+    /**
+     * Wraps the handling of every request, e.g. to time, check or reject it
+     */
+    @FunctionalInterface
+    public interface Interceptor {
+        /**
+         * @param next rest of the chain, call it to let the request through
+         * @return the response to send, or null to send none
+         */
+        Message intercept(ClientHandler client, Message request, Chain next);
+    }
+
+    /**
+     * The rest of the chain after an interceptor
+     */
+    @FunctionalInterface
+    public interface Chain {
+        Message proceed(ClientHandler client, Message request);
+    }
+
+    private final Map<Class<?>, Handler<Message>> handlers = new ConcurrentHashMap<>();
+    private final List<Interceptor> interceptors = new ArrayList<>();
+    private volatile Chain head = this::route;
+
+    /**
+     * Registers the handler for a request class, replacing any earlier one
+     *
+     * @return this pipeline, for chaining registrations
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Message> RequestPipeline on(Class<T> type, Handler<? super T> handler) {
+        handlers.put(type, (Handler<Message>) handler);
+        return this;
+    }
+
+    /**
+     * Adds an interceptor inside the ones added before it
+     *
+     * @return this pipeline, for chaining registrations
+     */
+    public synchronized RequestPipeline intercept(Interceptor interceptor) {
+        interceptors.add(interceptor);
+        Chain chain = this::route;
+        for (int i = interceptors.size() - 1; i >= 0; i--) {
+            Interceptor outer = interceptors.get(i);
+            Chain inner = chain;
+            chain = (client, request) -> outer.intercept(client, request, inner);
+        }
+        head = chain;
+        return this;
+    }
+
+    /**
+     * Runs a request through the interceptors and its handler
+     *
+     * @return the response to send, or null to send none
+     */
+    public Message handle(ClientHandler client, Message request) {
+        return head.proceed(client, request);
+    }
+
+    private Message route(ClientHandler client, Message request) {
+        Handler<Message> handler = handlers.get(request.getClass());
+        if (handler == null) {
+            System.err.println("No handler for message type: " + request.getType());
+            return new ErrorResponse(ErrorResponse.UNKNOWN_TYPE, "Unknown request type: " + request.getType());
+        }
+        return handler.handle(client, request);
+    }
+}
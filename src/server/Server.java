@@ -4,12 +4,39 @@ import java.io.File;
 
 public class Server {
     public static void main(String[] args) {
+        // e.g. --port=5000 --engine=nio --selector-threads=2 --worker-threads=16 --max-inflight=256
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
 
-        UserCredentials userCreds = new UserCredentials(new File("src/server/databases/users.json"));
-        UserCardsDatabase userCardsDatabase = new UserCardsDatabase(new File("src/server/databases/usercards.json"));
-        TradeRequestDatabase tradeRequestDatabase = new TradeRequestDatabase(new File("src/server/databases/traderequests.json"));
+        CardCatalog catalog = CardCatalog.loadDefault();
+
+        // e.g. --storage=log --data-dir=src/server/databases
+        Storage storage = Storage.create(config.getStorage(), new File(config.getDataDir()));
+        System.out.println("Keeping databases in " + storage);
+
+        // one scheduler for all three databases, so a flush writes them together
+        PersistenceScheduler persistence = new PersistenceScheduler(config.getDurability(),
+                config.getFlushIntervalMillis(), config.getFlushMaxPending());
+        UserCredentials userCreds = new UserCredentials(storage.open("users"), persistence,
+                config.getSnapshotEvery());
+        UserCardsDatabase userCardsDatabase = new UserCardsDatabase(storage.open("usercards"), catalog, persistence,
+                config.getSnapshotEvery());
+        TradeRequestDatabase tradeRequestDatabase = new TradeRequestDatabase(storage.open("traderequests"),
+                persistence, config.getSnapshotEvery());
+        TradeSettlement tradeSettlement = new TradeSettlement(catalog, userCardsDatabase, tradeRequestDatabase);
+        tradeRequestDatabase.setTimeToLive(config.getTradeRequestTtlMillis(), config.getTradeResponseTtlMillis());
+        persistence.start();
         
         ServerConnectionHandler handler = new ServerConnectionHandler();
-        handler.start(5000, userCreds, userCardsDatabase, tradeRequestDatabase); // or get port from args
+        // Ctrl-C or a kill drains and saves the same way a ShutdownRequest does
+        Runtime.getRuntime().addShutdownHook(new Thread(handler::shutdown, "shutdown-hook"));
+        handler.start(config, persistence, catalog, userCreds, userCardsDatabase, tradeRequestDatabase,
+                tradeSettlement);
     }
 }
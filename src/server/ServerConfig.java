@@ -0,0 +1,343 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import shared.FrameCompressor;
+
+/**
+ * Startup options for the server, read from "--name=value" command line
+ * arguments. Anything not given keeps its default.
+ */
+public class ServerConfig {
+    public static final String ENGINE_BLOCKING = "blocking";
+    public static final String ENGINE_NIO = "nio";
+
+    private int port = 5000;
+    private String engine = ENGINE_BLOCKING;
+    private int selectorThreads = 2;
+    private int workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private boolean virtualThreads = true;
+    private int maxInFlight = 256;
+    private long admissionWaitMillis = 100;
+    private int maxFrameBytes = 1 << 20;
+    private boolean binaryCodec = true;
+    private int compressionThreshold = FrameCompressor.DEFAULT_THRESHOLD;
+    private RateLimiter.Limit defaultRateLimit = new RateLimiter.Limit(50, 100);
+    private Map<String, RateLimiter.Limit> rateLimits = new HashMap<>();
+    private long sessionIdleMillis = ClientHandler.SESSION_IDLE_TIMEOUT_MS;
+    private long shutdownGraceMillis = 10000;
+    private String adminToken; // null turns off shutdown requests
+    private PersistenceScheduler.Durability durability = PersistenceScheduler.Durability.GROUP;
+    private long flushIntervalMillis = 10;
+    private int flushMaxPending = 256;
+    private int snapshotEvery = UserCardsDatabase.DEFAULT_SNAPSHOT_EVERY;
+    private String storage = Storage.JSON;
+    private String dataDir = "src/server/databases";
+    private long tradeRequestTtlMillis = TimeUnit.DAYS.toMillis(7);
+    private long tradeResponseTtlMillis = TimeUnit.DAYS.toMillis(3);
+
+    public ServerConfig() {
+        // packs are charged per card, logins are limited to slow down password guessing
+        rateLimits.put("PackRequest", new RateLimiter.Limit(5, 25));
+        rateLimits.put("Login", new RateLimiter.Limit(1, 5));
+        rateLimits.put("Register", new RateLimiter.Limit(1, 5));
+        rateLimits.put("TradeRequest", new RateLimiter.Limit(5, 10));
+        rateLimits.put("ShutdownRequest", new RateLimiter.Limit(1, 5));
+    }
+
+    /**
+     * Builds a config from command line arguments
+     *
+     * @param args arguments of the form --name=value
+     * @return the parsed config
+     * @throws IllegalArgumentException if an argument is unknown or malformed
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (!arg.startsWith("--") || split < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            config.set(arg.substring(2, split), arg.substring(split + 1));
+        }
+        return config;
+    }
+
+    /**
+     * Sets a single option by name
+     */
+    private void set(String name, String value) {
+        try {
+            switch (name) {
+                case "port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "engine":
+                    if (!value.equals(ENGINE_BLOCKING) && !value.equals(ENGINE_NIO)) {
+                        throw new IllegalArgumentException("Unknown engine: " + value);
+                    }
+                    engine = value;
+                    break;
+                case "selector-threads":
+                    selectorThreads = positive(name, Integer.parseInt(value));
+                    break;
+                case "worker-threads":
+                    workerThreads = positive(name, Integer.parseInt(value));
+                    break;
+                case "virtual-threads":
+                    virtualThreads = Boolean.parseBoolean(value);
+                    break;
+                case "max-inflight":
+                    maxInFlight = positive(name, Integer.parseInt(value));
+                    break;
+                case "admission-wait-ms":
+                    admissionWaitMillis = Long.parseLong(value);
+                    break;
+                case "max-frame-bytes":
+                    maxFrameBytes = positive(name, Integer.parseInt(value));
+                    break;
+                case "compress-min-bytes":
+                    compressionThreshold = Integer.parseInt(value);
+                    if (compressionThreshold < 0) {
+                        throw new IllegalArgumentException("Option --" + name + " must not be negative");
+                    }
+                    break;
+                case "binary-codec":
+                    binaryCodec = Boolean.parseBoolean(value);
+                    break;
+                case "session-idle-ms":
+                    sessionIdleMillis = positive(name, Long.parseLong(value));
+                    break;
+                case "shutdown-grace-ms":
+                    shutdownGraceMillis = positive(name, Long.parseLong(value));
+                    break;
+                case "admin-token":
+                    adminToken = value.isEmpty() ? null : value;
+                    break;
+                case "durability":
+                    durability = PersistenceScheduler.Durability.parse(value);
+                    break;
+                case "flush-interval-ms":
+                    flushIntervalMillis = positive(name, Long.parseLong(value));
+                    break;
+                case "flush-max-pending":
+                    flushMaxPending = positive(name, Integer.parseInt(value));
+                    break;
+                case "snapshot-every":
+                    snapshotEvery = positive(name, Integer.parseInt(value));
+                    break;
+                case "storage":
+                    if (!value.equals(Storage.JSON) && !value.equals(Storage.MEMORY) && !value.equals(Storage.LOG)) {
+                        throw new IllegalArgumentException("Unknown storage: " + value);
+                    }
+                    storage = value;
+                    break;
+                case "data-dir":
+                    dataDir = value;
+                    break;
+                case "trade-request-ttl-ms":
+                    tradeRequestTtlMillis = notNegative(name, Long.parseLong(value));
+                    break;
+                case "trade-response-ttl-ms":
+                    tradeResponseTtlMillis = notNegative(name, Long.parseLong(value));
+                    break;
+                case "rate-default":
+                    defaultRateLimit = RateLimiter.Limit.parse(value);
+                    break;
+                default:
+                    if (name.startsWith("rate-")) {
+                        // --rate-<MessageType>=perSecond[/burst], 0 turns the limit off
+                        rateLimits.put(name.substring("rate-".length()), RateLimiter.Limit.parse(value));
+                        break;
+                    }
+                    throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects a number, got: " + value);
+        }
+    }
+
+    private static int positive(String name, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException("Option --" + name + " must be positive");
+        }
+        return value;
+    }
+
+    private static long positive(String name, long value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException("Option --" + name + " must be positive");
+        }
+        return value;
+    }
+
+    private static long notNegative(String name, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Option --" + name + " must not be negative");
+        }
+        return value;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Which connection engine to run, either "blocking" (thread per connection)
+     * or "nio" (selector event loops)
+     */
+    public String getEngine() {
+        return engine;
+    }
+
+    public int getSelectorThreads() {
+        return selectorThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Whether the blocking engine runs each connection on a virtual thread
+     * (when the JVM supports them) instead of a platform thread
+     */
+    public boolean useVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Most requests handled at once before new ones are rejected as busy.
+     * Without virtual threads it also bounds the blocking engine's threads.
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public long getAdmissionWaitMillis() {
+        return admissionWaitMillis;
+    }
+
+    /**
+     * Largest request the server reads before dropping the connection
+     */
+    public int getMaxFrameBytes() {
+        return maxFrameBytes;
+    }
+
+    /**
+     * Whether clients may switch to the binary codec, turn off to keep every
+     * connection in readable JSON while debugging
+     */
+    public boolean allowBinaryCodec() {
+        return binaryCodec;
+    }
+
+    /**
+     * Smallest message compressed for clients that ask for compression, 0 when
+     * compression is turned off
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * How long a session may go without a request before the server closes it
+     */
+    public long getSessionIdleMillis() {
+        return sessionIdleMillis;
+    }
+
+    /**
+     * How long a shutdown waits for running requests before it saves and
+     * closes anyway
+     */
+    public long getShutdownGraceMillis() {
+        return shutdownGraceMillis;
+    }
+
+    /**
+     * Token a ShutdownRequest must carry, null when the server cannot be shut
+     * down over the network
+     */
+    public String getAdminToken() {
+        return adminToken;
+    }
+
+    /**
+     * How database changes are made durable, "sync", "group" or "async"
+     */
+    public PersistenceScheduler.Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Longest a database change waits to be flushed in group or async mode
+     */
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    /**
+     * Changes waiting that start a flush before the interval is up
+     */
+    public int getFlushMaxPending() {
+        return flushMaxPending;
+    }
+
+    /**
+     * Log records after which a database rewrites its snapshot file
+     */
+    public int getSnapshotEvery() {
+        return snapshotEvery;
+    }
+
+    /**
+     * Which storage backend keeps the databases, "json" (a file each,
+     * rewritten on every flush), "memory" (nothing on disk) or "log" (a file
+     * each plus a log of changes)
+     */
+    public String getStorage() {
+        return storage;
+    }
+
+    /**
+     * Directory the file backends keep the databases in
+     */
+    public String getDataDir() {
+        return dataDir;
+    }
+
+    /**
+     * How long a trade request waits for the recipient to answer before it
+     * expires, 0 for forever
+     */
+    public long getTradeRequestTtlMillis() {
+        return tradeRequestTtlMillis;
+    }
+
+    /**
+     * How long an accepted trade waits for the requester to confirm before
+     * it expires, 0 for forever
+     */
+    public long getTradeResponseTtlMillis() {
+        return tradeResponseTtlMillis;
+    }
+
+    /**
+     * Limit for message types without their own, per client
+     */
+    public RateLimiter.Limit getDefaultRateLimit() {
+        return defaultRateLimit;
+    }
+
+    /**
+     * Limits per message type, per client. PackRequest is charged one token per card.
+     */
+    public Map<String, RateLimiter.Limit> getRateLimits() {
+        return rateLimits;
+    }
+}
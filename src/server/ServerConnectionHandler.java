@@ -1,45 +1,417 @@
 package server;
 
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.io.UncheckedIOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import merrimackutil.json.JsonIO;
 import merrimackutil.json.types.JSONArray;
-import merrimackutil.json.types.JSONObject;
+import shared.TradeRecord;
 import shared.messages.*;
-import shared.Card;
 
 public class ServerConnectionHandler {
+    // idle sessions are closed up to this long after their timeout
+    private static final long SESSION_REAPER_TICK_MS = 1000;
+    // trades are removed up to this long after their deadline
+    private static final long TRADE_EXPIRY_TICK_MS = 1000;
+    // platform threads per admission permit when there are no virtual threads:
+    // one for a connection's read loop and one for a tagged request it runs
+    private static final int PLATFORM_THREADS_PER_PERMIT = 2;
+    // most cards one PackRequest may pull, checked before anything is allocated
+    public static final int MAX_PACK_CARDS = 100;
+
     private ServerSocket serverSocket;
+    private ServerConfig config = new ServerConfig();
     private ConcurrentHashMap<String, ClientHandler> clients = new ConcurrentHashMap<>();
     private UserCredentials userCreds;
     private UserCardsDatabase userCardsDatabase;
     private TradeRequestDatabase tradeRequestDatabase;
+    private TradeSettlement tradeSettlement;
+    private PersistenceScheduler persistence = PersistenceScheduler.sync();
+    private CardCatalog catalog = new CardCatalog();
+    private AdmissionControl admission = new AdmissionControl(256, 100);
+    private RateLimiter rateLimiter = new RateLimiter(config.getRateLimits(), config.getDefaultRateLimit());
+    private ExecutorService connectionExecutor;
+    private SessionReaper reaper;
+    private TradeExpiry tradeExpiry;
+    private NioServerEngine nioEngine;
+    // every open connection, logged in or not, so shutdown can close them
+    private final Set<ClientHandler> sessions = ConcurrentHashMap.newKeySet();
+    private volatile boolean shuttingDown;
+    private boolean stopped; // guarded by this
+    private final RequestMetrics metrics = new RequestMetrics();
+    private final RequestPipeline pipeline = createPipeline();
+
+    /**
+     * Starts the server with the engine chosen in the config. Does not return
+     * while the server is running.
+     *
+     * @param persistence the scheduler the databases report their changes to
+     * @param catalog     every card packs are pulled from
+     * @param settlement  settles confirmed trades across the two databases
+     */
+    public void start(ServerConfig config, PersistenceScheduler persistence, CardCatalog catalog,
+            UserCredentials userCreds, UserCardsDatabase userCardsDatabase, TradeRequestDatabase tradeRequestDatabase,
+            TradeSettlement settlement) {
+        this.config = config;
+        this.persistence = persistence;
+        this.catalog = catalog;
+        this.tradeSettlement = settlement;
+        this.admission = new AdmissionControl(config.getMaxInFlight(), config.getAdmissionWaitMillis());
+        this.rateLimiter = new RateLimiter(config.getRateLimits(), config.getDefaultRateLimit());
+        this.reaper = new SessionReaper(config.getSessionIdleMillis(), SESSION_REAPER_TICK_MS);
+        reaper.start();
+        this.tradeExpiry = new TradeExpiry(tradeRequestDatabase, TRADE_EXPIRY_TICK_MS, this::tradeExpired);
+        tradeExpiry.start();
+
+        if (config.getEngine().equals(ServerConfig.ENGINE_NIO)) {
+            this.userCreds = userCreds;
+            this.userCardsDatabase = userCardsDatabase;
+            this.tradeRequestDatabase = tradeRequestDatabase;
 
+            try {
+                nioEngine = new NioServerEngine(this, config.getSelectorThreads(), config.getWorkerThreads());
+                if (!shuttingDown) {
+                    nioEngine.start(config.getPort());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            this.connectionExecutor = newConnectionExecutor(config);
+            start(config.getPort(), userCreds, userCardsDatabase, tradeRequestDatabase);
+        }
+    }
+
+    /**
+     * Creates the executor that runs one BlockingClientHandler per connection,
+     * and the tagged requests and pushes of those connections. Uses a virtual
+     * thread per task if the config asks for them and the JVM has them.
+     * Otherwise platform threads, bounded by the admission limit so a flood
+     * of connections cannot start threads without end. A connection that
+     * finds them all busy is turned away.
+     */
+    private static ExecutorService newConnectionExecutor(ServerConfig config) {
+        String reason = "turned off";
+        if (config.useVirtualThreads()) {
+            try {
+                // looked up reflectively so the server still builds and runs on JDKs before 21
+                ExecutorService executor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                System.out.println("Blocking engine: a virtual thread per connection");
+                return executor;
+            } catch (ReflectiveOperationException e) {
+                reason = "not available on Java " + Runtime.version().feature();
+            }
+        }
+        int threads = config.getMaxInFlight() * PLATFORM_THREADS_PER_PERMIT;
+        System.out.println("Blocking engine: up to " + threads + " platform threads, virtual threads are " + reason);
+        return new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+    }
+
+    /**
+     * Registers the handler of every request type and the interceptors all
+     * requests go through. Errors is outermost so a failure anywhere is
+     * answered, metrics times everything the client waits on, and the rate
+     * limit runs before the session check so rejected logins still count.
+     * Durable is innermost, it only waits for what the handler changed.
+     */
+    private RequestPipeline createPipeline() {
+        RequestPipeline requests = new RequestPipeline()
+                .intercept(RequestInterceptors.errors())
+                .intercept(metrics)
+                .intercept(RequestInterceptors.rateLimit(this::getRateLimiter))
+                .intercept(RequestInterceptors.session())
+                .intercept(RequestInterceptors.durable(() -> persistence));
+
+        requests.on(UserCredRequest.class, (client, request) -> {
+            boolean success;
+            switch (request.getType()) {
+                case "Login":
+                    success = handleLogin(request);
+                    break;
+                case "Register":
+                    success = handleRegistration(request);
+                    break;
+                default:
+                    System.err.println("Unknown message type: " + request.getType());
+                    return new ErrorResponse(ErrorResponse.UNKNOWN_TYPE, "Unknown request type: " + request.getType());
+            }
+            if (success) {
+                client.loggedIn(request.getUsername());
+            }
+            return new UserCredResponse(success);
+        });
+        requests.on(PackRequest.class, (client, request) -> {
+            if (request.getCardCount() < 1 || request.getCardCount() > MAX_PACK_CARDS) {
+                return new ErrorResponse(ErrorResponse.BAD_REQUEST,
+                        "A pack holds 1 to " + MAX_PACK_CARDS + " cards, not " + request.getCardCount() + ".");
+            }
+            return new PackResponse(handlePackRequest(request));
+        });
+        requests.on(CollectionRequest.class,
+                (client, request) -> new CollectionResponse(handleCollectionRequest(request)));
+        requests.on(TradeRequest.class, (client, request) -> {
+            TradeRecord trade = handleTradeRequest(request);
+            return new ServerTradeStatus(true, "Trade request " + trade.tradeID() + " added successfully.");
+        });
+        requests.on(TradeResponse.class, (client, request) -> {
+            ErrorResponse refused = refuseTradeAction(client, request, request.getTradeID(), false);
+            if (refused != null) {
+                return refused;
+            }
+            handleTradeResponse(request);
+            return new ServerTradeStatus(true, "Trade response processed successfully.");
+        });
+        requests.on(ViewTradesRequest.class,
+                (client, request) -> new ViewTradesResponse(handleViewTradesRequest(request)));
+        requests.on(TradeConfirmation.class, (client, request) -> {
+            ErrorResponse refused = refuseTradeAction(client, request, request.getTradeID(), true);
+            if (refused != null) {
+                return refused;
+            }
+            // the client waits for a status, so always answer or the session stalls
+            if (handleTradeConfirmation(request)) {
+                return new ServerTradeStatus(true, "Trade confirmed successfully.");
+            }
+            return new ServerTradeStatus(false, "Trade could not be confirmed.");
+        });
+        requests.on(UserListRequest.class,
+                (client, request) -> new UserListResponse(handleUserListRequest(request)));
+        requests.on(SubscribeRequest.class, (client, request) -> {
+            client.subscribe();
+            return new ServerTradeStatus(true, "Subscribed to trade events.");
+        });
+        requests.on(BatchRequest.class, this::handleBatch);
+        requests.on(ShutdownRequest.class, (client, request) -> {
+            String token = config.getAdminToken();
+            if (token == null || request.getToken() == null || !MessageDigest.isEqual(
+                    token.getBytes(StandardCharsets.UTF_8), request.getToken().getBytes(StandardCharsets.UTF_8))) {
+                System.err.println("Refused shutdown request from " + client.getRateLimitKey());
+                return new ErrorResponse(ErrorResponse.UNAUTHORIZED, "Shutdown needs the admin token.");
+            }
+            // shutdown waits for running requests, this one included, so it cannot run here
+            new Thread(this::shutdown, "server-shutdown").start();
+            return new ServerTradeStatus(true, "Server is shutting down.");
+        });
+        return requests;
+    }
+
+    /**
+     * Refuses a request about a trade from anyone but the side whose turn it
+     * is: the recipient answers a trade, the requester confirms it. The two
+     * users of a trade never change and IDs are never reused, so checking
+     * before the handler runs is enough. A trade that does not exist is left
+     * to the handler.
+     *
+     * @param requester true if only the requester may act, false for the recipient
+     * @return the error to answer with, null if the user may act
+     */
+    private ErrorResponse refuseTradeAction(ClientHandler client, Message request, long tradeID, boolean requester) {
+        TradeRecord trade;
+        try {
+            trade = tradeRequestDatabase.getTradeRequest(tradeID);
+        } catch (InvalidObjectException e) {
+            return null;
+        }
+        String allowed = requester ? trade.requesterID() : trade.recipientID();
+        if (allowed.equals(client.getUsername())) {
+            return null;
+        }
+        System.err.println("Refused " + request.getType() + " for trade " + tradeID + " from " + client.getUsername());
+        return new ErrorResponse(ErrorResponse.UNAUTHORIZED,
+                client.getUsername() + " cannot send " + request.getType() + " for trade " + tradeID);
+    }
+
+    /**
+     * Handles every request of a batch in order and collects their responses.
+     * Each request goes through the whole pipeline, so it is rate limited and
+     * checked on its own and a failing one only gets an error in its slot.
+     *
+     * @param batch the batch received from the client
+     * @return one response per request
+     */
+    private BatchResponse handleBatch(ClientHandler client, BatchRequest batch) {
+        List<Message> responses = new ArrayList<>();
+        for (Message request : batch.getRequests()) {
+            Message response;
+            if (request == null) {
+                response = new ErrorResponse(ErrorResponse.UNKNOWN_TYPE, "Unknown request type in batch");
+            } else if (request instanceof BatchRequest || request instanceof LogOutRequest) {
+                response = new ErrorResponse(ErrorResponse.BAD_REQUEST,
+                        request.getType() + " cannot be sent in a batch");
+            } else {
+                response = pipeline.handle(client, request);
+                if (response == null) {
+                    response = new ErrorResponse(ErrorResponse.BAD_REQUEST, request.getType() + " has no response");
+                }
+            }
+            response.setRequestID(request == null ? 0 : request.getRequestID());
+            responses.add(response);
+        }
+        return new BatchResponse(responses);
+    }
+
+    /**
+     * Starts the blocking engine, one thread per connected client
+     */
     public void start(int port, UserCredentials userCreds, UserCardsDatabase userCardsDatabase,
             TradeRequestDatabase tradeRequestDatabase) {
         this.userCreds = userCreds;
         this.userCardsDatabase = userCardsDatabase;
         this.tradeRequestDatabase = tradeRequestDatabase;
+        if (connectionExecutor == null) {
+            connectionExecutor = newConnectionExecutor(config);
+        }
+        if (reaper == null) {
+            reaper = new SessionReaper(config.getSessionIdleMillis(), SESSION_REAPER_TICK_MS);
+            reaper.start();
+        }
+        if (tradeExpiry == null) {
+            tradeExpiry = new TradeExpiry(tradeRequestDatabase, TRADE_EXPIRY_TICK_MS, this::tradeExpired);
+            tradeExpiry.start();
+        }
 
         try {
             serverSocket = new ServerSocket(port);
             System.out.println("Server started on port " + port); // Add this line
-            while (true) {
+            while (!shuttingDown) {
                 Socket clientSocket = serverSocket.accept();
                 System.out.println("Client connected: " + clientSocket.getInetAddress()); // Add this line
-                ClientHandler handler = new ClientHandler(clientSocket, this);
-                new Thread(handler).start();
+                BlockingClientHandler handler = new BlockingClientHandler(clientSocket, this);
+                sessionOpened(handler);
+                try {
+                    connectionExecutor.execute(handler);
+                } catch (RejectedExecutionException e) {
+                    System.err.println("Turning away " + clientSocket.getInetAddress() + ", every thread is busy");
+                    handler.closeForShutdown();
+                }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            if (!shuttingDown) {
+                e.printStackTrace();
+            } // otherwise shutdown closed the server socket to stop this loop
+        }
+    }
+
+    /**
+     * Stops the server: stops accepting connections, waits up to the grace
+     * period for running requests, saves the databases and closes every
+     * connection. New requests on open connections get SHUTTING_DOWN.
+     * Runs once, later calls return right away.
+     */
+    public synchronized void shutdown() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        shuttingDown = true;
+        System.out.println("Shutting down, " + sessions.size() + " open sessions");
+        long deadline = System.currentTimeMillis() + config.getShutdownGraceMillis();
+
+        if (nioEngine != null) {
+            nioEngine.stopAccepting();
+        }
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                System.err.println("Error closing server socket: " + e.getMessage());
+            }
+        }
+        if (reaper != null) {
+            reaper.stop();
         }
+        if (tradeExpiry != null) {
+            tradeExpiry.stop();
+        }
+
+        if (!admission.drain(config.getShutdownGraceMillis())) {
+            System.err.println("Shutdown grace period ran out with requests still running (" + admission + ")");
+        }
+
+        // flush what the scheduler still holds, then compact the card log into a snapshot. The
+        // trades go first, the snapshot can only drop settlements the trade file holds.
+        persistence.close();
+        if (userCreds != null) {
+            userCreds.save();
+        }
+        if (tradeRequestDatabase != null) {
+            tradeRequestDatabase.save();
+        }
+        if (userCardsDatabase != null) {
+            userCardsDatabase.save();
+        }
+
+        for (ClientHandler handler : sessions) {
+            handler.closeForShutdown();
+        }
+        awaitSessionsClosed(deadline);
+        if (nioEngine != null) {
+            nioEngine.stop();
+        }
+        if (connectionExecutor != null) {
+            connectionExecutor.shutdown();
+        }
+
+        System.out.println("Server stopped. Admission: " + admission + ". Idle sessions reaped: "
+                + (reaper != null ? reaper.getReapedCount() : 0) + ". Trades expired: "
+                + (tradeExpiry != null ? tradeExpiry.getExpiredCount() : 0) + ". Persistence: " + persistence);
+        System.out.print("Requests:\n" + metrics);
+    }
+
+    /**
+     * Waits for closed connections to finish writing, at most until the deadline
+     */
+    private void awaitSessionsClosed(long deadline) {
+        while (!sessions.isEmpty() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (!sessions.isEmpty()) {
+            System.err.println(sessions.size() + " sessions did not close in time");
+        }
+    }
+
+    /**
+     * @return true once shutdown has started
+     */
+    public boolean isShuttingDown() {
+        return shuttingDown;
+    }
+
+    /**
+     * Tracks a new connection and starts watching it for idleness
+     */
+    void sessionOpened(ClientHandler handler) {
+        sessions.add(handler);
+        reaper.watch(handler);
+    }
+
+    /**
+     * Forgets a closed connection
+     */
+    void sessionClosed(ClientHandler handler) {
+        sessions.remove(handler);
     }
 
     public boolean handleLogin(UserCredRequest userCredRequest) {
@@ -55,69 +427,47 @@ public class ServerConnectionHandler {
     }
 
     public boolean handleRegistration(UserCredRequest userCredRequest) {
-        if (userCreds.checkUser(userCredRequest.getUsername())) {
-            return false;
+        if (!userCreds.addUser(userCredRequest.getUsername(), userCredRequest.getPassword())) {
+            return false; // taken
         }
 
-        userCreds.addUser(userCredRequest.getUsername(), userCredRequest.getPassword());
         try {
             userCardsDatabase.addUser(userCredRequest.getUsername());
         } catch (InvalidObjectException e) {
             System.err.println("Error adding user to database: " + e.getMessage());
             return false;
+        } catch (UncheckedIOException e) {
+            // the registration fails as a whole, not half way
+            userCreds.removeUser(userCredRequest.getUsername());
+            throw e;
         }
         return true;
     }
 
+    /**
+     * Pulls random cards from the requested pack and adds them to the user.
+     * The card count was checked against MAX_PACK_CARDS by the caller.
+     *
+     * @return the cards pulled, empty for an unknown pack
+     */
     public JSONArray handlePackRequest(PackRequest packRequest) {
-        HashMap<String, Card> cardsMap = new HashMap<>();
-        JSONArray cardArray = null;
-
-        try {
-            cardArray = JsonIO.readArray(new File("src/server/cardinfo/cards.json"));
-        } catch (FileNotFoundException e) {
-            System.err.println("cards.json file not found: " + e.getMessage());
-            return new JSONArray(); // Return an empty array if the file is missing
-        }
-
-        // Populate the cardsMap
-        for (int i = 0; i < cardArray.size(); i++) {
-            JSONObject card = (JSONObject) cardArray.get(i);
-            String cardID = card.getString("cardID");
-            String name = card.getString("name");
-            int rarity = card.getInt("rarity");
-            String imageLink = card.getString("imageLink");
-            String pack = card.getString("pack"); // Assuming the pack is also in the JSON
-            cardsMap.put(cardID, new Card(cardID, name, rarity, imageLink, pack));
+        JSONArray cardPack = new JSONArray();
+        int[] packCards = catalog.inPack(packRequest.getPackName());
+        if (packCards.length == 0) {
+            System.err.println("No cards in pack: " + packRequest.getPackName());
+            return cardPack;
         }
 
-        JSONArray cardPack = new JSONArray();
-        int cardCount = packRequest.getCardCount();
-
-        // Randomly select cards
-        for (int i = 0; i < cardCount; i++) {
-            int attempts = 0;
-            while (attempts < 10) { // Limit attempts to avoid infinite loops
-            int randomIndex = (int) (Math.random() * cardsMap.size());
-            String cardID = (String) cardsMap.keySet().toArray()[randomIndex];
-            Card card = cardsMap.get(cardID);
-
-            if (card != null && card.getPack().equals(packRequest.getPackName())) {
-                JSONObject cardJSON = new JSONObject();
-                cardJSON.put("cardID", card.getCardID());
-                cardJSON.put("name", card.getName());
-                cardJSON.put("rarity", card.getRarity());
-                cardJSON.put("imageLink", card.getImage());
-                cardPack.add(cardJSON);
-                break;
-            }
-            attempts++;
-            }
+        int[] pulled = new int[packRequest.getCardCount()];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < pulled.length; i++) {
+            pulled[i] = packCards[random.nextInt(packCards.length)];
+            cardPack.add(catalog.get(pulled[i]).toJSON());
         }
 
         // Add the cards to the user's database
         try {
-            userCardsDatabase.addCards(packRequest.getUsername(), cardPack);
+            userCardsDatabase.addCards(packRequest.getUsername(), pulled);
         } catch (InvalidObjectException e) {
             System.err.println("Error adding cards to database: " + e.getMessage());
         }
@@ -125,6 +475,50 @@ public class ServerConnectionHandler {
         return cardPack;
     }
 
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Limits how many requests are handled at once across all clients
+     */
+    public AdmissionControl getAdmissionControl() {
+        return admission;
+    }
+
+    /**
+     * Routes requests to their handlers through the interceptors
+     */
+    public RequestPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Per type request counts and latencies
+     */
+    public RequestMetrics getRequestMetrics() {
+        return metrics;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Closes sessions that stay idle longer than the configured timeout
+     */
+    public SessionReaper getSessionReaper() {
+        return reaper;
+    }
+
+    /**
+     * Runs tagged requests of blocking engine connections, the same executor
+     * that runs the connections themselves
+     */
+    public Executor getRequestExecutor() {
+        return connectionExecutor;
+    }
+
     public void addClient(String username, ClientHandler clientHandler) {
         clients.put(username, clientHandler);
     }
@@ -133,47 +527,60 @@ public class ServerConnectionHandler {
         clients.remove(username);
     }
 
+    /**
+     * Removes a user's session only if it is still the given one, so a closing
+     * session does not drop a newer login of the same user
+     */
+    public void removeClient(String username, ClientHandler clientHandler) {
+        clients.remove(username, clientHandler);
+    }
+
     public JSONArray handleCollectionRequest(CollectionRequest collectionRequest) {
         JSONArray collection = new JSONArray();
         try {
-            collection = userCardsDatabase.getUserCards(collectionRequest.getUsername());
+            collection = catalog.expand(userCardsDatabase.getUserCards(collectionRequest.getUsername()));
         } catch (InvalidObjectException e) {
             System.err.println("Error retrieving user cards: " + e.getMessage());
         }
         return collection;
     }
 
-    public void handleTradeRequest(TradeRequest tradeRequest) {
+    /**
+     * Adds a trade request and tells the recipient about it
+     *
+     * @return the new trade with the ID the server gave it
+     */
+    public TradeRecord handleTradeRequest(TradeRequest tradeRequest) {
         System.out.println(
                 "Trade request from " + tradeRequest.getRequesterID() + " to " + tradeRequest.getRecipientID());
-        try {
-            tradeRequestDatabase.addTradeRequest(tradeRequest.getRequesterID(), tradeRequest.getRecipientID(),
-                    tradeRequest.getOfferCardID(), null);
-        } catch (InvalidObjectException e) {
-            System.out.println("Error adding trade request to database: " + e.getMessage());
-            e.printStackTrace();
-        }
+        TradeRecord trade = tradeRequestDatabase.addTradeRequest(tradeRequest.getRequesterID(),
+                tradeRequest.getRecipientID(), tradeRequest.getOfferCardID());
+        tradeExpiry.watch(trade);
+        pushTradeEvent(trade, trade.recipientID(), TradeEvent.REQUESTED);
+        return trade;
     }
 
     public void handleTradeResponse(TradeResponse tradeResponse) {
         System.out
-                .println("Trade response status: " + tradeResponse.getStatus() + " for " + tradeResponse.getTradeKey());
+                .println("Trade response status: " + tradeResponse.getStatus() + " for " + tradeResponse.getTradeID());
         if (!tradeResponse.getStatus()) {
-            System.out.println("Trade for " + tradeResponse.getTradeKey() + " was not accepted.");
+            System.out.println("Trade " + tradeResponse.getTradeID() + " was not accepted.");
             try {
-                tradeRequestDatabase.removeTradeRequest(tradeResponse.getTradeKey());
+                TradeRecord trade = tradeRequestDatabase.removeTradeRequest(tradeResponse.getTradeID());
+                pushTradeEvent(trade, trade.requesterID(), TradeEvent.DECLINED);
             } catch (InvalidObjectException e) {
                 System.out.println("Error removing trade request from database: " + e.getMessage());
-                e.printStackTrace();
             }
             return;
         }
 
         try {
-            tradeRequestDatabase.updateTradeRequest(tradeResponse.getTradeKey(), tradeResponse.getCardID());
+            TradeRecord trade = tradeRequestDatabase.updateTradeRequest(tradeResponse.getTradeID(),
+                    tradeResponse.getCardID());
+            tradeExpiry.watch(trade); // the requester has until the new deadline to confirm
+            pushTradeEvent(trade, trade.requesterID(), TradeEvent.ACCEPTED);
         } catch (InvalidObjectException e) {
             System.out.println("Error updating trade request in database: " + e.getMessage());
-            e.printStackTrace();
         }
     }
 
@@ -182,81 +589,72 @@ public class ServerConnectionHandler {
      * responses for the user.
      *
      * @param viewTradesRequest The request containing the username of the user.
-     * @return A JSONArray containing all trade requests and responses for the user.
+     * @return the requests sent to the user, then the responses to the user's requests
      */
-    public JSONArray handleViewTradesRequest(ViewTradesRequest viewTradesRequest) {
-        JSONArray flatTrades = new JSONArray();
-
-        // Flatten trade requests
-        JSONArray requests = tradeRequestDatabase.getTradeRequests(viewTradesRequest.getUsername());
-        for (int i = 0; i < requests.size(); i++) {
-            flatTrades.add(requests.get(i)); // each entry is a JSONArray
-        }
-
-        // Flatten trade responses
-        JSONArray responses = tradeRequestDatabase.getTradeResponses(viewTradesRequest.getUsername());
-        for (int i = 0; i < responses.size(); i++) {
-            flatTrades.add(responses.get(i));
-        }
-
-        System.out.println("Flat trade list for " + viewTradesRequest.getUsername() + ": " + flatTrades.toString());
-        return flatTrades;
+    public List<TradeRecord> handleViewTradesRequest(ViewTradesRequest viewTradesRequest) {
+        List<TradeRecord> trades = new ArrayList<>(tradeRequestDatabase.getTradeRequests(viewTradesRequest.getUsername()));
+        trades.addAll(tradeRequestDatabase.getTradeResponses(viewTradesRequest.getUsername()));
+        System.out.println("Trade list for " + viewTradesRequest.getUsername() + ": " + trades.size() + " trades");
+        return trades;
     }
 
-    public void handleTradeConfirmation(TradeConfirmation tradeConfirmation) {
+    /**
+     * Settles a confirmed trade by swapping the cards between the two users
+     *
+     * @param tradeConfirmation The confirmation sent by the original requester.
+     * @return true if the trade was settled, false otherwise.
+     */
+    public boolean handleTradeConfirmation(TradeConfirmation tradeConfirmation) {
         if (tradeConfirmation.getStatus()) {
-            System.out.println("Trade confirmed for " + tradeConfirmation.getTradeKey());
+            System.out.println("Trade confirmed for " + tradeConfirmation.getTradeID());
             try {
-                JSONArray tradeInfo = tradeRequestDatabase.getTradeRequest(tradeConfirmation.getTradeKey());
-                String requesterID = tradeInfo.getString(1);
-                String recipientID = tradeInfo.getString(2);
-                String offerCardID = tradeInfo.getString(3);
-                String responseCardID = tradeInfo.getString(4);
-
-                // swap cards
-                System.out.println("Swapping cards: " + requesterID + " -> " + recipientID);
-                System.out.println("Offer card ID: " + offerCardID + ", Response card ID: " + responseCardID);
-                userCardsDatabase.removeCard(requesterID, offerCardID);
-                userCardsDatabase.removeCard(recipientID, responseCardID);
-
-                // Load cards from cards.json
-                JSONArray cardArray = JsonIO.readArray(new File("src/server/cardinfo/cards.json")); // hard coded path cause im lazy
-                HashMap<String, Card> cardsMap = new HashMap<>();
-
-                // Populate the cardsMap
-                for (int i = 0; i < cardArray.size(); i++) {
-                    JSONObject card = (JSONObject) cardArray.get(i);
-                    String cardID = card.getString("cardID");
-                    String name = card.getString("name");
-                    int rarity = card.getInt("rarity");
-                    String imageLink = card.getString("imageLink");
-                    cardsMap.put(cardID, new Card(cardID, name, rarity, imageLink));
-                }
-
-                // Query card info from cardsMap
-                Card offerCard = cardsMap.get(offerCardID);
-                Card responseCard = cardsMap.get(responseCardID);
-
-                userCardsDatabase.addCard(requesterID, responseCard.getCardID(), responseCard.getName(),
-                        responseCard.getRarity(), responseCard.getImage());
-                userCardsDatabase.addCard(recipientID, offerCard.getCardID(), offerCard.getName(),
-                        offerCard.getRarity(), offerCard.getImage());
-
-                // remove trade request from database
-                tradeRequestDatabase.removeTradeRequest(tradeConfirmation.getTradeKey());
+                // swap the cards and remove the trade as one change
+                TradeRecord trade = tradeSettlement.settle(tradeConfirmation.getTradeID());
+                System.out.println("Swapped cards: " + trade.requesterID() + " gave " + trade.offerCardID() + ", "
+                        + trade.recipientID() + " gave " + trade.responseCardID());
+                pushTradeEvent(trade, trade.recipientID(), TradeEvent.COMPLETED);
+                return true;
 
             } catch (InvalidObjectException e) {
-                System.out.println("Error removing trade request from database: " + e.getMessage());
-                e.printStackTrace();
-            } catch (FileNotFoundException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+                System.out.println("Error settling trade: " + e.getMessage());
             }
         } else {
-            System.out.println("Trade not confirmed for " + tradeConfirmation.getTradeKey());
+            System.out.println("Trade not confirmed for " + tradeConfirmation.getTradeID());
+        }
+        return false;
+    }
+
+    /**
+     * Pushes a trade event to a user if they are online and subscribed
+     *
+     * @param username user to tell
+     * @param event    what happened
+     */
+    public void pushTradeEvent(String username, TradeEvent event) {
+        ClientHandler handler = clients.get(username);
+        if (handler != null) {
+            handler.push(event);
         }
     }
 
+    /**
+     * Pushes a trade event to one side of a trade, naming the other side
+     *
+     * @param notify the requester or the recipient of the trade
+     */
+    private void pushTradeEvent(TradeRecord trade, String notify, String event) {
+        pushTradeEvent(notify, new TradeEvent(event, trade.tradeID(), trade.otherUser(notify)));
+    }
+
+    /**
+     * Tells both sides of a trade that it expired, those not online hear
+     * nothing and just no longer see it
+     */
+    private void tradeExpired(TradeRecord trade) {
+        pushTradeEvent(trade, trade.requesterID(), TradeEvent.EXPIRED);
+        pushTradeEvent(trade, trade.recipientID(), TradeEvent.EXPIRED);
+    }
+
     public JSONArray handleUserListRequest(UserListRequest userListRequest) {
         JSONArray userList = new JSONArray();
         userList = userCardsDatabase.getAllUsers();
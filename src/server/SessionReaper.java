@@ -0,0 +1,110 @@
+package server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closes sessions that have not sent a request for the idle timeout.
+ *
+ * Each session sits in a TimingWheel at the time it would go idle. A request
+ * only updates the session's last activity time, the wheel entry is checked
+ * when it comes due and moved to the new idle time if the session was used
+ * meanwhile. A tick therefore only touches sessions that came due.
+ */
+public class SessionReaper {
+    // a turn of the wheel covers this many ticks, longer timeouts still work
+    private static final int SLOTS = 512;
+
+    private final long idleTimeoutMillis;
+    private final long tickMillis;
+    private final TimingWheel<ClientHandler> wheel; // only touched by the timer thread
+    // sessions opened since the last tick, handed to the timer thread
+    private final ConcurrentLinkedQueue<ClientHandler> opened = new ConcurrentLinkedQueue<>();
+    private final LongAdder reaped = new LongAdder();
+    private ScheduledExecutorService timer;
+
+    /**
+     * @param idleTimeoutMillis how long a session may go without a request
+     * @param tickMillis        how often the reaper runs, sessions are closed
+     *                          up to this late
+     */
+    public SessionReaper(long idleTimeoutMillis, long tickMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.tickMillis = tickMillis;
+        this.wheel = new TimingWheel<>(tickMillis, SLOTS, System.currentTimeMillis());
+    }
+
+    /**
+     * Starts the timer thread
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the timer thread, sessions are no longer closed for being idle
+     */
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * Starts watching a newly opened session
+     */
+    public void watch(ClientHandler handler) {
+        opened.add(handler);
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            ClientHandler handler;
+            while ((handler = opened.poll()) != null) {
+                wheel.schedule(handler, handler.getLastActivity() + idleTimeoutMillis);
+            }
+            wheel.advance(now, due -> check(due, now));
+        } catch (RuntimeException e) {
+            // an exception would cancel the periodic task
+            System.err.println("Session reaper failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Closes a session that came due if it really was idle, otherwise moves it
+     * to its new idle time
+     */
+    private void check(ClientHandler handler, long now) {
+        if (handler.isClosed()) {
+            return;
+        }
+        long idleAt = handler.getLastActivity() + idleTimeoutMillis;
+        if (idleAt - now > 0) {
+            wheel.schedule(handler, idleAt);
+            return;
+        }
+        System.out.println("Closing idle session" + (handler.getUsername() != null ? " of " + handler.getUsername() : ""));
+        reaped.increment();
+        handler.closeIdle();
+    }
+
+    /**
+     * @return sessions closed for being idle
+     */
+    public long getReapedCount() {
+        return reaped.sum();
+    }
+}
@@ -0,0 +1,76 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+
+import merrimackutil.json.types.JSONType;
+
+/**
+ * Where the databases keep their data. Each database opens a Store by name
+ * and keeps a snapshot of itself there, plus a ChangeLog of what changed
+ * since. The backend decides whether databases append every change to the
+ * log and only now and then write a snapshot, or rewrite the snapshot on
+ * every flush.
+ */
+public interface Storage {
+    String JSON = "json";
+    String MEMORY = "memory";
+    String LOG = "log";
+
+    /**
+     * The data of one database
+     */
+    interface Store {
+        /**
+         * @return the last snapshot written, null if there is none yet
+         * @throws IOException Throws if the snapshot cannot be read
+         */
+        JSONType read() throws IOException;
+
+        /**
+         * Replaces the snapshot, a crash leaves either the old or the new one
+         *
+         * @throws IOException Throws if the snapshot cannot be written
+         */
+        void write(JSONType contents) throws IOException;
+
+        /**
+         * @return the log of changes since the snapshot, the same one on every call
+         */
+        ChangeLog log();
+
+        /**
+         * @return true if databases should log each change and snapshot now
+         *         and then, false if they should rewrite the snapshot on
+         *         every flush. The card database always logs.
+         */
+        boolean logsChanges();
+    }
+
+    /**
+     * Opens the data of a database
+     *
+     * @param name name of the database, like "users"
+     */
+    Store open(String name);
+
+    /**
+     * Creates a backend by name
+     *
+     * @param kind      "json", "memory" or "log"
+     * @param directory where file backends keep their files
+     * @throws IllegalArgumentException if the kind is none of them
+     */
+    static Storage create(String kind, File directory) {
+        switch (kind) {
+            case JSON:
+                return new JsonFileStorage(directory);
+            case MEMORY:
+                return new InMemoryStorage();
+            case LOG:
+                return new LogStructuredStorage(directory);
+            default:
+                throw new IllegalArgumentException("Unknown storage: " + kind);
+        }
+    }
+}
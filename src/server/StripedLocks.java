@@ -0,0 +1,68 @@
+package server;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks shared out by key. Changes to different keys rarely
+ * wait on each other, changes to the same key always take the same lock.
+ * Several keys are locked in ascending stripe order, so two threads locking
+ * overlapping keys cannot deadlock.
+ */
+public class StripedLocks {
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    /**
+     * @param stripes number of locks, rounded up to a power of two
+     */
+    public StripedLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * @return the lock of a key
+     */
+    public Lock get(String key) {
+        return locks[stripe(key)];
+    }
+
+    /**
+     * Locks the stripes of every key, each stripe once, lowest first
+     *
+     * @return the stripes locked, to hand to unlockAll
+     */
+    public int[] lockAll(Collection<String> keys) {
+        int[] stripes = keys.stream().mapToInt(this::stripe).sorted().distinct().toArray();
+        for (int stripe : stripes) {
+            locks[stripe].lock();
+        }
+        return stripes;
+    }
+
+    /**
+     * Unlocks stripes locked by lockAll
+     */
+    public void unlockAll(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+
+    private int stripe(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    @Override
+    public String toString() {
+        return locks.length + " lock stripes" + (Arrays.stream(locks).anyMatch(ReentrantLock::isLocked) ? ", some held" : "");
+    }
+}
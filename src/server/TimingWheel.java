@@ -0,0 +1,115 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel. Deadlines are rounded up to a tick and kept in
+ * the slot of that tick, so advancing the wheel only looks at the slots that
+ * came due instead of every scheduled item. Deadlines further away than one
+ * turn of the wheel wait in a coarser overflow wheel, whose tick is a whole
+ * turn of this one, and drop into this wheel once they are less than a turn
+ * away. Far deadlines are therefore touched once per level, not once per turn.
+ *
+ * Not thread safe, the wheel belongs to the thread that advances it.
+ */
+public class TimingWheel<T> {
+    private final long tickMillis;
+    private final List<List<Entry<T>>> slots;
+    private long currentTick; // last tick advance processed
+    private int size;
+    private TimingWheel<Entry<T>> overflow; // made when a deadline first needs it
+
+    /**
+     * @param tickMillis  length of a tick, deadlines are accurate to this
+     * @param slotCount   slots in the wheel, a turn of the wheel spans
+     *                    tickMillis * slotCount
+     * @param startMillis time the wheel starts at
+     */
+    public TimingWheel(long tickMillis, int slotCount, long startMillis) {
+        if (tickMillis <= 0 || slotCount <= 0) {
+            throw new IllegalArgumentException("Tick and slot count must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * Schedules an item. A deadline that already passed fires on the next advance.
+     *
+     * @param item     item handed back when the deadline passes
+     * @param deadline time in milliseconds
+     */
+    public void schedule(T item, long deadline) {
+        long tick = Math.max(currentTick + 1, (deadline + tickMillis - 1) / tickMillis);
+        place(new Entry<>(item, tick), currentTick);
+        size++;
+    }
+
+    /**
+     * Puts an entry in its slot, or in the overflow wheel while it is a turn
+     * or more past the given tick
+     */
+    private void place(Entry<T> entry, long fromTick) {
+        if (entry.tick - fromTick < slots.size()) {
+            slots.get((int) (entry.tick % slots.size())).add(entry);
+            return;
+        }
+        if (overflow == null) {
+            overflow = new TimingWheel<>(tickMillis * slots.size(), slots.size(), currentTick * tickMillis);
+        }
+        // comes back out by the time the entry is less than a turn away
+        overflow.schedule(entry, (entry.tick - slots.size() + 1) * tickMillis);
+    }
+
+    /**
+     * Moves the wheel up to now and hands every item whose deadline passed to
+     * the consumer, which may schedule items again
+     *
+     * @param now     current time in milliseconds
+     * @param expired receives the items that came due
+     */
+    public void advance(long now, Consumer<T> expired) {
+        long target = now / tickMillis;
+        if (overflow != null) {
+            // entries now within a turn move down before the slots are looked at
+            overflow.advance(now, entry -> place(entry, target));
+        }
+        // after a long stall one turn visits every slot, no need for more
+        long first = Math.max(currentTick + 1, target - slots.size() + 1);
+        List<T> due = new ArrayList<>();
+        for (long tick = first; tick <= target; tick++) {
+            List<Entry<T>> slot = slots.get((int) (tick % slots.size()));
+            for (int i = slot.size() - 1; i >= 0; i--) {
+                Entry<T> entry = slot.get(i);
+                if (entry.tick <= target) {
+                    // order within a slot does not matter, fill the gap with the last entry
+                    slot.set(i, slot.get(slot.size() - 1));
+                    slot.remove(slot.size() - 1);
+                    due.add(entry.item);
+                }
+            }
+        }
+        currentTick = Math.max(currentTick, target);
+        size -= due.size();
+        // handed out after the wheel moved so the consumer can schedule against the new time
+        for (T item : due) {
+            expired.accept(item);
+        }
+    }
+
+    /**
+     * @return items scheduled and not yet expired
+     */
+    public int size() {
+        return size;
+    }
+
+    private record Entry<T>(T item, long tick) {
+    }
+}
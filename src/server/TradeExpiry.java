@@ -0,0 +1,126 @@
+package server;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import shared.TradeRecord;
+
+/**
+ * Removes trades nobody moved on before their deadline.
+ *
+ * Each trade with a deadline sits in a TimingWheel by trade ID, so a tick
+ * only touches the trades that came due, never the whole table. A trade that
+ * was accepted gets a new deadline and a new entry, the old entry finds the
+ * later deadline in the database and is dropped. Everything that came due in
+ * a tick is removed in one database change, so it costs one write.
+ */
+public class TradeExpiry {
+    // a turn of the wheel covers this many ticks, further deadlines wait in coarser wheels
+    private static final int SLOTS = 512;
+
+    private final TradeRequestDatabase tradeRequestDatabase;
+    private final long tickMillis;
+    private final Consumer<TradeRecord> onExpired;
+    private final TimingWheel<Long> wheel; // only touched by the timer thread
+    // trades given a deadline since the last tick, handed to the timer thread
+    private final ConcurrentLinkedQueue<TradeRecord> scheduled = new ConcurrentLinkedQueue<>();
+    private final LongAdder expired = new LongAdder();
+    private ScheduledExecutorService timer;
+
+    /**
+     * @param tradeRequestDatabase the trades to expire, those it holds now are watched right away
+     * @param tickMillis           how often expiry runs, trades are removed up to this late
+     * @param onExpired            told about each trade removed, on the timer thread
+     */
+    public TradeExpiry(TradeRequestDatabase tradeRequestDatabase, long tickMillis, Consumer<TradeRecord> onExpired) {
+        this.tradeRequestDatabase = tradeRequestDatabase;
+        this.tickMillis = tickMillis;
+        this.onExpired = onExpired;
+        this.wheel = new TimingWheel<>(tickMillis, SLOTS, System.currentTimeMillis());
+        for (TradeRecord trade : tradeRequestDatabase.getAllTrades()) {
+            watch(trade);
+        }
+    }
+
+    /**
+     * Starts the timer thread
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "trade-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the timer thread, trades are no longer expired
+     */
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * Watches a trade that was just added or got a new deadline, trades
+     * without a deadline are ignored
+     */
+    public void watch(TradeRecord trade) {
+        if (trade.expiresAt() != 0) {
+            scheduled.add(trade);
+        }
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            TradeRecord trade;
+            while ((trade = scheduled.poll()) != null) {
+                wheel.schedule(trade.tradeID(), trade.expiresAt());
+            }
+            List<Long> due = new ArrayList<>();
+            wheel.advance(now, due::add);
+            if (due.isEmpty()) {
+                return;
+            }
+            List<TradeRecord> expiredNow;
+            try {
+                expiredNow = tradeRequestDatabase.expire(due, now);
+            } catch (UncheckedIOException e) {
+                // none of them were removed, try again on the next tick
+                System.err.println("Trade expiry failed: " + e.getMessage());
+                for (long tradeID : due) {
+                    wheel.schedule(tradeID, now);
+                }
+                return;
+            }
+            for (TradeRecord removed : expiredNow) {
+                expired.increment();
+                onExpired.accept(removed);
+            }
+        } catch (RuntimeException e) {
+            // an exception would cancel the periodic task
+            System.err.println("Trade expiry failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return trades removed for expiring
+     */
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+}
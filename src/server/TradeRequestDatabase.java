@@ -1,227 +1,564 @@
 package server;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import merrimackutil.json.JSONSerializable;
-import merrimackutil.json.JsonIO;
 import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
+import shared.TradeRecord;
 
-public class TradeRequestDatabase implements JSONSerializable {
-    HashMap<String, JSONArray> tradeRequests; // sender+recipientid (that way we only have one request to specified user
-                                              // at a time heh) -> trade info
-    // holds a database of trade requests
-    // each has a type either "request" or "response"
-    // each has a requesterID and a recipientID
-    // each has an offerCardID and a responseCardID (null if type is "request")
+public class TradeRequestDatabase implements JSONSerializable, PersistenceScheduler.Persistent {
+    // holds a database of trades by trade ID, a pair of users may have any number open
+    // each is a request until the recipient picks a card, then a response until the requester confirms
+    HashMap<Long, TradeRecord> tradeRequests = new HashMap<>();
+    private final HashMap<String, Set<Long>> inbound = new HashMap<>(); // recipientID -> IDs of trades to them
+    private final HashMap<String, Set<Long>> outbound = new HashMap<>(); // requesterID -> IDs of trades they sent
+    private final AtomicLong nextID = new AtomicLong(1); // IDs are never reused, the file keeps the next one
+    // how long a trade waits for its recipient, then for its requester, 0 for forever. Guarded by this
+    private long requestTimeToLive;
+    private long responseTimeToLive;
 
-    private File file;
+    private Storage.Store store;
+    private ChangeLog log; // null when the store rewrites the snapshot on every flush
+    private PersistenceScheduler persistence;
+    private int snapshotEvery;
+    private long snapshotSeq; // last log record the snapshot holds
+    // settled trades are logged by the card database, see TradeSettlement
+    private UserCardsDatabase settlementLog;
+    private long settledSeq; // log record of the last settlement removed here, guarded by this
+    private volatile long durableSettledSeq; // the same, as of the last write of the file
 
     public TradeRequestDatabase(File file) {
-        this.file = file;
-        if (!file.exists() || file.length() == 0) {
+        this(new JsonFileStorage.FileStore(file, false), PersistenceScheduler.sync(),
+                UserCardsDatabase.DEFAULT_SNAPSHOT_EVERY);
+    }
+
+    /**
+     * @param store         where the trades are kept
+     * @param persistence   decides when changes are written to the store
+     * @param snapshotEvery log records after which the snapshot is rewritten,
+     *                      when the store logs changes
+     * @throws UncheckedIOException if the log is damaged or cannot be opened
+     */
+    public TradeRequestDatabase(Storage.Store store, PersistenceScheduler persistence, int snapshotEvery) {
+        this.store = store;
+        this.persistence = persistence;
+        this.snapshotEvery = snapshotEvery;
+        try {
+            JSONType snapshot = store.read();
+            if (snapshot != null) {
+                deserialize(snapshot);
+            }
+        } catch (Exception e) {
+            System.err.println("Error reading users file: " + e.getMessage());
+        }
+
+        if (store.logsChanges()) {
+            log = store.log();
             try {
-                file.getParentFile().mkdir(); // Ensure directory exists
-                if (!file.createNewFile()) {
-                    System.err.println("Could not create users.json file");
-                    throw new RuntimeException();
+                int replayed = log.open(snapshotSeq, this::apply);
+                if (replayed > 0) {
+                    System.out.println("Replayed " + replayed + " changes to " + store);
                 }
-            } catch (Exception e) {
-                System.err.println("Error creating users file: " + e.getMessage());
+            } catch (IOException e) {
+                // starting without the changes in the log would lose them
+                throw new UncheckedIOException("Error opening trades log", e);
             }
         }
+        durableSettledSeq = settledSeq;
+    }
 
+    /**
+     * Sets how long trades wait for the other side before they expire, 0
+     * for forever. Trades kept from before there was a limit get the full
+     * time from now, trades that already have a deadline keep it.
+     *
+     * @param requestMillis  how long a request waits for the recipient to answer
+     * @param responseMillis how long an accepted trade waits for the requester to confirm
+     * @throws UncheckedIOException if the log could not be written, trades
+     *                              from the failed one on keep no deadline
+     */
+    public void setTimeToLive(long requestMillis, long responseMillis) {
+        boolean changed = false;
         try {
-            // Read and deserialize JSON data
-            deserialize(JsonIO.readArray(this.file));
-        } catch (Exception e) {
-            System.err.println("Error reading users file: " + e.getMessage());
+            synchronized (this) {
+                requestTimeToLive = requestMillis;
+                responseTimeToLive = responseMillis;
+                for (TradeRecord trade : new ArrayList<>(tradeRequests.values())) {
+                    long expiresAt = expiresAt(trade.type());
+                    if (trade.expiresAt() == 0 && expiresAt != 0) {
+                        TradeRecord expiring = trade.expiringAt(expiresAt);
+                        tradeRequests.put(trade.tradeID(), expiring);
+                        try {
+                            logPut(expiring);
+                        } catch (IOException e) {
+                            tradeRequests.put(trade.tradeID(), trade);
+                            throw new UncheckedIOException("Error writing trades log", e);
+                        }
+                        changed = true;
+                    }
+                }
+            }
+        } finally {
+            if (changed) {
+                persistence.changed(this);
+            }
         }
     }
 
+    /**
+     * @return when a trade that just reached the given type expires, 0 for never
+     */
+    private long expiresAt(TradeRecord.Type type) {
+        long timeToLive = type == TradeRecord.Type.REQUEST ? requestTimeToLive : responseTimeToLive;
+        return timeToLive == 0 ? 0 : System.currentTimeMillis() + timeToLive;
+    }
+
+    /**
+     * Names the database whose log holds settled trades. Its log is synced
+     * before this file is written, so the file never shows a trade gone
+     * whose card swap could still be lost.
+     */
+    void setSettlementLog(UserCardsDatabase settlementLog) {
+        this.settlementLog = settlementLog;
+    }
+
+    /**
+     * Removes a trade settled by the log record with the given sequence
+     * number. The trade stays removed if its removal cannot be logged: the
+     * card log already holds the settlement, and keeping settledSeq behind it
+     * keeps that record until a later write of this database drops the trade.
+     */
+    synchronized void removeSettled(long tradeID, long seq) {
+        remove(tradeID);
+        long previous = settledSeq;
+        settledSeq = Math.max(settledSeq, seq);
+        try {
+            logRemove(List.of(tradeID));
+        } catch (IOException e) {
+            settledSeq = previous;
+            System.err.println("Error writing trades log, trade " + tradeID + " is dropped on restart: "
+                    + e.getMessage());
+        }
+        persistence.changed(this);
+    }
+
+    /**
+     * @return log record of the last settlement this database holds
+     */
+    synchronized long getSettledSeq() {
+        return settledSeq;
+    }
+
+    /**
+     * @return log record of the last settlement the file on disk holds, log
+     *         records up to it are no longer needed
+     */
+    long getDurableSettledSeq() {
+        return durableSettledSeq;
+    }
+
     /**
      * Add a trade request to the database
-     * 
+     *
      * @param requesterID
      * @param recipientID
      * @param offerCardID
-     * @param responseCardID (null if type is "request")
-     * @throws InvalidObjectException
-     *
+     * @return the new trade with its ID
+     * @throws UncheckedIOException if the log could not be written, the trade
+     *                              is not added
      */
-    public void addTradeRequest(String requesterID, String recipientID, String offerCardID, String responseCardID)
-            throws InvalidObjectException {
-        System.out.println("Adding trade request: " + requesterID + " -> " + recipientID);
-        if (tradeRequests == null) {
-            tradeRequests = new HashMap<>();
-        }
-        String key = requesterID + recipientID;
-        if (tradeRequests.containsKey(key)) {
-            throw new InvalidObjectException("Trade request already exists in the database");
-            // replace with a modal pop up jelly belly :3
+    public TradeRecord addTradeRequest(String requesterID, String recipientID, String offerCardID) {
+        TradeRecord trade;
+        synchronized (this) {
+            trade = TradeRecord.request(nextID.getAndIncrement(), requesterID, recipientID, offerCardID,
+                    expiresAt(TradeRecord.Type.REQUEST));
+            add(trade);
+            try {
+                logPut(trade);
+            } catch (IOException e) {
+                remove(trade.tradeID());
+                throw new UncheckedIOException("Error writing trades log", e);
+            }
         }
-        JSONArray tradeInfo = new JSONArray();
-        tradeInfo.add("request"); // type
-        tradeInfo.add(requesterID); // requesterID
-        tradeInfo.add(recipientID); // recipientID
-        tradeInfo.add(offerCardID); // offerCardID
-        tradeInfo.add(responseCardID); // responseCardID (null if type is "request")
-        tradeRequests.put(key, tradeInfo);
+        System.out.println("Adding trade request " + trade.tradeID() + ": " + requesterID + " -> " + recipientID);
+        persistence.changed(this);
+        return trade;
+    }
 
-        save();
+    /**
+     * @return every trade, in no particular order
+     */
+    public synchronized List<TradeRecord> getAllTrades() {
+        return new ArrayList<>(tradeRequests.values());
     }
 
     /**
      * Get trade requests where user is the recipient
      */
-    public JSONArray getTradeRequests(String username) {
-        if (tradeRequests == null) {
-            tradeRequests = new HashMap<>();
-        }
-        JSONArray requests = new JSONArray();
-        for (String key : tradeRequests.keySet()) {
-            if (key.contains(username)) { // ahhh i love the contains function :3
-                JSONArray tradeInfo = tradeRequests.get(key);
-                if ("request".equals(tradeInfo.get(0)) && username.equals(tradeInfo.get(2))) { // Ensure the trade is
-                                                                                               // set to "request" and
-                                                                                               // user is recipient
-                    requests.add(tradeInfo);
-                }
+    public synchronized List<TradeRecord> getTradeRequests(String username) {
+        return trades(inbound, username, TradeRecord.Type.REQUEST);
+    }
+
+    /**
+     * Get trade responses, the accepted trades the user sent
+     */
+    public synchronized List<TradeRecord> getTradeResponses(String username) {
+        return trades(outbound, username, TradeRecord.Type.RESPONSE);
+    }
+
+    /**
+     * The trades of a user from one index that have the given type, only the
+     * user's own trades are looked at
+     */
+    private List<TradeRecord> trades(HashMap<String, Set<Long>> index, String username, TradeRecord.Type type) {
+        List<TradeRecord> trades = new ArrayList<>();
+        for (Long tradeID : index.getOrDefault(username, Set.of())) {
+            TradeRecord trade = tradeRequests.get(tradeID);
+            if (trade.type() == type) {
+                trades.add(trade);
             }
         }
-        return requests;
+        return trades;
     }
 
     /**
-     * Get trade responses
+     * Adds a trade to the map and to the requester's and recipient's indexes
      */
-    public JSONArray getTradeResponses(String username) {
-        if (tradeRequests == null) {
-            tradeRequests = new HashMap<>();
+    private void add(TradeRecord trade) {
+        tradeRequests.put(trade.tradeID(), trade);
+        outbound.computeIfAbsent(trade.requesterID(), user -> new HashSet<>()).add(trade.tradeID());
+        inbound.computeIfAbsent(trade.recipientID(), user -> new HashSet<>()).add(trade.tradeID());
+    }
+
+    /**
+     * Removes a trade from the map and both indexes
+     *
+     * @return the trade, null if there was none with the ID
+     */
+    private TradeRecord remove(long tradeID) {
+        TradeRecord trade = tradeRequests.remove(tradeID);
+        if (trade != null) {
+            unindex(outbound, trade.requesterID(), tradeID);
+            unindex(inbound, trade.recipientID(), tradeID);
         }
-        JSONArray responses = new JSONArray();
-        for (String key : tradeRequests.keySet()) {
-            if (key.contains(username)) { // ahhh i love the contains function :3
-                JSONArray tradeInfo = tradeRequests.get(key);
-                if ("response".equals(tradeInfo.get(0)) && username.equals(tradeInfo.get(1))) { // Ensure the trade is
-                                                                                                // set to "response" and
-                                                                                                // user is requester
-                    responses.add(tradeInfo);
-                }
-            }
+        return trade;
+    }
+
+    private static void unindex(HashMap<String, Set<Long>> index, String username, long tradeID) {
+        Set<Long> tradeIDs = index.get(username);
+        if (tradeIDs != null && tradeIDs.remove(tradeID) && tradeIDs.isEmpty()) {
+            index.remove(username);
         }
-        return responses;
     }
 
     /**
-     * Get trade request by key
+     * Get trade request by ID
      */
-    public JSONArray getTradeRequest(String tradeKey) throws InvalidObjectException {
-        if (tradeRequests == null) {
-            tradeRequests = new HashMap<>();
-        }
-        String key = tradeKey;
-        if (!tradeRequests.containsKey(key)) {
+    public synchronized TradeRecord getTradeRequest(long tradeID) throws InvalidObjectException {
+        TradeRecord trade = tradeRequests.get(tradeID);
+        if (trade == null) {
             throw new InvalidObjectException("Trade request does not exist in the database");
         }
-        return tradeRequests.get(key);
+        return trade;
     }
 
     /**
      * Remove a trade request from the database
-     * 
-     * @param username
+     *
+     * @param tradeID
+     * @return the trade removed
      * @throws InvalidObjectException
+     * @throws UncheckedIOException   if the log could not be written, the
+     *                                trade is kept
      */
-    public void removeTradeRequest(String tradeKey) throws InvalidObjectException {
-        if (tradeRequests == null) {
-            tradeRequests = new HashMap<>();
-        }
-        String key = tradeKey;
-        System.out.println("Removing trade request: " + key);
-        if (!tradeRequests.containsKey(key)) {
+    public synchronized TradeRecord removeTradeRequest(long tradeID) throws InvalidObjectException {
+        System.out.println("Removing trade request: " + tradeID);
+        TradeRecord trade = remove(tradeID);
+        if (trade == null) {
             throw new InvalidObjectException("Trade request does not exist in the database");
         }
-        tradeRequests.remove(key);
+        try {
+            logRemove(List.of(tradeID));
+        } catch (IOException e) {
+            add(trade);
+            throw new UncheckedIOException("Error writing trades log", e);
+        }
 
-        save();
+        persistence.changed(this);
+        return trade;
     }
 
     /**
      * Update trade request with response
+     *
+     * @return the trade as it is now
+     * @throws InvalidObjectException if there is no such trade or it was
+     *                                already answered
+     * @throws UncheckedIOException   if the log could not be written, the
+     *                                trade is left unanswered
      */
-    public void updateTradeRequest(String tradeKey, String responseCardID)
+    public synchronized TradeRecord updateTradeRequest(long tradeID, String responseCardID)
             throws InvalidObjectException {
-        if (tradeRequests == null) {
-            tradeRequests = new HashMap<>();
+        TradeRecord trade = getTradeRequest(tradeID);
+        if (!trade.isRequest()) {
+            throw new InvalidObjectException("Trade request was already answered");
         }
-        String key = tradeKey;
-        if (!tradeRequests.containsKey(key)) {
-            throw new InvalidObjectException("Trade request does not exist in the database");
+        TradeRecord accepted = trade.accepted(responseCardID, expiresAt(TradeRecord.Type.RESPONSE));
+        tradeRequests.put(tradeID, accepted); // same users, the indexes stay as they are
+        try {
+            logPut(accepted);
+        } catch (IOException e) {
+            tradeRequests.put(tradeID, trade);
+            throw new UncheckedIOException("Error writing trades log", e);
         }
-        JSONArray tradeInfo = tradeRequests.get(key);
-        tradeInfo.set(0, "response"); // type
-        tradeInfo.set(4, responseCardID); // responseCardID
 
-        save();
+        persistence.changed(this);
+        return accepted;
+    }
+
+    /**
+     * Removes the trades among the given ones whose deadline has passed, all
+     * in one change so they are written together. Trades that are gone or
+     * got a later deadline meanwhile are left alone.
+     *
+     * @param tradeIDs trades that may have expired
+     * @param now      current time in milliseconds
+     * @return the trades removed
+     * @throws UncheckedIOException if the log could not be written, none of
+     *                              the trades are removed
+     */
+    public List<TradeRecord> expire(Collection<Long> tradeIDs, long now) {
+        List<TradeRecord> expired = new ArrayList<>();
+        synchronized (this) {
+            List<Long> removed = new ArrayList<>();
+            for (long tradeID : tradeIDs) {
+                TradeRecord trade = tradeRequests.get(tradeID);
+                if (trade != null && trade.isExpired(now)) {
+                    expired.add(remove(tradeID));
+                    removed.add(tradeID);
+                }
+            }
+            if (!removed.isEmpty()) {
+                try {
+                    logRemove(removed);
+                } catch (IOException e) {
+                    for (TradeRecord trade : expired) {
+                        add(trade);
+                    }
+                    throw new UncheckedIOException("Error writing trades log", e);
+                }
+            }
+        }
+        if (!expired.isEmpty()) {
+            System.out.println("Expired " + expired.size() + " trades");
+            persistence.changed(this);
+        }
+        return expired;
     }
 
     @Override
-    public void deserialize(JSONType arg0) throws InvalidObjectException {
-        if (!(arg0 instanceof JSONArray)) {
-            throw new InvalidObjectException("Expected a JSONArray for deserialization");
+    public synchronized void deserialize(JSONType arg0) throws InvalidObjectException {
+        JSONArray jsonArray;
+        if (arg0 instanceof JSONObject) {
+            // the trades plus the last settlement they include
+            JSONObject file = (JSONObject) arg0;
+            file.checkValidity(new String[] { "settledSeq", "trades" });
+            jsonArray = file.getArray("trades");
+            settledSeq = ((Number) file.get("settledSeq")).longValue();
+            if (file.containsKey("nextID")) {
+                nextID.set(((Number) file.get("nextID")).longValue());
+            }
+            if (file.containsKey("seq")) {
+                snapshotSeq = ((Number) file.get("seq")).longValue();
+            }
+        } else if (arg0 instanceof JSONArray) {
+            jsonArray = (JSONArray) arg0;
+        } else {
+            throw new InvalidObjectException("Expected a JSONArray or JSONObject for deserialization");
         }
 
-        JSONArray jsonArray = (JSONArray) arg0;
         tradeRequests = new HashMap<>();
-
+        inbound.clear();
+        outbound.clear();
+        List<JSONArray> legacy = new ArrayList<>();
         for (int i = 0; i < jsonArray.size(); i++) {
-            JSONArray tradeRequest = (JSONArray) jsonArray.get(i);
+            Object entry = jsonArray.get(i);
+            if (entry instanceof JSONObject) {
+                TradeRecord trade = TradeRecord.fromJSON((JSONObject) entry);
+                add(trade);
+                nextID.accumulateAndGet(trade.tradeID() + 1, Math::max);
+            } else {
+                legacy.add((JSONArray) entry);
+            }
+        }
+
+        // older files key trades by requester + recipient, they get IDs now
+        for (JSONArray tradeRequest : legacy) {
             if (tradeRequest.size() != 6) {
                 throw new InvalidObjectException("Invalid trade request format");
             }
-
-            String key = (String) tradeRequest.get(0); // key
-            JSONArray tradeInfo = new JSONArray();
-            tradeInfo.add(tradeRequest.get(1)); // type
-            tradeInfo.add(tradeRequest.get(2)); // requesterID
-            tradeInfo.add(tradeRequest.get(3)); // recipientID
-            tradeInfo.add(tradeRequest.get(4)); // offerCardID
-            tradeInfo.add(tradeRequest.get(5)); // responseCardID
-
-            tradeRequests.put(key, tradeInfo);
+            TradeRecord trade = TradeRecord.request(nextID.getAndIncrement(), tradeRequest.getString(2),
+                    tradeRequest.getString(3), tradeRequest.getString(4), 0);
+            if (TradeRecord.Type.parse(tradeRequest.getString(1)) == TradeRecord.Type.RESPONSE) {
+                trade = trade.accepted(tradeRequest.getString(5), 0);
+            }
+            add(trade);
         }
     }
 
     @Override
-    public JSONType toJSONType() {
+    public synchronized JSONType toJSONType() {
         JSONArray jsonArray = new JSONArray();
-        if (tradeRequests == null || tradeRequests.isEmpty()) {
-            return jsonArray;
+        for (TradeRecord trade : tradeRequests.values()) {
+            jsonArray.add(trade.toJSONType());
+        }
+        JSONObject trades = new JSONObject();
+        trades.put("settledSeq", settledSeq);
+        trades.put("nextID", nextID.get());
+        trades.put("trades", jsonArray);
+        if (log != null) {
+            trades.put("seq", log.getLastSeq());
+        }
+        return trades;
+    }
+
+    /**
+     * Rewrites the file with the trades. Called by one thread at a time,
+     * only serializing them holds the lock, not the write. A settlement is
+     * logged before its trade is removed, so syncing the log after taking the
+     * contents covers every settlement they show.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (log != null) {
+            flushLog();
+            return;
+        }
+        JSONType contents = toJSONType();
+        if (settlementLog != null) {
+            settlementLog.syncLog();
         }
+        store.write(contents);
+        durableSettledSeq = ((Number) ((JSONObject) contents).get("settledSeq")).longValue();
+    }
 
-        for (String key : tradeRequests.keySet()) {
-            JSONArray tradeInfo = tradeRequests.get(key);
-            JSONArray tradeRequest = new JSONArray();
-            tradeRequest.add(key); // key
-            tradeRequest.add(tradeInfo.get(0)); // type
-            tradeRequest.add(tradeInfo.get(1)); // requesterID
-            tradeRequest.add(tradeInfo.get(2)); // recipientID
-            tradeRequest.add(tradeInfo.get(3)); // offerCardID
-            tradeRequest.add(tradeInfo.get(4)); // responseCardID
-            jsonArray.add(tradeRequest);
+    /**
+     * Syncs the log when the store logs changes, and rewrites the snapshot
+     * once the log is long enough. The card log is synced first under the
+     * lock, so no settlement can be logged here between the two syncs and
+     * reach disk ahead of its card swap.
+     */
+    private void flushLog() throws IOException {
+        int records;
+        synchronized (this) {
+            if (settlementLog != null) {
+                settlementLog.syncLog();
+            }
+            log.sync();
+            durableSettledSeq = settledSeq;
+            records = log.getRecordCount();
+        }
+        if (records >= snapshotEvery) {
+            snapshot();
         }
-        return jsonArray;
     }
 
+    /**
+     * Writes the snapshot and empties the log, holding off changes meanwhile
+     */
+    private synchronized void snapshot() throws IOException {
+        if (settlementLog != null) {
+            settlementLog.syncLog();
+        }
+        store.write(toJSONType());
+        snapshotSeq = log.getLastSeq();
+        log.reset();
+        durableSettledSeq = settledSeq;
+    }
+
+    /**
+     * Writes the trades to the file, and empties the log if there is one
+     */
     public void save() {
         try {
-            JsonIO.writeFormattedObject(this, file);
+            if (log == null) {
+                flush();
+            } else {
+                snapshot();
+            }
         } catch (Exception e) {
             System.err.println("Error writing users file: " + e.getMessage());
         }
     }
 
+    /**
+     * Logs a trade added or changed in memory, called under the lock
+     *
+     * @throws IOException if the record could not be written, the caller
+     *                     undoes the change
+     */
+    private void logPut(TradeRecord trade) throws IOException {
+        if (log == null) {
+            return;
+        }
+        JSONObject record = new JSONObject();
+        record.put("op", "put");
+        record.put("trade", trade.toJSONType());
+        log.append(record);
+    }
+
+    /**
+     * Logs trades removed in memory along with the last settlement held,
+     * called under the lock
+     *
+     * @throws IOException if the record could not be written, the caller
+     *                     undoes the change
+     */
+    private void logRemove(List<Long> tradeIDs) throws IOException {
+        if (log == null) {
+            return;
+        }
+        JSONArray removed = new JSONArray();
+        removed.addAll(tradeIDs);
+        JSONObject record = new JSONObject();
+        record.put("op", "remove");
+        record.put("trades", removed);
+        record.put("settledSeq", settledSeq);
+        log.append(record);
+    }
+
+
+    /**
+     * Replays a logged change on startup
+     */
+    private void apply(JSONObject record) throws InvalidObjectException {
+        switch (record.getString("op")) {
+            case "put":
+                TradeRecord trade = TradeRecord.fromJSON(record.getObject("trade"));
+                add(trade);
+                nextID.accumulateAndGet(trade.tradeID() + 1, Math::max);
+                break;
+            case "remove":
+                for (Object tradeID : record.getArray("trades")) {
+                    remove(((Number) tradeID).longValue());
+                }
+                settledSeq = Math.max(settledSeq, ((Number) record.get("settledSeq")).longValue());
+                break;
+            default:
+                throw new InvalidObjectException("Unknown trades log record: " + record.getString("op"));
+        }
+    }
+
 }
@@ -0,0 +1,73 @@
+package server;
+
+import java.io.InvalidObjectException;
+import java.util.Map;
+
+import shared.TradeRecord;
+
+/**
+ * Settles confirmed trades across the card and trade databases. The swap of
+ * both cards and the removal of the trade are one Transaction, logged as a
+ * single record in the card log, which is what makes the trade durable. The
+ * trade file is written later and remembers the last settlement it holds, so
+ * on startup the log tells which trades it still shows were already settled.
+ */
+public class TradeSettlement {
+    private final CardCatalog catalog;
+    private final UserCardsDatabase userCardsDatabase;
+    private final TradeRequestDatabase tradeRequestDatabase;
+
+    /**
+     * Ties the two databases together and drops trades the card log settled
+     * after the trade file was last written
+     */
+    public TradeSettlement(CardCatalog catalog, UserCardsDatabase userCardsDatabase,
+            TradeRequestDatabase tradeRequestDatabase) {
+        this.catalog = catalog;
+        this.userCardsDatabase = userCardsDatabase;
+        this.tradeRequestDatabase = tradeRequestDatabase;
+        tradeRequestDatabase.setSettlementLog(userCardsDatabase);
+        userCardsDatabase.setSettlementsSaved(tradeRequestDatabase::getDurableSettledSeq);
+        recover();
+    }
+
+    private void recover() {
+        long settledSeq = tradeRequestDatabase.getSettledSeq();
+        for (Map.Entry<Long, Long> settlement : userCardsDatabase.getReplayedSettlements().entrySet()) {
+            if (settlement.getKey() > settledSeq) {
+                System.out.println("Dropping trade " + settlement.getValue() + " settled before the last shutdown");
+                tradeRequestDatabase.removeSettled(settlement.getValue(), settlement.getKey());
+            }
+        }
+    }
+
+    /**
+     * Swaps the cards of an accepted trade and removes it, all or nothing.
+     * The trade database stays locked throughout so the trade cannot change
+     * or be settled twice meanwhile.
+     *
+     * @return the trade as it was before it was settled
+     * @throws InvalidObjectException if the trade does not exist, has not
+     *                                been accepted, or a user no longer has
+     *                                their card
+     */
+    public TradeRecord settle(long tradeID) throws InvalidObjectException {
+        synchronized (tradeRequestDatabase) {
+            TradeRecord trade = tradeRequestDatabase.getTradeRequest(tradeID);
+            if (!trade.isResponse()) {
+                throw new InvalidObjectException("Trade has not been accepted yet");
+            }
+            int offerCard = catalog.indexOf(trade.offerCardID());
+            int responseCard = catalog.indexOf(trade.responseCardID());
+
+            long seq = userCardsDatabase.commit(new UserCardsDatabase.Transaction()
+                    .remove(trade.requesterID(), offerCard)
+                    .remove(trade.recipientID(), responseCard)
+                    .add(trade.requesterID(), responseCard)
+                    .add(trade.recipientID(), offerCard)
+                    .settles(tradeID));
+            tradeRequestDatabase.removeSettled(tradeID, seq);
+            return trade;
+        }
+    }
+}
@@ -1,42 +1,153 @@
 package server;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InvalidObjectException;
-import java.util.HashMap;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
 
 import merrimackutil.json.JSONSerializable;
-import merrimackutil.json.JsonIO;
 import merrimackutil.json.types.JSONArray;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
-import shared.Card;
 
-public class UserCardsDatabase implements JSONSerializable {
-    private HashMap<String, JSONArray> cards; // username -> cardID
-    private File file;
+/**
+ * Cards owned by each user. Changes are appended to the store's change log
+ * instead of rewriting the whole snapshot, the snapshot is rewritten every so
+ * many changes whatever the storage backend. On startup the log is replayed
+ * over the snapshot. A flush syncs the log, so the PersistenceScheduler decides how
+ * many changes share one sync.
+ *
+ * A collection is an array of how many copies of each card the user owns,
+ * indexed by the card's index in the CardCatalog. The file and the log keep
+ * card IDs, so they do not depend on the order of cards.json.
+ *
+ * Changes to several users that must happen together, like the two sides of
+ * a trade, are committed as a Transaction and logged as one record.
+ *
+ * Each change locks only its user's stripe, so users opening packs at once do
+ * not wait on each other beyond appending to the log. A Transaction locks the
+ * stripes of all its users in a fixed order. Changes share a read lock that a
+ * snapshot takes exclusively, so a snapshot never holds half a change.
+ */
+public class UserCardsDatabase implements JSONSerializable, PersistenceScheduler.Persistent {
+    // log records between snapshots by default
+    public static final int DEFAULT_SNAPSHOT_EVERY = 1000;
+    private static final int LOCK_STRIPES = 64;
 
-    public UserCardsDatabase(File file) {
-        this.file = file;
-        if (!file.exists() || file.length() == 0) {
-            try {
-                file.getParentFile().mkdir(); // Ensure directory exists
-                if (!file.createNewFile()) {
-                    System.err.println("Could not create users.json file");
-                    throw new RuntimeException();
-                }
-            } catch (Exception e) {
-                System.err.println("Error creating users file: " + e.getMessage());
-            }
-            cards = new HashMap<>();
-            return;
+    // username -> copies owned by card index, an array is only touched under its user's stripe
+    private final ConcurrentHashMap<String, int[]> cards = new ConcurrentHashMap<>();
+    private final StripedLocks userLocks = new StripedLocks(LOCK_STRIPES);
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final Object logLock = new Object(); // the log takes one append at a time
+    private CardCatalog catalog;
+    private Storage.Store store;
+    private ChangeLog log;
+    private PersistenceScheduler persistence;
+    private int snapshotEvery;
+    private long snapshotSeq; // last log record the snapshot file holds
+    private volatile long lastSettlementSeq; // last log record that settled a trade
+    private LongSupplier settlementsSaved; // last settlement the trade file holds, null without trades
+    private final Map<Long, Long> replayedSettlements = new LinkedHashMap<>(); // log record -> trade ID
+
+    /**
+     * A change to one user's cards, made under the user's lock
+     */
+    @FunctionalInterface
+    private interface Change {
+        /**
+         * Makes the change in memory
+         *
+         * @return the log record of the change
+         */
+        JSONObject apply() throws InvalidObjectException;
+    }
+
+    /**
+     * Card moves between users that are applied and logged together, all or
+     * none of them
+     */
+    public static class Transaction {
+        private final List<String> users = new ArrayList<>();
+        private final List<Integer> cardIndices = new ArrayList<>();
+        private final List<Integer> copies = new ArrayList<>();
+        private long tradeID; // 0 unless the transaction settles a trade
+
+        /**
+         * Gives a user a copy of a card
+         */
+        public Transaction add(String username, int cardIndex) {
+            return move(username, cardIndex, 1);
+        }
+
+        /**
+         * Takes a copy of a card from a user, the commit fails if they do not have it
+         */
+        public Transaction remove(String username, int cardIndex) {
+            return move(username, cardIndex, -1);
+        }
+
+        /**
+         * Marks the transaction as settling a trade, recovery uses it to drop
+         * the trade if the trade file was not written before a crash
+         */
+        public Transaction settles(long tradeID) {
+            this.tradeID = tradeID;
+            return this;
         }
 
+        private Transaction move(String username, int cardIndex, int change) {
+            users.add(username);
+            cardIndices.add(cardIndex);
+            copies.add(change);
+            return this;
+        }
+    }
+
+    public UserCardsDatabase(File file) {
+        this(new JsonFileStorage.FileStore(file, true), CardCatalog.loadDefault(), PersistenceScheduler.sync(),
+                DEFAULT_SNAPSHOT_EVERY);
+    }
+
+    /**
+     * @param store         where the snapshot and the log are kept
+     * @param catalog       cards that can be owned, cards missing from it are dropped on load
+     * @param persistence   decides when changes are flushed
+     * @param snapshotEvery log records after which the snapshot is rewritten
+     * @throws UncheckedIOException if the log is damaged or cannot be opened
+     */
+    public UserCardsDatabase(Storage.Store store, CardCatalog catalog, PersistenceScheduler persistence,
+            int snapshotEvery) {
+        this.store = store;
+        this.catalog = catalog;
+        this.persistence = persistence;
+        this.snapshotEvery = snapshotEvery;
+        this.log = store.log();
         try {
-            // Read and deserialize JSON data
-            deserialize(JsonIO.readArray(this.file));
+            JSONType snapshot = store.read();
+            if (snapshot != null) {
+                deserialize(snapshot);
+            }
         } catch (Exception e) {
             System.err.println("Error reading users file: " + e.getMessage());
         }
+
+        try {
+            int replayed = log.open(snapshotSeq, this::apply);
+            if (replayed > 0) {
+                System.out.println("Replayed " + replayed + " changes to " + store);
+            }
+        } catch (IOException e) {
+            // starting without the changes in the log would lose them
+            throw new UncheckedIOException("Error opening users log", e);
+        }
     }
 
     /**
@@ -46,176 +157,495 @@ public class UserCardsDatabase implements JSONSerializable {
      * @throws InvalidObjectException
      */
     public void addUser(String username) throws InvalidObjectException {
-        if (cards == null) {
-            cards = new HashMap<>();
-        }
-        if (cards.containsKey(username)) {
-            throw new InvalidObjectException("User already exists in the database");
-        }
-        cards.put(username, new JSONArray());
-        save(); // Save the credentials to the file
+        change(username, () -> {
+            if (cards.putIfAbsent(username, new int[catalog.size()]) != null) {
+                throw new InvalidObjectException("User already exists in the database");
+            }
+            return record("addUser", username);
+        });
     }
 
     /**
      * Add cards to a user
      * 
      * @param username
+     * @param cardIndices catalog index of each card, one entry per copy
      * @throws InvalidObjectException
      */
-    public void addCards(String username, JSONArray cardIDs) throws InvalidObjectException {
-        if (cards == null) {
-            cards = new HashMap<>();
+    public void addCards(String username, int[] cardIndices) throws InvalidObjectException {
+        for (int index : cardIndices) {
+            checkIndex(index);
         }
-        if (!cards.containsKey(username)) {
-            throw new InvalidObjectException("User does not exist in the database");
-        }
-        cards.get(username).addAll(cardIDs); // i love this function
-        save(); // Save the credentials to the file
+        change(username, () -> {
+            int[] userCards = cards.get(username);
+            if (userCards == null) {
+                throw new InvalidObjectException("User does not exist in the database");
+            }
+            JSONArray logged = new JSONArray();
+            for (int index : cardIndices) {
+                userCards[index]++;
+                logged.add(catalog.get(index).cardID());
+            }
+            JSONObject record = record("addCards", username);
+            record.put("cards", logged);
+            return record;
+        });
     }
 
     /**
-     * Removes a user from the database
+     * Adds one copy of a card to a user, creating the user if needed
      * 
-     * @param username
-     * @throws InvalidObjectException
+     * @param cardIndex catalog index of the card
      */
-    public void removeUser(String username) throws InvalidObjectException {
-        if (cards == null) {
-            return;
-        }
-        if (!cards.containsKey(username)) {
-            throw new InvalidObjectException("User does not exist in the database");
-        }
-        cards.remove(username);
-        save(); // Save the credentials to the file
+    public void addCard(String username, int cardIndex) throws InvalidObjectException {
+        checkIndex(cardIndex);
+        change(username, () -> {
+            // Check if the user exists, if not, create an empty collection for them
+            cards.computeIfAbsent(username, user -> new int[catalog.size()])[cardIndex]++;
+            JSONObject record = record("addCard", username);
+            record.put("cardID", catalog.get(cardIndex).cardID());
+            return record;
+        });
     }
 
     /**
-     * Removes a card from a user
+     * Applies every move of a transaction, or none of them if any user is
+     * missing or would own less than zero copies of a card
+     * 
+     * @return sequence number of the transaction's log record
+     * @throws InvalidObjectException if the transaction cannot be applied
+     * @throws UncheckedIOException   if the log could not be written, the
+     *                                moves are undone
      */
-    public void removeCard(String username, String cardID) throws InvalidObjectException {
-        if (cards == null) {
-            return;
-        }
-        if (!cards.containsKey(username)) {
-            throw new InvalidObjectException("User does not exist in the database");
+    public long commit(Transaction transaction) throws InvalidObjectException {
+        for (int index : transaction.cardIndices) {
+            checkIndex(index);
         }
-        JSONArray userCards = cards.get(username);
-        System.out.println("User's current cards: " + userCards); // Debugging line
-        System.out.println("Card to remove: " + cardID); // Debugging line
 
-        boolean cardFound = false;
+        long seq;
+        snapshotLock.readLock().lock();
+        int[] stripes = userLocks.lockAll(transaction.users);
+        try {
+            for (String username : transaction.users) {
+                if (!cards.containsKey(username)) {
+                    throw new InvalidObjectException("User does not exist in the database");
+                }
+            }
 
-        // Iterate backwards to avoid issues with modifying the list during iteration
-        for (int i = userCards.size() - 1; i >= 0; i--) {
-            Object card = userCards.get(i);
-            if (card instanceof JSONObject) {
-                JSONObject cardObject = (JSONObject) card;
-                if (cardObject.getString("cardID").equals(cardID)) {
-                    userCards.remove(i); // Remove the card
-                    cardFound = true;
-                    break;
+            JSONArray logged = new JSONArray();
+            for (int i = 0; i < transaction.users.size(); i++) {
+                int[] userCards = cards.get(transaction.users.get(i));
+                int index = transaction.cardIndices.get(i);
+                if (userCards[index] + transaction.copies.get(i) < 0) {
+                    undo(transaction, i);
+                    throw new InvalidObjectException("Card " + catalog.get(index).cardID() + " does not exist for user "
+                            + transaction.users.get(i));
                 }
-            } else if (card instanceof String && card.equals(cardID)) {
-                userCards.remove(i); // Remove the card
-                cardFound = true;
-                break;
+                userCards[index] += transaction.copies.get(i);
+
+                JSONArray move = new JSONArray();
+                move.add(transaction.users.get(i));
+                move.add(catalog.get(index).cardID());
+                move.add(transaction.copies.get(i));
+                logged.add(move);
+            }
+
+            JSONObject record = new JSONObject();
+            record.put("op", "tx");
+            record.put("moves", logged);
+            if (transaction.tradeID != 0) {
+                record.put("trade", transaction.tradeID);
+            }
+            try {
+                seq = append(record, transaction.tradeID != 0);
+            } catch (IOException e) {
+                undo(transaction, transaction.users.size());
+                throw new UncheckedIOException("Error writing users log", e);
             }
+        } finally {
+            userLocks.unlockAll(stripes);
+            snapshotLock.readLock().unlock();
         }
+        persistence.changed(this);
+        return seq;
+    }
 
-        if (!cardFound) {
-            System.out.println("Card " + cardID + " does not exist for user " + username); // Debugging line
-            throw new InvalidObjectException("Card does not exist for user");
+    /**
+     * Reverts the first moves of a transaction, called with its locks held
+     *
+     * @param moves how many moves were made
+     */
+    private void undo(Transaction transaction, int moves) {
+        for (int i = moves - 1; i >= 0; i--) {
+            cards.get(transaction.users.get(i))[transaction.cardIndices.get(i)] -= transaction.copies.get(i);
         }
+    }
 
-        save(); // Save the credentials to the file
+    /**
+     * Keeps log records of settled trades until the trade file holds them,
+     * as recovery needs them to drop trades the file still has
+     *
+     * @param settlementsSaved last settlement the trade file on disk holds
+     */
+    void setSettlementsSaved(LongSupplier settlementsSaved) {
+        this.settlementsSaved = settlementsSaved;
+    }
+
+    /**
+     * @return IDs of trades settled by log records replayed on startup, by
+     *         sequence number
+     */
+    Map<Long, Long> getReplayedSettlements() {
+        return new LinkedHashMap<>(replayedSettlements);
+    }
+
+    /**
+     * Forces the log to disk without taking a snapshot
+     */
+    void syncLog() throws IOException {
+        log.sync();
     }
 
     /**
-     * Get the cards of a user
+     * Removes a user from the database
      * 
      * @param username
-     * @return JSONArray of cardIDs
      * @throws InvalidObjectException
      */
-    public JSONArray getUserCards(String username) throws InvalidObjectException {
-        if (cards == null) {
-            return new JSONArray();
-        }
-        if (!cards.containsKey(username)) {
-            throw new InvalidObjectException("User does not exist in the database");
+    public void removeUser(String username) throws InvalidObjectException {
+        change(username, () -> {
+            if (cards.remove(username) == null) {
+                throw new InvalidObjectException("User does not exist in the database");
+            }
+            return record("removeUser", username);
+        });
+    }
+
+    /**
+     * Removes a card from a user
+     * 
+     * @param cardIndex catalog index of the card
+     */
+    public void removeCard(String username, int cardIndex) throws InvalidObjectException {
+        checkIndex(cardIndex);
+        change(username, () -> {
+            int[] userCards = cards.get(username);
+            if (userCards == null) {
+                throw new InvalidObjectException("User does not exist in the database");
+            }
+            if (userCards[cardIndex] == 0) {
+                System.out.println("Card " + catalog.get(cardIndex).cardID() + " does not exist for user " + username); // Debugging line
+                throw new InvalidObjectException("Card does not exist for user");
+            }
+            userCards[cardIndex]--;
+
+            JSONObject record = record("removeCard", username);
+            record.put("cardID", catalog.get(cardIndex).cardID());
+            return record;
+        });
+    }
+
+    /**
+     * Get the cards of a user, CardCatalog.expand turns them into the array
+     * clients expect
+     * 
+     * @param username
+     * @return copy of the user's copies owned by card index, safe to use after
+     *         other threads change them
+     * @throws InvalidObjectException
+     */
+    public int[] getUserCards(String username) throws InvalidObjectException {
+        Lock lock = userLocks.get(username);
+        lock.lock();
+        try {
+            int[] userCards = cards.get(username);
+            if (userCards == null) {
+                throw new InvalidObjectException("User does not exist in the database");
+            }
+            return userCards.clone();
+        } finally {
+            lock.unlock();
         }
-        return cards.get(username);
     }
 
     @Override
     public void deserialize(JSONType jsonType) throws InvalidObjectException {
-        if (jsonType instanceof JSONArray) {
+        if (jsonType instanceof JSONObject) {
+            // snapshot: the users plus the last log record they include
+            JSONObject snapshot = (JSONObject) jsonType;
+            snapshot.checkValidity(new String[] { "seq", "users" });
+            deserialize(snapshot.getArray("users"));
+            snapshotSeq = ((Number) snapshot.get("seq")).longValue();
+        } else if (jsonType instanceof JSONArray) {
             JSONArray jsonArray = (JSONArray) jsonType;
-            cards = new HashMap<>();
+            cards.clear();
             for (int i = 0; i < jsonArray.size(); i++) {
                 JSONArray userArray = (JSONArray) jsonArray.get(i);
                 String username = userArray.getString(0);
-                JSONArray cardIDs = userArray.getArray(1);
-                cards.put(username, cardIDs);
+                int[] userCards = new int[catalog.size()];
+                Object owned = userArray.get(1);
+                if (owned instanceof JSONObject) {
+                    for (Map.Entry<String, Object> entry : ((JSONObject) owned).entrySet()) {
+                        add(userCards, entry.getKey(), ((Number) entry.getValue()).intValue());
+                    }
+                } else {
+                    // older files list every copy as a card object or a card ID
+                    for (Object card : (JSONArray) owned) {
+                        add(userCards, cardID(card), 1);
+                    }
+                }
+                cards.put(username, userCards);
             }
         } else {
             throw new InvalidObjectException("Invalid JSON type for UserCardsDatabase");
         }
     }
 
+    /**
+     * Holds off every change while it reads the users, so the snapshot
+     * matches its sequence number
+     */
     @Override
     public JSONType toJSONType() {
-        JSONArray jsonArray = new JSONArray();
-        for (String username : cards.keySet()) {
-            JSONArray userArray = new JSONArray();
-            userArray.add(username);
-            userArray.add(cards.get(username));
-            jsonArray.add(userArray);
+        snapshotLock.writeLock().lock();
+        try {
+            JSONArray jsonArray = new JSONArray();
+            for (Map.Entry<String, int[]> user : cards.entrySet()) {
+                JSONArray userArray = new JSONArray();
+                userArray.add(user.getKey());
+                int[] userCards = user.getValue();
+                JSONObject owned = new JSONObject();
+                for (int index = 0; index < userCards.length; index++) {
+                    if (userCards[index] > 0) {
+                        owned.put(catalog.get(index).cardID(), userCards[index]);
+                    }
+                }
+                userArray.add(owned);
+                jsonArray.add(userArray);
+            }
+            JSONObject snapshot = new JSONObject();
+            synchronized (logLock) {
+                snapshot.put("seq", log.getLastSeq());
+            }
+            snapshot.put("users", jsonArray);
+            return snapshot;
+        } finally {
+            snapshotLock.writeLock().unlock();
         }
-        return jsonArray;
     }
 
     /**
-     * Writes the database to the file
+     * Writes a snapshot of the database to the file and empties the log
      */
     public void save() {
         try {
-            JsonIO.writeFormattedObject(this, file);
+            if (settlementsSaved()) {
+                snapshot();
+            } else {
+                log.sync(); // the trade file is behind, keep the settlements it needs
+            }
         } catch (Exception e) {
             System.err.println("Error writing users file: " + e.getMessage());
         }
     }
 
-    public void addCard(String requesterID, String responseCardID, String name, int rarity, String imageLink) throws InvalidObjectException {
-        if (cards == null) {
-            cards = new HashMap<>();
+    /**
+     * Syncs the log, and rewrites the snapshot once the log has grown long
+     * enough. The sync takes no lock so changes can go on meanwhile.
+     */
+    @Override
+    public void flush() throws IOException {
+        log.sync();
+        int records;
+        synchronized (logLock) {
+            records = log.getRecordCount();
         }
+        if (records >= snapshotEvery && settlementsSaved()) {
+            snapshot();
+        }
+    }
 
-        // Check if the user exists, if not, create an empty list of cards for them
-        if (!cards.containsKey(requesterID)) {
-            cards.put(requesterID, new JSONArray());
+    /**
+     * The log is only emptied once the new snapshot is in place, a crash in
+     * between replays nothing twice as the snapshot has its sequence number.
+     * Changes wait until the log is emptied, or it would lose theirs.
+     */
+    private void snapshot() throws IOException {
+        snapshotLock.writeLock().lock();
+        try {
+            store.write(toJSONType());
+            synchronized (logLock) {
+                snapshotSeq = log.getLastSeq();
+                log.reset();
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
         }
+    }
 
-        JSONArray userCards = cards.get(requesterID);
+    /**
+     * @return true if the trade file holds every settlement in the log, so
+     *         a snapshot may drop them
+     */
+    private boolean settlementsSaved() {
+        return settlementsSaved == null || settlementsSaved.getAsLong() >= lastSettlementSeq;
+    }
 
-        // Create a new card JSONObject with the appropriate fields
-        JSONObject cardObject = new JSONObject();
-        cardObject.put("cardID", responseCardID);
-        cardObject.put("name", name);
-        cardObject.put("rarity", rarity);
-        cardObject.put("imageLink", imageLink); // Assuming no image link for now, can be updated later
+    /**
+     * Starts a log record for a change to a user's cards
+     */
+    private static JSONObject record(String op, String username) {
+        JSONObject record = new JSONObject();
+        record.put("op", op);
+        record.put("user", username);
+        return record;
+    }
 
-        // Add the card to the user's list
-        userCards.add(cardObject);
-        save(); // Save the credentials to the file
+    /**
+     * Makes a change to one user under the user's lock, logs it and tells the
+     * scheduler. The scheduler is told after the locks are released, as in
+     * sync mode it flushes right away and may take a snapshot.
+     *
+     * @throws UncheckedIOException if the log could not be written, the user's
+     *                              cards are put back as they were
+     */
+    private void change(String username, Change change) throws InvalidObjectException {
+        snapshotLock.readLock().lock();
+        Lock lock = userLocks.get(username);
+        lock.lock();
+        try {
+            int[] before = cards.get(username);
+            int[] saved = before == null ? null : before.clone(); // changes edit the array in place
+            JSONObject record = change.apply();
+            try {
+                append(record, false);
+            } catch (IOException e) {
+                if (saved == null) {
+                    cards.remove(username);
+                } else {
+                    cards.put(username, saved);
+                }
+                throw new UncheckedIOException("Error writing users log", e);
+            }
+        } finally {
+            lock.unlock();
+            snapshotLock.readLock().unlock();
+        }
+        persistence.changed(this);
+    }
+
+    /**
+     * Logs a change already made in memory. Called with the user locks held,
+     * so each user's records are logged in the order their changes were made.
+     *
+     * @param settlement whether the record settles a trade
+     * @return sequence number of the record
+     * @throws IOException if the record could not be written, the caller
+     *                     undoes the change
+     */
+    private long append(JSONObject record, boolean settlement) throws IOException {
+        synchronized (logLock) {
+            long seq = log.append(record);
+            if (settlement) {
+                lastSettlementSeq = seq;
+            }
+            return seq;
+        }
+    }
+
+    /**
+     * Replays a logged change on startup
+     */
+    private void apply(JSONObject record) throws InvalidObjectException {
+        String username = record.getString("user");
+        switch (record.getString("op")) {
+            case "addUser":
+                cards.putIfAbsent(username, new int[catalog.size()]);
+                break;
+            case "removeUser":
+                cards.remove(username);
+                break;
+            case "addCards":
+                int[] added = cards.computeIfAbsent(username, user -> new int[catalog.size()]);
+                for (Object card : record.getArray("cards")) {
+                    add(added, cardID(card), 1);
+                }
+                break;
+            case "addCard":
+                // logs from before counts hold the whole card
+                Object card = record.containsKey("cardID") ? record.get("cardID") : record.get("card");
+                add(cards.computeIfAbsent(username, user -> new int[catalog.size()]), cardID(card), 1);
+                break;
+            case "removeCard":
+                int[] userCards = cards.get(username);
+                int index = catalog.indexOf(record.getString("cardID"));
+                if (userCards == null || index < 0 || userCards[index] == 0) {
+                    System.err.println("Logged removal of a card " + username + " does not have: "
+                            + record.getString("cardID"));
+                } else {
+                    userCards[index]--;
+                }
+                break;
+            case "tx":
+                for (Object logged : record.getArray("moves")) {
+                    JSONArray move = (JSONArray) logged;
+                    String user = move.getString(0);
+                    int moved = ((Number) move.get(2)).intValue();
+                    if (moved > 0) {
+                        add(cards.computeIfAbsent(user, u -> new int[catalog.size()]), move.getString(1), moved);
+                    } else {
+                        int[] owned = cards.get(user);
+                        int moveCard = catalog.indexOf(move.getString(1));
+                        if (owned == null || moveCard < 0 || owned[moveCard] + moved < 0) {
+                            System.err.println("Logged removal of a card " + user + " does not have: "
+                                    + move.getString(1));
+                        } else {
+                            owned[moveCard] += moved;
+                        }
+                    }
+                }
+                if (record.get("trade") instanceof Number) {
+                    long seq = ((Number) record.get("seq")).longValue();
+                    replayedSettlements.put(seq, ((Number) record.get("trade")).longValue());
+                    lastSettlementSeq = seq;
+                }
+                break;
+            default:
+                throw new InvalidObjectException("Unknown users log record: " + record.getString("op"));
+        }
+    }
+
+    /**
+     * Adds copies of a card read from the file or the log to a collection. A
+     * card the catalog no longer has cannot be held and is dropped.
+     */
+    private void add(int[] userCards, String cardID, int copies) {
+        int index = catalog.indexOf(cardID);
+        if (index < 0) {
+            System.err.println("Dropping " + copies + " of unknown card " + cardID + " from " + store);
+            return;
+        }
+        userCards[index] += copies;
+    }
+
+    /**
+     * @throws InvalidObjectException if no card in the catalog has the index
+     */
+    private void checkIndex(int cardIndex) throws InvalidObjectException {
+        if (cardIndex < 0 || cardIndex >= catalog.size()) {
+            throw new InvalidObjectException("Unknown card index: " + cardIndex);
+        }
+    }
+
+    /**
+     * @return ID of a card stored either as its ID or as a whole card object
+     */
+    private static String cardID(Object card) {
+        return card instanceof JSONObject ? ((JSONObject) card).getString("cardID") : (String) card;
     }
 
     public JSONArray getAllUsers() {
         JSONArray users = new JSONArray();
-        if (cards == null) {
-            return users;
-        }
         for (String username : cards.keySet()) {
             users.add(username);
         }
@@ -1,68 +1,116 @@
 package server;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import merrimackutil.json.JSONSerializable;
-import merrimackutil.json.JsonIO;
 import merrimackutil.json.types.JSONArray;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 
 // creates a json database to store username and password pairs
-public class UserCredentials implements JSONSerializable {
-    private HashMap<String, String> credentials;
-    private File file;
+// safe to use from many threads, lookups are single concurrent map operations,
+// changes are made under changeLock so the log has them in the order they were made
+public class UserCredentials implements JSONSerializable, PersistenceScheduler.Persistent {
+    private final ConcurrentHashMap<String, String> credentials = new ConcurrentHashMap<>();
+    private final Object changeLock = new Object();
+    private Storage.Store store;
+    private ChangeLog log; // null when the store rewrites the snapshot on every flush
+    private PersistenceScheduler persistence;
+    private int snapshotEvery;
+    private long snapshotSeq; // last log record the snapshot holds
 
     public UserCredentials(File file) {
-        this.file = file;
-        if (!file.exists() || file.length() == 0) {
-            try {
-                file.getParentFile().mkdir(); // Ensure directory exists
-                if (!file.createNewFile()) {
-                    System.err.println("Could not create users.json file");
-                    throw new RuntimeException();
-                }
-            } catch (Exception e) {
-                System.err.println("Error creating users file: " + e.getMessage());
-            }
-            credentials = new HashMap<>();
-            return;
-        }
+        this(new JsonFileStorage.FileStore(file, false), PersistenceScheduler.sync(),
+                UserCardsDatabase.DEFAULT_SNAPSHOT_EVERY);
+    }
 
+    /**
+     * @param store         where the credentials are kept
+     * @param persistence   decides when changes are written to the store
+     * @param snapshotEvery log records after which the snapshot is rewritten,
+     *                      when the store logs changes
+     * @throws UncheckedIOException if the log is damaged or cannot be opened
+     */
+    public UserCredentials(Storage.Store store, PersistenceScheduler persistence, int snapshotEvery) {
+        this.store = store;
+        this.persistence = persistence;
+        this.snapshotEvery = snapshotEvery;
         try {
-            // Read and deserialize JSON data
-            deserialize(JsonIO.readArray(this.file));
+            JSONType snapshot = store.read();
+            if (snapshot != null) {
+                deserialize(snapshot);
+            }
         } catch (Exception e) {
             System.err.println("Error reading users file: " + e.getMessage());
         }
+
+        if (store.logsChanges()) {
+            log = store.log();
+            try {
+                int replayed = log.open(snapshotSeq, this::apply);
+                if (replayed > 0) {
+                    System.out.println("Replayed " + replayed + " changes to " + store);
+                }
+            } catch (IOException e) {
+                // starting without the changes in the log would lose them
+                throw new UncheckedIOException("Error opening users log", e);
+            }
+        }
     }
 
     /**
      * Adds a user to the database
      * @param username
      * @param password
+     * @return false if the user already exists, two registrations of one
+     *         name cannot both succeed
+     * @throws UncheckedIOException if the log could not be written, the user
+     *                              is not added
      */
-    public void addUser(String username, String password) {
-        if (credentials == null) {
-            credentials = new HashMap<>();
+    public boolean addUser(String username, String password) {
+        synchronized (changeLock) {
+            if (credentials.putIfAbsent(username, password) != null) {
+                return false;
+            }
+            JSONObject record = record("addUser", username);
+            record.put("password", password);
+            try {
+                append(record);
+            } catch (IOException e) {
+                credentials.remove(username);
+                throw new UncheckedIOException("Error writing users log", e);
+            }
         }
-        credentials.put(username, password);
-        save(); // Save the credentials to the file
+        persistence.changed(this);
+        return true;
     }
 
     /**
      * Removes a user from the database
-     * @Note - not thread safe so pray...
      * @param username
+     * @throws UncheckedIOException if the log could not be written, the user
+     *                              is kept
      */
     public void removeUser(String username) {
-        if (credentials == null) {
-            return;
+        synchronized (changeLock) {
+            String password = credentials.remove(username);
+            if (password == null) {
+                return;
+            }
+            try {
+                append(record("removeUser", username));
+            } catch (IOException e) {
+                credentials.put(username, password);
+                throw new UncheckedIOException("Error writing users log", e);
+            }
         }
-        credentials.remove(username);
-        save(); // Save the credentials to the file
+        persistence.changed(this);
     }
 
     /**
@@ -71,9 +119,6 @@ public class UserCredentials implements JSONSerializable {
      * @return
      */
     public boolean checkUser(String username) {
-        if (credentials == null) {
-            return false;
-        }
         return credentials.containsKey(username);
     }
 
@@ -81,22 +126,28 @@ public class UserCredentials implements JSONSerializable {
      * Checks if a password is correct for a given user
      * @param username
      * @param password
-     * @return
+     * @return false if the user does not exist
      */
     public boolean checkPassword(String username, String password) {
-        if (credentials == null) {
-            return false;
-        }
-        return credentials.get(username).equals(password);
+        String stored = credentials.get(username);
+        return stored != null && stored.equals(password);
     }
 
     @Override
     public void deserialize(JSONType jsonType) throws InvalidObjectException {
+        if (jsonType instanceof JSONObject) {
+            // snapshot of a logging store: the users plus the last log record they include
+            JSONObject snapshot = (JSONObject) jsonType;
+            snapshot.checkValidity(new String[] { "seq", "users" });
+            deserialize(snapshot.getArray("users"));
+            snapshotSeq = ((Number) snapshot.get("seq")).longValue();
+            return;
+        }
         if (!(jsonType instanceof JSONArray)) {
             throw new InvalidObjectException("Object received is not valid");
         }
         JSONArray obj = (JSONArray) jsonType;
-        credentials = new HashMap<>();
+        credentials.clear();
         for (int i = 0; i < obj.size(); i++) {
             JSONObject jObj = (JSONObject) obj.get(i);
             jObj.checkValidity(new String[] { "user", "password" });
@@ -108,14 +159,10 @@ public class UserCredentials implements JSONSerializable {
     public JSONType toJSONType() {
         // write the credentials hash map to a json array
         JSONArray jsonArray = new JSONArray();
-        if (credentials == null || credentials.isEmpty()) {
-            return jsonArray;
-        }
-
-        for (String user : credentials.keySet()) {
+        for (Map.Entry<String, String> user : credentials.entrySet()) {
             HashMap<String, String> userMap = new HashMap<>();
-            userMap.put("user", user);
-            userMap.put("password", credentials.get(user));
+            userMap.put("user", user.getKey());
+            userMap.put("password", user.getValue());
             jsonArray.add(new JSONObject(userMap));
         }
 
@@ -123,13 +170,91 @@ public class UserCredentials implements JSONSerializable {
     }
 
     /**
-     * Writes the credentials to the file
+     * Rewrites the file with the credentials, or syncs the log when the store
+     * logs changes and rewrites the snapshot once the log is long enough.
+     * Changes made while the file is written may or may not be in it, the
+     * scheduler flushes again for them. Writes take the lock one at a time,
+     * in sync durability every registering thread flushes itself.
      */
-    public void save() {
+    @Override
+    public synchronized void flush() throws IOException {
+        if (log == null) {
+            store.write(toJSONType());
+            return;
+        }
+        log.sync();
+        int records;
+        synchronized (changeLock) {
+            records = log.getRecordCount();
+        }
+        if (records >= snapshotEvery) {
+            snapshot();
+        }
+    }
+
+    /**
+     * Writes the credentials to the file, and empties the log if there is one
+     */
+    public synchronized void save() {
         try {
-            JsonIO.writeFormattedObject(this, file);
+            if (log == null) {
+                flush();
+            } else {
+                snapshot();
+            }
         } catch (Exception e) {
             System.err.println("Error writing users file: " + e.getMessage());
         }
     }
+
+    /**
+     * Writes the snapshot and empties the log. Changes wait meanwhile, or
+     * emptying the log would lose theirs.
+     */
+    private void snapshot() throws IOException {
+        synchronized (changeLock) {
+            JSONObject snapshot = new JSONObject();
+            snapshot.put("seq", log.getLastSeq());
+            snapshot.put("users", toJSONType());
+            store.write(snapshot);
+            snapshotSeq = log.getLastSeq();
+            log.reset();
+        }
+    }
+
+    /**
+     * Logs a change already made in memory, called under changeLock
+     *
+     * @throws IOException if the record could not be written, the caller
+     *                     undoes the change
+     */
+    private void append(JSONObject record) throws IOException {
+        if (log != null) {
+            log.append(record);
+        }
+    }
+
+    private static JSONObject record(String op, String username) {
+        JSONObject record = new JSONObject();
+        record.put("op", op);
+        record.put("user", username);
+        return record;
+    }
+
+    /**
+     * Replays a logged change on startup
+     */
+    private void apply(JSONObject record) throws InvalidObjectException {
+        String username = record.getString("user");
+        switch (record.getString("op")) {
+            case "addUser":
+                credentials.put(username, record.getString("password"));
+                break;
+            case "removeUser":
+                credentials.remove(username);
+                break;
+            default:
+                throw new InvalidObjectException("Unknown users log record: " + record.getString("op"));
+        }
+    }
 }
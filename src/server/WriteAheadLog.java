@@ -0,0 +1,174 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import merrimackutil.json.JsonIO;
+import merrimackutil.json.types.JSONObject;
+
+/**
+ * Change log in a file, one JSON object per line. Recovery replays only the
+ * records after the snapshot's sequence number.
+ *
+ * Appends are not forced to disk, sync does that for every record appended
+ * so far, which lets one sync cover a whole group of changes.
+ */
+public class WriteAheadLog implements ChangeLog {
+    private final File file;
+    private FileChannel channel;
+    private long lastSeq;
+    private int records; // records since the last reset
+    private boolean torn; // an append failed and could not be cut off again
+
+    /**
+     * @param file log file, created if missing
+     */
+    public WriteAheadLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Replays the records after a snapshot and opens the log for appending.
+     * A torn record at the end, left by a crash during an append, is cut off.
+     * A damaged record with more records after it is not a torn append, the
+     * log is refused rather than dropping the records behind it.
+     *
+     * @param snapshotSeq last sequence number the snapshot holds
+     * @param replayer    applies each record newer than the snapshot
+     * @return number of records replayed
+     * @throws IOException Throws if the log cannot be read or opened, or is
+     *                     damaged before its last record
+     */
+    @Override
+    public int open(long snapshotSeq, Replayer replayer) throws IOException {
+        lastSeq = snapshotSeq;
+        int replayed = 0;
+        long validLength = 0;
+        if (file.exists()) {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            int start = 0;
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] != '\n') {
+                    continue;
+                }
+                JSONObject record;
+                try {
+                    record = JsonIO.readObject(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                } catch (RuntimeException e) {
+                    if (i + 1 < bytes.length) {
+                        throw new IOException(file + " has a damaged record at byte " + start
+                                + " with more records after it: " + e.getMessage());
+                    }
+                    System.err.println("Cutting a torn record off the end of " + file + ": " + e.getMessage());
+                    break;
+                }
+                long seq = ((Number) record.get("seq")).longValue();
+                if (seq > lastSeq) {
+                    replayer.apply(record);
+                    lastSeq = seq;
+                    replayed++;
+                }
+                records++;
+                start = i + 1;
+                validLength = start;
+            }
+        }
+
+        channel = openChannel();
+        channel.truncate(validLength);
+        channel.position(validLength);
+        return replayed;
+    }
+
+    /**
+     * Opens the file for writing, tests override it to fail writes
+     */
+    FileChannel openChannel() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Appends a record, it is only on disk once sync is called. Sets the
+     * record's "seq" field. A write that fails part way is cut off again, so
+     * the next record does not land on the end of a torn one.
+     *
+     * @return sequence number of the record
+     * @throws IOException Throws if the record cannot be written, or an
+     *                     earlier torn record could not be cut off
+     */
+    @Override
+    public long append(JSONObject record) throws IOException {
+        if (torn) {
+            throw new IOException(file + " ends in a torn record, restart to cut it off");
+        }
+        record.put("seq", lastSeq + 1);
+        ByteBuffer line = ByteBuffer.wrap((record.toJSON() + "\n").getBytes(StandardCharsets.UTF_8));
+        long position = channel.position();
+        try {
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(position);
+                channel.position(position);
+            } catch (IOException truncateFailed) {
+                torn = true;
+                e.addSuppressed(truncateFailed);
+            }
+            throw e;
+        }
+        records++;
+        return ++lastSeq;
+    }
+
+    /**
+     * Empties the log once a snapshot holds everything in it
+     *
+     * @throws IOException Throws if the log cannot be truncated
+     */
+    @Override
+    public void reset() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(false);
+        records = 0;
+        torn = false;
+    }
+
+    /**
+     * Forces every record appended so far to disk
+     */
+    @Override
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * @return sequence number of the last record appended or replayed
+     */
+    @Override
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * @return records in the log, replay gets slower the more there are
+     */
+    @Override
+    public int getRecordCount() {
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package shared;
+
+import merrimackutil.json.JsonIO;
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+import shared.messages.Message;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * Compact binary form of the JSON messages, used instead of JSON text once a
+ * connection negotiates it with a Hello.
+ *
+ * The top level fields of registered message types are written in the order
+ * given to MessageRegistry without their names, numbers are zigzag varints
+ * and strings (card IDs, card names, keys of nested objects) are interned per
+ * connection, so after the first use a string costs one or two bytes. Fields
+ * the registry does not list are still carried, with their names, so the
+ * codec never loses data. The request ID every message may carry follows
+ * the type as a plain varint.
+ *
+ * One instance serves one connection. The outgoing and incoming string tables
+ * are separate, so encode and decode may run on different threads, but each
+ * of them must be called in wire order.
+ */
+public class BinaryCodec {
+    // value tags
+    private static final int NULL = 0;
+    private static final int ABSENT = 1; // schema field missing from the message
+    private static final int FALSE = 2;
+    private static final int TRUE = 3;
+    private static final int INT = 4;
+    private static final int DOUBLE = 5;
+    private static final int STRING_NEW = 6; // literal that joins the string table
+    private static final int STRING_REF = 7;
+    private static final int STRING = 8; // literal that is not interned
+    private static final int OBJECT = 9;
+    private static final int ARRAY = 10;
+
+    // keeps the tables bounded for long sessions and out of the way of big strings
+    private static final int MAX_INTERNED = 8192;
+    private static final int MAX_INTERNED_LENGTH = 128;
+    // deepest nesting of objects and arrays read, real messages stay far below it
+    private static final int MAX_DEPTH = 64;
+
+    // whole numbers come back as whatever type the JSON parser uses for them,
+    // so messages read the same values whichever codec carried them
+    private static final LongFunction<Object> WHOLE_NUMBER = wholeNumberType();
+
+    private final Map<String, Integer> outStrings = new HashMap<>();
+    // strings the message being encoded adds, they join outStrings once it is whole
+    private final Map<String, Integer> newOutStrings = new HashMap<>();
+    private final List<String> inStrings = new ArrayList<>();
+
+    private byte[] out = new byte[8192]; // reused for every outgoing message
+    private int outLength;
+
+    private byte[] in;
+    private int inPosition;
+    private int inLimit;
+
+    /**
+     * Encodes a message. The returned array is reused by the next call. The
+     * strings it interns only join the table once the whole message is
+     * encoded, so a message that fails half way leaves the table as the peer
+     * knows it.
+     *
+     * @param msg Message to encode
+     * @return buffer holding the message in its first {@link #length()} bytes
+     */
+    public byte[] encode(Message msg) {
+        outLength = 0;
+        newOutStrings.clear();
+        JSONObject obj = msg.toJSONType();
+        String type = msg.getType();
+        writeString(type);
+        writeVarint(msg.getRequestID() & 0xFFFFFFFFL);
+
+        String[] fields = MessageRegistry.fields(type);
+        for (String field : fields) {
+            if (obj.containsKey(field)) {
+                writeValue(obj.get(field));
+            } else {
+                writeTag(ABSENT);
+            }
+        }
+
+        // anything the schema does not know about, with names
+        List<String> fieldList = Arrays.asList(fields);
+        int extras = 0;
+        for (String key : obj.keySet()) {
+            if (!isHeader(key) && !fieldList.contains(key)) {
+                extras++;
+            }
+        }
+        writeVarint(extras);
+        for (Map.Entry<String, Object> entry : obj.entrySet()) {
+            if (!isHeader(entry.getKey()) && !fieldList.contains(entry.getKey())) {
+                writeString(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+        outStrings.putAll(newOutStrings);
+        newOutStrings.clear();
+        return out;
+    }
+
+    /**
+     * @return length of the message last returned by encode
+     */
+    public int length() {
+        return outLength;
+    }
+
+    /**
+     * Decodes one message back into the JSON object it was encoded from
+     *
+     * @param buffer bytes holding the message
+     * @param offset where the message starts
+     * @param length length of the message
+     * @return JSON object of the message
+     * @throws ProtocolException Throws if the bytes are not a valid message
+     */
+    public JSONObject decode(byte[] buffer, int offset, int length) throws ProtocolException {
+        in = buffer;
+        inPosition = offset;
+        inLimit = offset + length;
+        try {
+            JSONObject obj = new JSONObject();
+            String type = readString(readTag());
+            obj.put("type", type);
+            int requestID = (int) readVarint();
+            if (requestID != 0) {
+                obj.put("requestID", WHOLE_NUMBER.apply(requestID));
+            }
+
+            for (String field : MessageRegistry.fields(type)) {
+                int tag = readTag();
+                if (tag != ABSENT) {
+                    obj.put(field, readValue(tag, 1));
+                }
+            }
+            int extras = readCount();
+            for (int i = 0; i < extras; i++) {
+                String key = readString(readTag());
+                obj.put(key, readValue(readTag(), 1));
+            }
+            if (inPosition != inLimit) {
+                throw new ProtocolException("Trailing bytes after binary message");
+            }
+            return obj;
+        } catch (ClassCastException | IndexOutOfBoundsException e) {
+            throw new ProtocolException("Malformed binary message: " + e.getMessage());
+        } finally {
+            in = null;
+        }
+    }
+
+    private void writeValue(Object value) {
+        if (value == null) {
+            writeTag(NULL);
+        } else if (value instanceof Boolean bool) {
+            writeTag(bool ? TRUE : FALSE);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            writeTag(INT);
+            writeVarint(zigzag(((Number) value).longValue()));
+        } else if (value instanceof Number number) {
+            double d = number.doubleValue();
+            if (d == Math.rint(d) && Math.abs(d) < 1L << 53 && !(d == 0 && 1 / d < 0)) {
+                // parsers often hand back 3 as 3.0, no need for 8 bytes
+                writeTag(INT);
+                writeVarint(zigzag((long) d));
+            } else {
+                writeTag(DOUBLE);
+                long bits = Double.doubleToLongBits(d);
+                ensureOut(8);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out[outLength++] = (byte) (bits >>> shift);
+                }
+            }
+        } else if (value instanceof JSONObject obj) {
+            writeTag(OBJECT);
+            writeVarint(obj.size());
+            for (Map.Entry<String, Object> entry : obj.entrySet()) {
+                writeString(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        } else if (value instanceof JSONArray array) {
+            writeTag(ARRAY);
+            writeVarint(array.size());
+            for (Object element : array) {
+                writeValue(element);
+            }
+        } else {
+            writeString(value.toString());
+        }
+    }
+
+    private void writeString(String value) {
+        Integer index = outStrings.get(value);
+        if (index == null) {
+            index = newOutStrings.get(value); // interned earlier in this message
+        }
+        if (index != null) {
+            writeTag(STRING_REF);
+            writeVarint(index);
+            return;
+        }
+        int interned = outStrings.size() + newOutStrings.size();
+        boolean intern = interned < MAX_INTERNED && value.length() <= MAX_INTERNED_LENGTH;
+        if (intern) {
+            newOutStrings.put(value, interned);
+        }
+        writeTag(intern ? STRING_NEW : STRING);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        ensureOut(bytes.length);
+        System.arraycopy(bytes, 0, out, outLength, bytes.length);
+        outLength += bytes.length;
+    }
+
+    private void writeTag(int tag) {
+        ensureOut(1);
+        out[outLength++] = (byte) tag;
+    }
+
+    private void writeVarint(long value) {
+        ensureOut(10);
+        while ((value & ~0x7FL) != 0) {
+            out[outLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[outLength++] = (byte) value;
+    }
+
+    private void ensureOut(int extra) {
+        if (outLength + extra > out.length) {
+            out = Arrays.copyOf(out, Math.max(out.length * 2, outLength + extra));
+        }
+    }
+
+    /**
+     * @param depth objects and arrays this value sits in, a message nested
+     *              deeper is refused instead of overflowing the stack
+     */
+    private Object readValue(int tag, int depth) throws ProtocolException {
+        if ((tag == OBJECT || tag == ARRAY) && depth > MAX_DEPTH) {
+            throw new ProtocolException("Binary message nested deeper than " + MAX_DEPTH);
+        }
+        switch (tag) {
+            case NULL:
+                return null;
+            case FALSE:
+                return false;
+            case TRUE:
+                return true;
+            case INT:
+                long raw = readVarint();
+                return WHOLE_NUMBER.apply((raw >>> 1) ^ -(raw & 1));
+            case DOUBLE:
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = (bits << 8) | (readByte() & 0xFF);
+                }
+                return Double.longBitsToDouble(bits);
+            case OBJECT:
+                JSONObject obj = new JSONObject();
+                int fields = readCount();
+                for (int i = 0; i < fields; i++) {
+                    String key = readString(readTag());
+                    obj.put(key, readValue(readTag(), depth + 1));
+                }
+                return obj;
+            case ARRAY:
+                JSONArray array = new JSONArray();
+                int size = readCount();
+                for (int i = 0; i < size; i++) {
+                    array.add(readValue(readTag(), depth + 1));
+                }
+                return array;
+            default:
+                return readString(tag);
+        }
+    }
+
+    private String readString(int tag) throws ProtocolException {
+        if (tag == STRING_REF) {
+            long index = readVarint();
+            if (index >= inStrings.size()) {
+                throw new ProtocolException("Unknown string reference " + index);
+            }
+            return inStrings.get((int) index);
+        }
+        if (tag != STRING_NEW && tag != STRING) {
+            throw new ProtocolException("Expected a string, got tag " + tag);
+        }
+        int length = readCount();
+        if (length > inLimit - inPosition) {
+            throw new ProtocolException("String runs past the end of the message");
+        }
+        String value = new String(in, inPosition, length, StandardCharsets.UTF_8);
+        inPosition += length;
+        if (tag == STRING_NEW) {
+            // the peer interns by the same rules, one that does not would grow the table without end
+            if (inStrings.size() >= MAX_INTERNED || value.length() > MAX_INTERNED_LENGTH) {
+                throw new ProtocolException("String table overflow, the peer interned past its limits");
+            }
+            inStrings.add(value);
+        }
+        return value;
+    }
+
+    private int readTag() throws ProtocolException {
+        return readByte() & 0xFF;
+    }
+
+    /**
+     * Reads a length or element count, which can never exceed the bytes left
+     */
+    private int readCount() throws ProtocolException {
+        long count = readVarint();
+        if (count > inLimit - inPosition) {
+            throw new ProtocolException("Count " + count + " is larger than the message");
+        }
+        return (int) count;
+    }
+
+    private long readVarint() throws ProtocolException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ProtocolException("Varint is too long");
+    }
+
+    private byte readByte() throws ProtocolException {
+        if (inPosition >= inLimit) {
+            throw new ProtocolException("Binary message ends early");
+        }
+        return in[inPosition++];
+    }
+
+    /**
+     * @return true for the fields every message has, which are written first
+     */
+    private static boolean isHeader(String key) {
+        return key.equals("type") || key.equals("requestID");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static LongFunction<Object> wholeNumberType() {
+        Object parsed = JsonIO.readObject("{\"n\":1}").get("n");
+        if (parsed instanceof Integer) {
+            return value -> value == (int) value ? (Object) (int) value : (Object) value;
+        }
+        if (parsed instanceof Long) {
+            return value -> value;
+        }
+        return value -> (double) value;
+    }
+}
@@ -0,0 +1,120 @@
+package shared;
+
+import java.net.ProtocolException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * DEFLATE for length framed messages, negotiated per connection with a Hello.
+ *
+ * A compressed frame sets the high bit of its length prefix. Its body is the
+ * 4 byte big endian length of the original message followed by the deflated
+ * bytes. Messages under the threshold, or that would not shrink, are sent as
+ * ordinary frames.
+ *
+ * One Deflater and one Inflater are reused for the whole connection. Like
+ * BinaryCodec, compress and decompress may run on different threads but each
+ * must only be used by one at a time.
+ */
+public class FrameCompressor {
+    public static final int COMPRESSED_FLAG = 0x80000000;
+    // below this a message is too small for DEFLATE to pay for itself
+    public static final int DEFAULT_THRESHOLD = 512;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final int threshold;
+    private byte[] compressed = new byte[8192]; // reused for every outgoing message
+
+    public FrameCompressor(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Compresses a message if it is big enough and shrinks
+     *
+     * @param payload message bytes
+     * @param length  length of the message
+     * @return length of the compressed frame body held by {@link #compressed()},
+     *         or -1 to send the message as it is
+     */
+    public int compress(byte[] payload, int length) {
+        if (length < threshold) {
+            return -1;
+        }
+        deflater.reset();
+        deflater.setInput(payload, 0, length);
+        deflater.finish();
+
+        int size = 4;
+        while (!deflater.finished()) {
+            if (size == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            size += deflater.deflate(compressed, size, compressed.length - size);
+            if (size >= length) {
+                return -1; // not getting any smaller, checked after each call as one may finish it
+            }
+        }
+        compressed[0] = (byte) (length >>> 24);
+        compressed[1] = (byte) (length >>> 16);
+        compressed[2] = (byte) (length >>> 8);
+        compressed[3] = (byte) length;
+        return size;
+    }
+
+    /**
+     * @return buffer holding the frame body from the last compress call
+     */
+    public byte[] compressed() {
+        return compressed;
+    }
+
+    /**
+     * Reads the original length from a compressed frame body
+     *
+     * @throws ProtocolException Throws if the body is too short to hold it
+     */
+    public static int originalLength(byte[] body, int offset, int length) throws ProtocolException {
+        if (length < 4) {
+            throw new ProtocolException("Compressed frame is missing its length");
+        }
+        return ((body[offset] & 0xff) << 24) | ((body[offset + 1] & 0xff) << 16)
+                | ((body[offset + 2] & 0xff) << 8) | (body[offset + 3] & 0xff);
+    }
+
+    /**
+     * Inflates a compressed frame body. The caller checks originalLength
+     * against its frame limit and makes room for it in the target first.
+     *
+     * @param body   buffer holding the frame body
+     * @param offset where the body starts
+     * @param length length of the body
+     * @param target receives the original message from index 0
+     * @return length of the original message
+     * @throws ProtocolException Throws if the body does not inflate to the length it claims
+     */
+    public int decompress(byte[] body, int offset, int length, byte[] target) throws ProtocolException {
+        int expected = originalLength(body, offset, length);
+        inflater.reset();
+        inflater.setInput(body, offset + 4, length - 4);
+        try {
+            int size = 0;
+            while (size < expected && !inflater.finished()) {
+                int n = inflater.inflate(target, size, expected - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+            }
+            if (size != expected || !inflater.finished()) {
+                throw new ProtocolException("Compressed frame does not match its length of " + expected);
+            }
+            return size;
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Bad compressed frame: " + e.getMessage());
+        }
+    }
+}
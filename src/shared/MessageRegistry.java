@@ -0,0 +1,92 @@
+package shared;
+
+import merrimackutil.json.types.JSONObject;
+import shared.messages.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Maps message type names to the factory that builds them and the field order
+ * the BinaryCodec writes them in. Each received message is parsed once, by
+ * its factory, into its final class.
+ *
+ * New message types only need a register call, both sides of a connection
+ * must register the same types and fields.
+ */
+public class MessageRegistry {
+    private static final Map<String, Entry> TYPES = new ConcurrentHashMap<>();
+
+    static {
+        register("Hello", Hello::new, "framing", "codec", "compression");
+        register("Login", UserCredRequest::new, "username", "password");
+        register("Register", UserCredRequest::new, "username", "password");
+        register("Status", UserCredResponse::new, "status");
+        register("PackRequest", PackRequest::new, "username", "packName", "cardCount");
+        register("PackResponse", PackResponse::new, "cards");
+        register("CollectionRequest", CollectionRequest::new, "username");
+        register("CollectionResponse", CollectionResponse::new, "collection");
+        register("TradeRequest", TradeRequest::new, "requesterID", "recipientID", "offerCardID");
+        register("TradeResponse", TradeResponse::new, "status", "tradeID", "cardID");
+        register("ServerTradeStatus", ServerTradeStatus::new, "status", "message");
+        register("ViewTradesRequest", ViewTradesRequest::new, "username");
+        register("ViewTradesResponse", ViewTradesResponse::new, "trades");
+        register("TradeConfirmation", TradeConfirmation::new, "tradeID", "status");
+        register("UserListRequest", UserListRequest::new);
+        register("UserListResponse", UserListResponse::new, "users");
+        register("LogOutRequest", LogOutRequest::new, "username");
+        register("ErrorResponse", ErrorResponse::new, "code", "message");
+        register("SubscribeRequest", SubscribeRequest::new);
+        register("TradeEvent", TradeEvent::new, "event", "tradeID", "otherUser");
+        register("BatchRequest", BatchRequest::new, "requests");
+        register("BatchResponse", BatchResponse::new, "responses");
+        register("ShutdownRequest", ShutdownRequest::new, "token");
+    }
+
+    private MessageRegistry() {
+    }
+
+    /**
+     * Registers a message type, replacing any earlier registration of the name
+     *
+     * @param type    value of the message's "type" field
+     * @param factory builds the message from its JSON object
+     * @param fields  fields of the message in the order the binary codec writes
+     *                them, add new fields at the end
+     */
+    public static void register(String type, Function<JSONObject, ? extends Message> factory, String... fields) {
+        TYPES.put(type, new Entry(factory, fields.clone()));
+    }
+
+    /**
+     * Builds the message for a JSON object
+     *
+     * @param obj JSON object of the message
+     * @return the message, of the class registered for its type
+     * @throws UnknownMessageTypeException Throws if the type is missing or not registered
+     * @throws IllegalArgumentException    Throws if the object is not a valid message of its type
+     */
+    public static Message create(JSONObject obj) {
+        Object type = obj.get("type");
+        Entry entry = type == null ? null : TYPES.get(type.toString());
+        if (entry == null) {
+            Object requestID = obj.get("requestID");
+            throw new UnknownMessageTypeException(type == null ? null : type.toString(),
+                    requestID instanceof Number number ? number.intValue() : 0);
+        }
+        return entry.factory.apply(obj);
+    }
+
+    /**
+     * @param type message type name
+     * @return fields of the type in binary codec order, empty if the type is unknown
+     */
+    static String[] fields(String type) {
+        Entry entry = TYPES.get(type);
+        return entry == null ? new String[0] : entry.fields;
+    }
+
+    private record Entry(Function<JSONObject, ? extends Message> factory, String[] fields) {
+    }
+}
@@ -1,20 +1,52 @@
 package shared;
 
-import shared.messages.*;
+import shared.messages.Hello;
+import shared.messages.Message;
 import merrimackutil.json.JsonIO;
 import merrimackutil.json.types.JSONObject;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.ProtocolException;
 import java.net.Socket;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
 
 /**
- * Wraps socket class for use to send and receive JSON Messages
+ * Wraps socket class for use to send and receive JSON Messages.
+ * 
+ * Messages start out as one line of JSON each. A client may send a Hello
+ * asking for length framing, after which both sides send every message as a
+ * 4 byte big endian length followed by that many bytes of JSON. The same Hello
+ * can ask for the BinaryCodec instead of JSON inside the frames, and for
+ * large frames to be compressed (see FrameCompressor).
  */
 public class MessageSocket extends Socket {
-    private Scanner recv;
-    private PrintWriter send;
+    // largest message accepted unless setMaxFrameBytes says otherwise
+    public static final int DEFAULT_MAX_FRAME_BYTES = 16 << 20;
+
+    private Socket sock; // wrapped socket, null when this socket connected itself
+    private InputStream recv;
+    private OutputStream send;
+    private boolean sendFailed;
+
+    // negotiated by the reading thread, switched under sendMessage's lock
+    private volatile boolean framed; // true once length framing was negotiated
+    private volatile BinaryCodec codec; // set once the binary codec was negotiated, JSON otherwise
+    private boolean binaryAllowed = true;
+    private volatile FrameCompressor compressor; // set once compression was negotiated
+    private int compressionThreshold = FrameCompressor.DEFAULT_THRESHOLD; // 0 refuses compression
+    private byte[] compressedFrame = new byte[0]; // reused for incoming compressed frames
+    private int maxFrameBytes = DEFAULT_MAX_FRAME_BYTES;
+    private ByteBuffer frameBuffer = ByteBuffer.allocate(8192); // reused for every incoming message
+    private final byte[] lengthPrefix = new byte[4];
 
     /**
      * Creates Message Socket from a socket
@@ -24,12 +56,13 @@ public class MessageSocket extends Socket {
      */
     public MessageSocket(Socket sock) throws IOException {
         super(); // call parent class(socket)
+        this.sock = sock;
 
         // get input streams ready
         try {
             // use provided socket
-            this.recv = new Scanner(sock.getInputStream());
-            this.send = new PrintWriter(sock.getOutputStream(), true);
+            this.recv = new BufferedInputStream(sock.getInputStream());
+            this.send = new BufferedOutputStream(sock.getOutputStream());
         } catch (IOException e) {
             System.err.println("Message socket could not get io streams setup");
             // rethrow consumer of class must deal with this error
@@ -49,8 +82,8 @@ public class MessageSocket extends Socket {
 
         // get input streams ready
         try {
-            this.recv = new Scanner(this.getInputStream());
-            this.send = new PrintWriter(this.getOutputStream(), true);
+            this.recv = new BufferedInputStream(this.getInputStream());
+            this.send = new BufferedOutputStream(this.getOutputStream());
         } catch (IOException e) {
             System.err.println("Message socket could not get io streams setup");
             // rethrow consumer of class must deal with this error
@@ -58,60 +91,336 @@ public class MessageSocket extends Socket {
         }
     }
 
+    /**
+     * Sets the largest incoming message this socket accepts. A peer sending
+     * anything bigger is treated as a broken stream.
+     * 
+     * @param maxFrameBytes limit in bytes
+     */
+    public void setMaxFrameBytes(int maxFrameBytes) {
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    /**
+     * Whether a peer asking for the binary codec gets it
+     */
+    public void setBinaryAllowed(boolean binaryAllowed) {
+        this.binaryAllowed = binaryAllowed;
+    }
+
+    /**
+     * Sets the smallest message a peer asking for compression gets compressed
+     * 
+     * @param compressionThreshold size in bytes, 0 to refuse compression
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * @return true if large frames are compressed
+     */
+    public boolean isCompressed() {
+        return compressor != null;
+    }
+
+    /**
+     * @return true if messages are length framed instead of line delimited
+     */
+    public boolean isFramed() {
+        return framed;
+    }
+
+    /**
+     * @return true if messages use the binary codec instead of JSON
+     */
+    public boolean isBinary() {
+        return codec != null;
+    }
+
+    /**
+     * Asks the server to switch this connection to length framing, keeping JSON
+     * 
+     * @see #requestFraming(String)
+     */
+    public boolean requestFraming() {
+        return requestFraming(Hello.CODEC_JSON);
+    }
+
+    /**
+     * Asks the server to switch this connection to length framing and the given
+     * codec. Must be the first message sent on the socket.
+     * 
+     * @param codec Hello.CODEC_JSON or Hello.CODEC_BINARY
+     * @return true if the server agreed to framing, false if it stays line delimited
+     * @throws NoSuchElementException Throws if the server closed the connection,
+     *                                which servers that predate Hello do
+     */
+    public boolean requestFraming(String codec) {
+        return requestFraming(codec, Hello.COMPRESSION_NONE);
+    }
+
+    /**
+     * Asks the server to switch this connection to length framing, the given
+     * codec and compression. Must be the first message sent on the socket.
+     * 
+     * @param codec       Hello.CODEC_JSON or Hello.CODEC_BINARY
+     * @param compression Hello.COMPRESSION_NONE or Hello.COMPRESSION_DEFLATE
+     * @return true if the server agreed to framing, false if it stays line delimited
+     * @throws NoSuchElementException Throws if the server closed the connection,
+     *                                which servers that predate Hello do
+     */
+    public boolean requestFraming(String codec, String compression) {
+        sendMessage(new Hello(Hello.FRAMING_LENGTH, codec, compression));
+        Message reply = readMessage();
+        if (reply instanceof Hello hello && Hello.FRAMING_LENGTH.equals(hello.getFraming())) {
+            synchronized (this) {
+                if (!framed) {
+                    framed = true;
+                    if (Hello.CODEC_BINARY.equals(hello.getCodec())) {
+                        this.codec = new BinaryCodec();
+                    }
+                    if (Hello.COMPRESSION_DEFLATE.equals(hello.getCompression())) {
+                        compressor = new FrameCompressor(compressionThreshold);
+                    }
+                }
+            }
+        }
+        return framed;
+    }
+
     /**
      * Sends a Message on the socket
      * 
      * @param msg Message Object to send
      */
-    public void sendMessage(Message msg) {
-        JsonIO.writeSerializedObject(msg, send);
+    public synchronized void sendMessage(Message msg) {
+        byte[] payload;
+        int length;
+        if (codec != null) {
+            payload = codec.encode(msg);
+            length = codec.length();
+        } else {
+            payload = encode(msg).getBytes(StandardCharsets.UTF_8);
+            length = payload.length;
+        }
+        int prefix = length;
+        if (compressor != null) {
+            int compressedLength = compressor.compress(payload, length);
+            if (compressedLength >= 0) {
+                payload = compressor.compressed();
+                length = compressedLength;
+                prefix = compressedLength | FrameCompressor.COMPRESSED_FLAG;
+            }
+        }
+        try {
+            if (framed) {
+                send.write(prefix >>> 24);
+                send.write(prefix >>> 16);
+                send.write(prefix >>> 8);
+                send.write(prefix);
+                send.write(payload, 0, length);
+            } else {
+                send.write(payload);
+                send.write('\n');
+            }
+            send.flush();
+        } catch (IOException e) {
+            // like PrintWriter, report through checkError and let the next read fail
+            sendFailed = true;
+        }
+    }
+
+    /**
+     * @return true if a send failed since the socket was opened
+     */
+    public boolean checkError() {
+        return sendFailed;
     }
 
     /**
-     * Receive a Message on the socket
+     * Closes the socket, including the wrapped socket if there is one
+     * 
+     * @throws IOException Throws if the socket cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (sock != null) {
+            sock.close();
+        }
+        super.close();
+    }
+
+    /**
+     * Receive a Message on the socket. A Hello from the peer is answered here
+     * and switches the socket to length framing.
      * 
      * @return Message of Object received
+     * @throws java.util.NoSuchElementException Throws if the stream ended, timed out or broke framing
      */
     public Message getMessage() {
-        // get message from sender
-        String serializedMessage = recv.nextLine();
+        while (true) {
+            // get message from sender
+            Message message = readMessage();
+            if (!(message instanceof Hello hello)) {
+                return message;
+            }
 
-        // read object into JSON
-        JSONObject obj = JsonIO.readObject(serializedMessage);
-
-        Message message = new Message(obj);
-
-        switch (message.getType()) {
-            case "Login", "Register":
-                return new UserCredRequest(obj);
-            case "Status":
-                return new UserCredResponse(obj);
-            case "PackRequest":
-                return new PackRequest(obj);
-            case "PackResponse":
-                return new PackResponse(obj);
-            case "CollectionRequest":
-                return new CollectionRequest(obj);
-            case "CollectionResponse":
-                return new CollectionResponse(obj);
-            case "TradeRequest":
-                return new TradeRequest(obj);
-            case "TradeResponse":
-                return new TradeResponse(obj);
-            case "ServerTradeStatus":
-                return new ServerTradeStatus(obj);
-            case "ViewTradesRequest":
-                return new ViewTradesRequest(obj);
-            case "ViewTradesResponse":
-                return new ViewTradesResponse(obj);
-            case "TradeConfirmation":
-                return new TradeConfirmation(obj);
-            case "UserListRequest":
-                return new UserListRequest(obj);
-            case "UserListResponse":
-                return new UserListResponse(obj);
-            default:
-                throw new RuntimeException("Message does not fit known type, got type: " + message.getType());
+            // reply in the old framing, then switch, under the send lock so no
+            // other message goes out between the reply and the switch
+            synchronized (this) {
+                boolean accept = !framed && Hello.FRAMING_LENGTH.equals(hello.getFraming());
+                boolean binary = accept && binaryAllowed && Hello.CODEC_BINARY.equals(hello.getCodec());
+                boolean compress = accept && compressionThreshold > 0
+                        && Hello.COMPRESSION_DEFLATE.equals(hello.getCompression());
+                // a Hello on a connection that already switched is told what is in effect
+                sendMessage(new Hello(accept || framed ? Hello.FRAMING_LENGTH : Hello.FRAMING_LINE,
+                        binary || isBinary() ? Hello.CODEC_BINARY : Hello.CODEC_JSON,
+                        compress || isCompressed() ? Hello.COMPRESSION_DEFLATE : Hello.COMPRESSION_NONE));
+                framed = framed || accept;
+                if (binary) {
+                    codec = new BinaryCodec();
+                }
+                if (compress) {
+                    compressor = new FrameCompressor(compressionThreshold);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the next message into the frame buffer and decodes it
+     */
+    private Message readMessage() {
+        try {
+            int length = framed ? readFrame() : readLine();
+            if (codec != null) {
+                return decode(codec.decode(frameBuffer.array(), 0, length));
+            }
+            return decode(new String(frameBuffer.array(), 0, length, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new NoSuchElementException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a length prefixed frame into the frame buffer
+     * 
+     * @return length of the frame
+     */
+    private int readFrame() throws IOException {
+        readFully(lengthPrefix, lengthPrefix.length);
+        int prefix = ((lengthPrefix[0] & 0xff) << 24) | ((lengthPrefix[1] & 0xff) << 16)
+                | ((lengthPrefix[2] & 0xff) << 8) | (lengthPrefix[3] & 0xff);
+        int length = prefix & ~FrameCompressor.COMPRESSED_FLAG;
+        if (length > maxFrameBytes) {
+            throw tooLarge(length);
+        }
+        if ((prefix & FrameCompressor.COMPRESSED_FLAG) == 0) {
+            ensureCapacity(length);
+            readFully(frameBuffer.array(), length);
+            return length;
+        }
+
+        if (compressor == null) {
+            throw new ProtocolException("Compressed frame on a connection that did not negotiate compression");
+        }
+        if (compressedFrame.length < length) {
+            compressedFrame = new byte[Math.min(Math.max(length, 2 * compressedFrame.length), maxFrameBytes)];
+        }
+        readFully(compressedFrame, length);
+        int originalLength = FrameCompressor.originalLength(compressedFrame, 0, length);
+        if (originalLength < 0 || originalLength > maxFrameBytes) {
+            throw tooLarge(originalLength);
+        }
+        ensureCapacity(originalLength);
+        return compressor.decompress(compressedFrame, 0, length, frameBuffer.array());
+    }
+
+    /**
+     * Reads a line into the frame buffer, dropping the line break
+     * 
+     * @return length of the line
+     */
+    private int readLine() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = recv.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("End of stream");
+            }
+            if (length == maxFrameBytes) {
+                throw tooLarge(length + 1);
+            }
+            ensureCapacity(length + 1);
+            frameBuffer.array()[length++] = (byte) b;
+        }
+        if (length > 0 && frameBuffer.array()[length - 1] == '\r') {
+            length--;
         }
+        return length;
+    }
+
+    private void readFully(byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = recv.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new EOFException("End of stream inside a frame");
+            }
+            read += n;
+        }
+    }
+
+    /**
+     * Grows the frame buffer so it holds at least size bytes
+     */
+    private void ensureCapacity(int size) {
+        if (size > frameBuffer.capacity()) {
+            int capacity = (int) Math.min(Math.max(size, 2L * frameBuffer.capacity()), maxFrameBytes);
+            ByteBuffer bigger = ByteBuffer.allocate(capacity);
+            bigger.put(frameBuffer.array(), 0, frameBuffer.capacity());
+            frameBuffer = bigger;
+        }
+    }
+
+    private ProtocolException tooLarge(int length) {
+        System.err.println("Dropping connection, message of " + length + " bytes is over the "
+                + maxFrameBytes + " byte limit");
+        return new ProtocolException("Message exceeds " + maxFrameBytes + " bytes");
+    }
+
+    /**
+     * Serializes a Message to a single line of JSON (without the line break)
+     * 
+     * @param msg Message Object to serialize
+     * @return JSON text of the message
+     */
+    public static String encode(Message msg) {
+        StringWriter text = new StringWriter();
+        JsonIO.writeSerializedObject(msg, new PrintWriter(text, true));
+        return text.toString().stripTrailing();
+    }
+
+    /**
+     * Builds the Message for one line of JSON
+     * 
+     * @param serializedMessage JSON text of the message
+     * @return Message of Object received
+     */
+    public static Message decode(String serializedMessage) {
+        // read object into JSON
+        return decode(JsonIO.readObject(serializedMessage));
+    }
+
+    /**
+     * Builds the Message for a JSON object, however it was read
+     * 
+     * @param obj JSON object of the message
+     * @return Message of Object received
+     * @throws UnknownMessageTypeException Throws if no message type is registered for it
+     */
+    public static Message decode(JSONObject obj) {
+        return MessageRegistry.create(obj);
     }
 }
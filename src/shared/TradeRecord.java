@@ -0,0 +1,118 @@
+package shared;
+
+import java.io.InvalidObjectException;
+
+import merrimackutil.json.types.JSONObject;
+
+/**
+ * One trade between two users, as the server keeps it and sends it in a
+ * ViewTradesResponse. Trades are immutable, answering one makes a new record.
+ *
+ * @param tradeID        assigned by the server, unique and never reused
+ * @param type           how far the trade has got
+ * @param responseCardID card the recipient sends back, null until they answer
+ * @param expiresAt      time in milliseconds the server drops the trade if
+ *                       it has not moved on, 0 for never
+ */
+public record TradeRecord(long tradeID, Type type, String requesterID, String recipientID, String offerCardID,
+        String responseCardID, long expiresAt) {
+
+    /**
+     * How far a trade has got
+     */
+    public enum Type {
+        REQUEST, // waiting for the recipient to pick a card
+        RESPONSE; // the recipient picked a card, waiting for the requester to confirm
+
+        /**
+         * @return the type as written in JSON, "request" or "response"
+         */
+        public String toJSON() {
+            return name().toLowerCase();
+        }
+
+        /**
+         * @throws InvalidObjectException if the value is not a trade type
+         */
+        public static Type parse(String value) throws InvalidObjectException {
+            if ("request".equals(value)) {
+                return REQUEST;
+            } else if ("response".equals(value)) {
+                return RESPONSE;
+            }
+            throw new InvalidObjectException("Unknown trade type: " + value);
+        }
+    }
+
+    /**
+     * @return a new trade request, not yet answered
+     */
+    public static TradeRecord request(long tradeID, String requesterID, String recipientID, String offerCardID,
+            long expiresAt) {
+        return new TradeRecord(tradeID, Type.REQUEST, requesterID, recipientID, offerCardID, null, expiresAt);
+    }
+
+    /**
+     * @return this trade once the recipient answered it with a card
+     */
+    public TradeRecord accepted(String responseCardID, long expiresAt) {
+        return new TradeRecord(tradeID, Type.RESPONSE, requesterID, recipientID, offerCardID, responseCardID,
+                expiresAt);
+    }
+
+    /**
+     * @return this trade with another expiry time
+     */
+    public TradeRecord expiringAt(long expiresAt) {
+        return new TradeRecord(tradeID, type, requesterID, recipientID, offerCardID, responseCardID, expiresAt);
+    }
+
+    /**
+     * @return whether the trade has a deadline and it passed by now
+     */
+    public boolean isExpired(long now) {
+        return expiresAt != 0 && expiresAt <= now;
+    }
+
+    public boolean isRequest() {
+        return type == Type.REQUEST;
+    }
+
+    public boolean isResponse() {
+        return type == Type.RESPONSE;
+    }
+
+    /**
+     * @return the user on the other side of the trade from the given one
+     */
+    public String otherUser(String username) {
+        return username.equals(requesterID) ? recipientID : requesterID;
+    }
+
+    public JSONObject toJSONType() {
+        JSONObject trade = new JSONObject();
+        trade.put("tradeID", tradeID);
+        trade.put("type", type.toJSON());
+        trade.put("requesterID", requesterID);
+        trade.put("recipientID", recipientID);
+        trade.put("offerCardID", offerCardID);
+        if (responseCardID != null) {
+            trade.put("responseCardID", responseCardID);
+        }
+        if (expiresAt != 0) {
+            trade.put("expiresAt", expiresAt);
+        }
+        return trade;
+    }
+
+    /**
+     * @throws InvalidObjectException if a field is missing or the type is unknown
+     */
+    public static TradeRecord fromJSON(JSONObject trade) throws InvalidObjectException {
+        trade.checkValidity(new String[] { "tradeID", "type", "requesterID", "recipientID", "offerCardID" });
+        return new TradeRecord(((Number) trade.get("tradeID")).longValue(), Type.parse(trade.getString("type")),
+                trade.getString("requesterID"), trade.getString("recipientID"), trade.getString("offerCardID"),
+                trade.containsKey("responseCardID") ? trade.getString("responseCardID") : null,
+                trade.containsKey("expiresAt") ? ((Number) trade.get("expiresAt")).longValue() : 0);
+    }
+}
@@ -0,0 +1,32 @@
+package shared;
+
+/**
+ * Thrown when a received message has a type nothing is registered for. The
+ * message itself was read completely, so the connection can carry on.
+ */
+public class UnknownMessageTypeException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final String type;
+    private final int requestID;
+
+    public UnknownMessageTypeException(String type, int requestID) {
+        super("Message does not fit known type, got type: " + type);
+        this.type = type;
+        this.requestID = requestID;
+    }
+
+    /**
+     * @return the unknown type, null if the message had none
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return request id of the message, so the error can answer it, 0 if untagged
+     */
+    public int getRequestID() {
+        return requestID;
+    }
+}
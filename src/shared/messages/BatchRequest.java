@@ -0,0 +1,75 @@
+package shared.messages;
+
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.List;
+
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+import shared.MessageRegistry;
+import shared.UnknownMessageTypeException;
+
+/**
+ * Several ordinary requests sent together. The server handles them in order
+ * in one pass and answers with a single BatchResponse.
+ */
+public class BatchRequest extends Message {
+    // most requests one batch may carry
+    public static final int MAX_REQUESTS = 32;
+
+    private List<Message> requests;
+
+    public BatchRequest(List<Message> requests) {
+        super("BatchRequest");
+        this.requests = requests;
+    }
+
+    public BatchRequest(JSONObject obj) {
+        super(obj);
+        if (!super.type.equals("BatchRequest")) {
+            throw new IllegalArgumentException("Bad type: " + super.type);
+        }
+    }
+
+    /**
+     * @return the requests in order, null in place of a request of a type the
+     *         receiver does not know
+     */
+    public List<Message> getRequests() {
+        return requests;
+    }
+
+    @Override
+    public void deserialize(JSONType jsonType) throws InvalidObjectException {
+        super.deserialize(jsonType);
+        JSONObject jsonObject = (JSONObject) jsonType;
+        JSONArray array = jsonObject.getArray("requests");
+        if (array == null) {
+            throw new InvalidObjectException("Batch is missing its requests");
+        }
+        if (array.size() > MAX_REQUESTS) {
+            throw new InvalidObjectException("Batch must hold at most " + MAX_REQUESTS + " requests");
+        }
+        requests = new ArrayList<>();
+        for (int i = 0; i < array.size(); i++) {
+            try {
+                requests.add(MessageRegistry.create(array.getObject(i)));
+            } catch (UnknownMessageTypeException e) {
+                // answered with an error in its slot, the rest of the batch still runs
+                requests.add(null);
+            }
+        }
+    }
+
+    @Override
+    public JSONObject toJSONType() {
+        JSONObject jsonObject = super.toJSONType();
+        JSONArray array = new JSONArray();
+        for (Message request : requests) {
+            array.add(request.toJSONType());
+        }
+        jsonObject.put("requests", array);
+        return jsonObject;
+    }
+}
@@ -0,0 +1,55 @@
+package shared.messages;
+
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.List;
+
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+import shared.MessageRegistry;
+
+/**
+ * Answer to a BatchRequest, one response per request in the same order
+ */
+public class BatchResponse extends Message {
+    private List<Message> responses;
+
+    public BatchResponse(List<Message> responses) {
+        super("BatchResponse");
+        this.responses = responses;
+    }
+
+    public BatchResponse(JSONObject obj) {
+        super(obj);
+        if (!super.type.equals("BatchResponse")) {
+            throw new IllegalArgumentException("Bad type: " + super.type);
+        }
+    }
+
+    public List<Message> getResponses() {
+        return responses;
+    }
+
+    @Override
+    public void deserialize(JSONType jsonType) throws InvalidObjectException {
+        super.deserialize(jsonType);
+        JSONObject jsonObject = (JSONObject) jsonType;
+        JSONArray array = jsonObject.getArray("responses");
+        responses = new ArrayList<>();
+        for (int i = 0; i < array.size(); i++) {
+            responses.add(MessageRegistry.create(array.getObject(i)));
+        }
+    }
+
+    @Override
+    public JSONObject toJSONType() {
+        JSONObject jsonObject = super.toJSONType();
+        JSONArray array = new JSONArray();
+        for (Message response : responses) {
+            array.add(response.toJSONType());
+        }
+        jsonObject.put("responses", array);
+        return jsonObject;
+    }
+}
@@ -0,0 +1,66 @@
+package shared.messages;
+
+import java.io.InvalidObjectException;
+
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+/**
+ * Sent instead of the normal response when the server will not handle a request
+ */
+public class ErrorResponse extends Message {
+    // server has too many requests in flight, the client may retry later
+    public static final String BUSY = "BUSY";
+    // request type is not one the server knows
+    public static final String UNKNOWN_TYPE = "UNKNOWN_TYPE";
+    // request is known but cannot be handled as sent
+    public static final String BAD_REQUEST = "BAD_REQUEST";
+    // client sent this type of request too often, it may retry later
+    public static final String RATE_LIMITED = "RATE_LIMITED";
+    // request needs a logged in session, or one of another user
+    public static final String UNAUTHORIZED = "UNAUTHORIZED";
+    // handling the request failed on the server
+    public static final String SERVER_ERROR = "SERVER_ERROR";
+    // server is shutting down and takes no new requests
+    public static final String SHUTTING_DOWN = "SHUTTING_DOWN";
+
+    private String code;
+    private String message; // message to be shown to the client
+
+    public ErrorResponse(String code, String message) {
+        super("ErrorResponse");
+        this.code = code;
+        this.message = message;
+    }
+
+    public ErrorResponse(JSONObject obj) {
+        super(obj);
+        if (!super.type.equals("ErrorResponse")) {
+            throw new IllegalArgumentException("Bad type: " + super.type);
+        }
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public void deserialize(JSONType jsonType) throws InvalidObjectException {
+        super.deserialize(jsonType);
+        JSONObject jsonObject = (JSONObject) jsonType;
+        code = jsonObject.getString("code");
+        message = jsonObject.getString("message");
+    }
+
+    @Override
+    public JSONObject toJSONType() {
+        JSONObject jsonObject = super.toJSONType();
+        jsonObject.put("code", code);
+        jsonObject.put("message", message);
+        return jsonObject;
+    }
+}
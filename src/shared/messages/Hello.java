@@ -0,0 +1,77 @@
+package shared.messages;
+
+import java.io.InvalidObjectException;
+
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+/**
+ * First message on a connection, used to agree on how later messages are
+ * framed and encoded. The client asks for what it wants and the server answers
+ * with what it will use.
+ */
+public class Hello extends Message {
+    public static final String FRAMING_LINE = "line";
+    public static final String FRAMING_LENGTH = "length";
+    public static final String CODEC_JSON = "json";
+    public static final String CODEC_BINARY = "binary"; // needs length framing
+    public static final String COMPRESSION_NONE = "none";
+    public static final String COMPRESSION_DEFLATE = "deflate"; // needs length framing
+
+    private String framing;
+    private String codec;
+    private String compression;
+
+    public Hello(String framing) {
+        this(framing, CODEC_JSON);
+    }
+
+    public Hello(String framing, String codec) {
+        this(framing, codec, COMPRESSION_NONE);
+    }
+
+    public Hello(String framing, String codec, String compression) {
+        super("Hello");
+        this.framing = framing;
+        this.codec = codec;
+        this.compression = compression;
+    }
+
+    public Hello(JSONObject obj) {
+        super(obj);
+        if (!super.type.equals("Hello")) {
+            throw new IllegalArgumentException("Bad type: " + super.type);
+        }
+    }
+
+    public String getFraming() {
+        return framing;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    @Override
+    public void deserialize(JSONType jsonType) throws InvalidObjectException {
+        super.deserialize(jsonType);
+        JSONObject jsonObject = (JSONObject) jsonType;
+        framing = jsonObject.getString("framing");
+        // peers from before the binary codec only send framing
+        codec = jsonObject.containsKey("codec") ? jsonObject.getString("codec") : CODEC_JSON;
+        compression = jsonObject.containsKey("compression") ? jsonObject.getString("compression") : COMPRESSION_NONE;
+    }
+
+    @Override
+    public JSONObject toJSONType() {
+        JSONObject jsonObject = super.toJSONType();
+        jsonObject.put("framing", framing);
+        jsonObject.put("codec", codec);
+        jsonObject.put("compression", compression);
+        return jsonObject;
+    }
+}
@@ -1,15 +1,49 @@
 package shared.messages;
 
+import java.io.InvalidObjectException;
+
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
 public class LogOutRequest extends Message {
 
     String username;
 
     /**
-     * Creates a new LogOutRequest message from a JSONObject. Has type of "LogOutRequest".
-     * @param obj JSONObject to deserialize
+     * Creates a new LogOutRequest message. Has type of "LogOutRequest".
+     * @param username user ending the session
      */
     public LogOutRequest(String username) {
         super("LogOutRequest");
         this.username = username;
     }
+
+    /**
+     * Creates a new LogOutRequest message from a JSONObject. Has type of "LogOutRequest".
+     * @param obj JSONObject to deserialize
+     */
+    public LogOutRequest(JSONObject obj) {
+        super(obj);
+        if (!super.type.equals("LogOutRequest")) {
+            throw new IllegalArgumentException("Bad type: " + super.type);
+        }
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public void deserialize(JSONType jsonType) throws InvalidObjectException {
+        super.deserialize(jsonType);
+        JSONObject jsonObject = (JSONObject) jsonType;
+        username = jsonObject.getString("username");
+    }
+
+    @Override
+    public JSONObject toJSONType() {
+        JSONObject jsonObject = super.toJSONType();
+        jsonObject.put("username", username);
+        return jsonObject;
+    }
 }
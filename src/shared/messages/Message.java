@@ -12,6 +12,8 @@ import java.io.InvalidObjectException;
 public class Message implements JSONSerializable {
     //type of message
     protected String type;
+    //optional id matching a response to its request, 0 when untagged
+    protected int requestID;
 
     /**
      * Constructor creates a new message object from JSONobject by deserializing it
@@ -41,6 +43,23 @@ public class Message implements JSONSerializable {
         return type;
     }
 
+    /**
+     * Get the id that matches a response to its request
+     * @return request id, 0 if the message is untagged
+     */
+    public int getRequestID() {
+        return requestID;
+    }
+
+    /**
+     * Tags the message so its response can be matched to it. Tagged requests
+     * may be answered out of order.
+     * @param requestID id to tag with, 0 to untag
+     */
+    public void setRequestID(int requestID) {
+        this.requestID = requestID;
+    }
+
     /**
      * Deserializes Message from JSONObject
      * @param jsonType JSONObject to deserialize
@@ -54,6 +73,7 @@ public class Message implements JSONSerializable {
 
         messageJSON.checkValidity(new String[] {"type"});
         type = messageJSON.getString("type");
+        requestID = messageJSON.containsKey("requestID") ? messageJSON.getInt("requestID") : 0;
     }
 
     /**
@@ -64,6 +84,8 @@ public class Message implements JSONSerializable {
     public JSONObject toJSONType() {
         JSONObject messageJSON = new JSONObject();
         messageJSON.put("type",type);
+        if (requestID != 0)
+            messageJSON.put("requestID", requestID);
         return messageJSON;
     }
 }
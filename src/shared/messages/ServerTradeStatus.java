@@ -19,8 +19,6 @@ public class ServerTradeStatus extends Message {
         if (!super.type.equals("ServerTradeStatus")) {
             throw new IllegalArgumentException("Bad type: " + super.type);
         }
-        this.status = arg0.getBoolean("status");
-        this.message = arg0.getString("message");
     }
 
     public boolean getStatus() {
@@ -0,0 +1,53 @@
+package shared.messages;
+
+import java.io.InvalidObjectException;
+
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+/**
+ * Admin request to stop the server. The server answers, stops accepting
+ * connections, finishes the requests it is working on and saves its data.
+ */
+public class ShutdownRequest extends Message {
+
+    String token;
+
+    /**
+     * Creates a new ShutdownRequest message. Has type of "ShutdownRequest".
+     * @param token admin token the server was started with
+     */
+    public ShutdownRequest(String token) {
+        super("ShutdownRequest");
+        this.token = token;
+    }
+
+    /**
+     * Creates a new ShutdownRequest message from a JSONObject. Has type of "ShutdownRequest".
+     * @param obj JSONObject to deserialize
+     */
+    public ShutdownRequest(JSONObject obj) {
+        super(obj);
+        if (!super.type.equals("ShutdownRequest")) {
+            throw new IllegalArgumentException("Bad type: " + super.type);
+        }
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    @Override
+    public void deserialize(JSONType jsonType) throws InvalidObjectException {
+        super.deserialize(jsonType);
+        JSONObject jsonObject = (JSONObject) jsonType;
+        token = jsonObject.getString("token");
+    }
+
+    @Override
+    public JSONObject toJSONType() {
+        JSONObject jsonObject = super.toJSONType();
+        jsonObject.put("token", token);
+        return jsonObject;
+    }
+}
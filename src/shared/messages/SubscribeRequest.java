@@ -0,0 +1,20 @@
+package shared.messages;
+
+import merrimackutil.json.types.JSONObject;
+
+/**
+ * Asks the server to push TradeEvents for the logged in user on this
+ * connection. Answered with a ServerTradeStatus.
+ */
+public class SubscribeRequest extends Message {
+    public SubscribeRequest() {
+        super("SubscribeRequest");
+    }
+
+    public SubscribeRequest(JSONObject obj) {
+        super(obj);
+        if (!super.type.equals("SubscribeRequest")) {
+            throw new IllegalArgumentException("Bad type: " + super.type);
+        }
+    }
+}
@@ -6,12 +6,12 @@ import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 
 public class TradeConfirmation extends Message {
-    private String tradeKey;
+    private long tradeID;
     private boolean status;
 
-    public TradeConfirmation(String tradeKey, boolean status) {
+    public TradeConfirmation(long tradeID, boolean status) {
         super("TradeConfirmation"); // Call to the parent class constructor
-        this.tradeKey = tradeKey;
+        this.tradeID = tradeID;
         this.status = status;
     }
 
@@ -20,12 +20,10 @@ public class TradeConfirmation extends Message {
         if (!super.type.equals("TradeConfirmation")) {
             throw new IllegalArgumentException("Bad type: " + super.type);
         }
-        this.tradeKey = obj.getString("tradeKey");
-        this.status = obj.getBoolean("status");
     }
 
-    public String getTradeKey() {
-        return tradeKey;
+    public long getTradeID() {
+        return tradeID;
     }
 
     public boolean getStatus() {
@@ -35,7 +33,7 @@ public class TradeConfirmation extends Message {
     @Override
     public JSONObject toJSONType() {
         JSONObject jsonObject = super.toJSONType();
-        jsonObject.put("tradeKey", tradeKey);
+        jsonObject.put("tradeID", tradeID);
         jsonObject.put("status", status);
         return jsonObject;
     }
@@ -44,7 +42,7 @@ public class TradeConfirmation extends Message {
     public void deserialize(JSONType jsonType) throws InvalidObjectException {
         super.deserialize(jsonType);
         JSONObject jsonObject = (JSONObject) jsonType;
-        this.tradeKey = jsonObject.getString("tradeKey");
+        this.tradeID = ((Number) jsonObject.get("tradeID")).longValue();
         this.status = jsonObject.getBoolean("status");
     }
 }
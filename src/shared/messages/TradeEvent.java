@@ -0,0 +1,71 @@
+package shared.messages;
+
+import java.io.InvalidObjectException;
+
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+/**
+ * Pushed by the server to a subscribed user when one of their trades changes.
+ * Never a response to a request, so it has no request id.
+ */
+public class TradeEvent extends Message {
+    // someone sent the user a trade request
+    public static final String REQUESTED = "REQUESTED";
+    // the recipient picked a card, the user can confirm the trade
+    public static final String ACCEPTED = "ACCEPTED";
+    // the recipient turned the user's request down
+    public static final String DECLINED = "DECLINED";
+    // the requester confirmed and the cards were swapped
+    public static final String COMPLETED = "COMPLETED";
+    // nobody moved the trade on before its deadline, so the server dropped it
+    public static final String EXPIRED = "EXPIRED";
+
+    private String event;
+    private long tradeID;
+    private String otherUser; // the user on the other side of the trade
+
+    public TradeEvent(String event, long tradeID, String otherUser) {
+        super("TradeEvent");
+        this.event = event;
+        this.tradeID = tradeID;
+        this.otherUser = otherUser;
+    }
+
+    public TradeEvent(JSONObject obj) {
+        super(obj);
+        if (!super.type.equals("TradeEvent")) {
+            throw new IllegalArgumentException("Bad type: " + super.type);
+        }
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public long getTradeID() {
+        return tradeID;
+    }
+
+    public String getOtherUser() {
+        return otherUser;
+    }
+
+    @Override
+    public void deserialize(JSONType jsonType) throws InvalidObjectException {
+        super.deserialize(jsonType);
+        JSONObject jsonObject = (JSONObject) jsonType;
+        event = jsonObject.getString("event");
+        tradeID = ((Number) jsonObject.get("tradeID")).longValue();
+        otherUser = jsonObject.getString("otherUser");
+    }
+
+    @Override
+    public JSONObject toJSONType() {
+        JSONObject jsonObject = super.toJSONType();
+        jsonObject.put("event", event);
+        jsonObject.put("tradeID", tradeID);
+        jsonObject.put("otherUser", otherUser);
+        return jsonObject;
+    }
+}
@@ -24,9 +24,6 @@ public class TradeRequest extends Message {
         if (!super.type.equals("TradeRequest")) {
             throw new IllegalArgumentException("Bad type: " + super.type);
         }
-        this.requesterID = obj.getString("requesterID");
-        this.recipientID = obj.getString("recipientID");
-        this.offerCardID = obj.getString("offerCardID");
     }
 
     public String getRequesterID() {
@@ -4,13 +4,13 @@ import merrimackutil.json.types.JSONObject;
 
 public class TradeResponse extends Message {
     private boolean status;
-    private String tradeKey;
+    private long tradeID;
     private String cardID;
 
-    public TradeResponse(boolean status, String tradeKey, String cardID) {
+    public TradeResponse(boolean status, long tradeID, String cardID) {
         super("TradeResponse");
         this.status = status;
-        this.tradeKey = tradeKey;
+        this.tradeID = tradeID;
         this.cardID = cardID;
     }
 
@@ -19,17 +19,14 @@ public class TradeResponse extends Message {
         if (!super.type.equals("TradeResponse")) {
             throw new IllegalArgumentException("Bad type: " + super.type);
         }
-        this.status = obj.getBoolean("status");
-        this.tradeKey = obj.getString("tradeKey");
-        this.cardID = obj.getString("cardID");
     }
 
     public boolean getStatus() {
         return status;
     }
 
-    public String getTradeKey() {
-        return tradeKey;
+    public long getTradeID() {
+        return tradeID;
     }
 
     public String getCardID() {
@@ -41,7 +38,7 @@ public class TradeResponse extends Message {
         super.deserialize(jsonType);
         JSONObject jsonObject = (JSONObject) jsonType;
         this.status = jsonObject.getBoolean("status");
-        this.tradeKey = jsonObject.getString("tradeKey");
+        this.tradeID = ((Number) jsonObject.get("tradeID")).longValue();
         this.cardID = jsonObject.getString("cardID");
     }
 
@@ -49,7 +46,7 @@ public class TradeResponse extends Message {
     public JSONObject toJSONType() {
         JSONObject jsonObject = super.toJSONType();
         jsonObject.put("status", status);
-        jsonObject.put("tradeKey", tradeKey);
+        jsonObject.put("tradeID", tradeID);
         jsonObject.put("cardID", cardID);
         return jsonObject;
     }
@@ -26,7 +26,6 @@ public class UserCredResponse extends Message {
         if (!super.type.equals("Status")) {
             throw new IllegalArgumentException("Bad type: " + super.type);
         }
-        this.status = obj.getBoolean("status");
     }
 
     public boolean isSuccess() {
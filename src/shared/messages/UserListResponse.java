@@ -17,8 +17,6 @@ public class UserListResponse extends Message {
         if (!super.type.equals("UserListResponse")) {
             throw new IllegalArgumentException("Bad type: " + super.type);
         }
-        
-        this.users = obj.getArray("users"); // Deserialize the users array from the JSON object
     }
 
     public JSONArray getUsers() {
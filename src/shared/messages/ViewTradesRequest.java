@@ -15,7 +15,6 @@ public class ViewTradesRequest extends Message {
         if (!super.type.equals("ViewTradesRequest")) {
             throw new IllegalArgumentException("Bad type: " + super.type);
         }
-        this.username = obj.getString("username");
     }
 
     public String getUsername() {
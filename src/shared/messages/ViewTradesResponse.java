@@ -1,12 +1,16 @@
 package shared.messages;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import merrimackutil.json.types.JSONArray;
+import shared.TradeRecord;
 
 public class ViewTradesResponse extends Message {
     // sends all trades in database that have the user as a participant
-    JSONArray trades; // list of trades
+    List<TradeRecord> trades; // list of trades
 
-    public ViewTradesResponse(JSONArray trades) {
+    public ViewTradesResponse(List<TradeRecord> trades) {
         super("ViewTradesResponse"); // Call to the parent class constructor
         this.trades = trades;
     }
@@ -19,14 +23,18 @@ public class ViewTradesResponse extends Message {
     }
 
 
-    public JSONArray getTrades() {
+    public List<TradeRecord> getTrades() {
         return trades;
     }
 
     @Override
     public merrimackutil.json.types.JSONObject toJSONType() {
         merrimackutil.json.types.JSONObject jsonObject = super.toJSONType();
-        jsonObject.put("trades", trades);
+        JSONArray tradeArray = new JSONArray();
+        for (TradeRecord trade : trades) {
+            tradeArray.add(trade.toJSONType());
+        }
+        jsonObject.put("trades", tradeArray);
         return jsonObject;
     }
 
@@ -34,6 +42,10 @@ public class ViewTradesResponse extends Message {
     public void deserialize(merrimackutil.json.types.JSONType jsonType) throws java.io.InvalidObjectException {
         super.deserialize(jsonType);
         merrimackutil.json.types.JSONObject jsonObject = (merrimackutil.json.types.JSONObject) jsonType;
-        this.trades = jsonObject.getArray("trades");
+        JSONArray tradeArray = jsonObject.getArray("trades");
+        this.trades = new ArrayList<>();
+        for (int i = 0; i < tradeArray.size(); i++) {
+            trades.add(TradeRecord.fromJSON(tradeArray.getObject(i)));
+        }
     }
 }
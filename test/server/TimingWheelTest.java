@@ -0,0 +1,157 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks that the timing wheel fires every item once, never before its
+ * deadline and within a tick after it, including deadlines that start out
+ * in the overflow wheels and move down a level at a time. Run with
+ * "ant test", exits non-zero on a failure.
+ */
+public class TimingWheelTest {
+    private static final long TICK = 10;
+    private static final int SLOTS = 8; // a turn is 80 ms, the overflow levels 640 ms and 5120 ms
+
+    public static void main(String[] args) {
+        firesAcrossLevels();
+        firesAfterAStall();
+        firesPassedDeadlinesNext();
+        reschedulesFromTheConsumer();
+        schedulesAgainstTheCurrentTime();
+        randomDeadlines();
+        System.out.println("TimingWheelTest passed");
+    }
+
+    /**
+     * Deadlines on each side of every level's span, advanced a millisecond
+     * at a time so a late or early firing shows
+     */
+    private static void firesAcrossLevels() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, SLOTS, 0);
+        Map<Long, Long> deadlines = new HashMap<>();
+        long[] spans = { TICK, TICK * SLOTS, TICK * SLOTS * SLOTS, TICK * SLOTS * SLOTS * SLOTS };
+        for (long span : spans) {
+            for (long deadline : new long[] { span - 1, span, span + 1, 2 * span - 1, 2 * span + TICK / 2 }) {
+                deadlines.put(deadline, deadline);
+                wheel.schedule(deadline, deadline);
+            }
+        }
+        check(wheel.size() == deadlines.size(), "size counts every item scheduled");
+        run(wheel, deadlines, 0, 2 * spans[spans.length - 1] + TICK, 1);
+        check(wheel.size() == 0, "nothing is left once every deadline passed");
+    }
+
+    /**
+     * A thread that stalls for many turns still gets every item that came
+     * due, once
+     */
+    private static void firesAfterAStall() {
+        TimingWheel<Integer> wheel = new TimingWheel<>(TICK, SLOTS, 0);
+        for (int i = 0; i < 100; i++) {
+            wheel.schedule(i, i * 37L);
+        }
+        List<Integer> fired = new ArrayList<>();
+        wheel.advance(1800, fired::add);
+        check(fired.size() == 49, "a stall fires every item due by then, got " + fired.size()); // deadlines 0..1776
+        for (int item : fired) {
+            check(item * 37L <= 1800, "item " + item + " fired before its deadline");
+        }
+        wheel.advance(10_000, fired::add);
+        check(fired.size() == 100 && wheel.size() == 0, "the rest fire on the next advance");
+        check(fired.stream().distinct().count() == 100, "no item fires twice");
+    }
+
+    private static void firesPassedDeadlinesNext() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, SLOTS, 1000);
+        wheel.schedule("late", 500);
+        List<String> fired = new ArrayList<>();
+        wheel.advance(1005, fired::add);
+        check(fired.isEmpty(), "a passed deadline waits for the next tick");
+        wheel.advance(1010, fired::add);
+        check(fired.equals(List.of("late")), "a passed deadline fires on the next tick");
+    }
+
+    private static void reschedulesFromTheConsumer() {
+        TimingWheel<Integer> wheel = new TimingWheel<>(TICK, SLOTS, 0);
+        wheel.schedule(0, 50);
+        List<Long> firedAt = new ArrayList<>();
+        for (long now = 0; now <= 8000; now += 5) {
+            long time = now;
+            // each firing schedules the next item a level further out
+            wheel.advance(now, count -> {
+                firedAt.add(time);
+                if (count < 2) {
+                    wheel.schedule(count + 1, time + TICK * (count == 0 ? SLOTS * SLOTS : SLOTS * SLOTS * SLOTS));
+                }
+            });
+        }
+        check(firedAt.equals(List.of(50L, 690L, 5810L)), "rescheduled items fire at their new deadlines, got " + firedAt);
+        check(wheel.size() == 0, "nothing is left after the last firing");
+    }
+
+    /**
+     * An item scheduled after the wheel has turned many times is measured
+     * from the current time, not from the start
+     */
+    private static void schedulesAgainstTheCurrentTime() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, SLOTS, 0);
+        wheel.schedule(-1L, 1_000_000); // keeps the overflow wheels in use
+        Map<Long, Long> deadlines = new HashMap<>();
+        run(wheel, deadlines, 0, 12_345, 7);
+        for (long offset : new long[] { 1, 79, 80, 639, 640, 5119, 5120, 6000 }) {
+            deadlines.put(12_345 + offset, 12_345 + offset);
+            wheel.schedule(12_345 + offset, 12_345 + offset);
+        }
+        run(wheel, deadlines, 12_345, 12_345 + 6000 + TICK, 1);
+        check(wheel.size() == 1, "only the far item is left");
+    }
+
+    private static void randomDeadlines() {
+        Random random = new Random(7);
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, SLOTS, 0);
+        Map<Long, Long> deadlines = new HashMap<>();
+        for (long i = 0; i < 20_000; i++) {
+            long deadline = random.nextInt(200_000);
+            deadlines.put(i, deadline);
+            wheel.schedule(i, deadline);
+        }
+        long now = 0;
+        while (!deadlines.isEmpty()) {
+            long step = 1 + random.nextInt(50);
+            run(wheel, deadlines, now, now + step, step);
+            now += step;
+        }
+        check(wheel.size() == 0, "every random deadline fired");
+    }
+
+    /**
+     * Advances from one time to another in steps, checking that each item in
+     * deadlines fires once, not before its deadline and less than a tick plus
+     * a step after it. Items that fire are removed from deadlines.
+     */
+    private static void run(TimingWheel<Long> wheel, Map<Long, Long> deadlines, long from, long to, long step) {
+        for (long now = from + step; now <= to; now += step) {
+            long time = now;
+            wheel.advance(now, item -> {
+                Long deadline = deadlines.remove(item);
+                check(deadline != null, "item " + item + " fired twice or was never scheduled");
+                check(deadline <= time, "item " + item + " fired at " + time + ", before its deadline " + deadline);
+                check(time - deadline < TICK + step, "item " + item + " fired at " + time + ", late for " + deadline);
+            });
+        }
+        for (Map.Entry<Long, Long> entry : deadlines.entrySet()) {
+            check(entry.getValue() > to - TICK, "item " + entry.getKey() + " due at " + entry.getValue()
+                    + " had not fired by " + to);
+        }
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new AssertionError(failure);
+        }
+    }
+}
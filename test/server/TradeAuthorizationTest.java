@@ -0,0 +1,111 @@
+package server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import shared.MessageSocket;
+import shared.messages.*;
+
+/**
+ * Checks that only the recipient can answer a trade and only the requester
+ * can confirm it. Runs a server on in-memory storage and talks to it like a
+ * client would. Run with "ant test", exits non-zero on a failure.
+ */
+public class TradeAuthorizationTest {
+    private static int port;
+
+    public static void main(String[] args) throws Exception {
+        port = freePort();
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "--port=" + port, "--rate-default=0",
+                "--rate-Register=0", "--rate-Login=0", "--rate-PackRequest=0", "--rate-TradeRequest=0" });
+        CardCatalog catalog = CardCatalog.loadDefault();
+        Storage storage = new InMemoryStorage();
+        PersistenceScheduler persistence = PersistenceScheduler.sync();
+        UserCredentials userCreds = new UserCredentials(storage.open("users"), persistence, 1000);
+        UserCardsDatabase userCardsDatabase = new UserCardsDatabase(storage.open("usercards"), catalog, persistence,
+                1000);
+        TradeRequestDatabase tradeRequestDatabase = new TradeRequestDatabase(storage.open("traderequests"),
+                persistence, 1000);
+        TradeSettlement settlement = new TradeSettlement(catalog, userCardsDatabase, tradeRequestDatabase);
+        ServerConnectionHandler handler = new ServerConnectionHandler();
+        Thread server = new Thread(() -> handler.start(config, persistence, catalog, userCreds, userCardsDatabase,
+                tradeRequestDatabase, settlement), "test-server");
+        server.setDaemon(true);
+        server.start();
+
+        try {
+            MessageSocket alice = register("alice");
+            MessageSocket bob = register("bob");
+            MessageSocket mallory = register("mallory");
+            String aliceCard = pull(alice, "alice");
+            String bobCard = pull(bob, "bob");
+            String malloryCard = pull(mallory, "mallory");
+
+            alice.sendMessage(new TradeRequest("alice", "bob", aliceCard));
+            check(alice.getMessage() instanceof ServerTradeStatus, "alice could not request a trade");
+            bob.sendMessage(new ViewTradesRequest("bob"));
+            long tradeID = ((ViewTradesResponse) bob.getMessage()).getTrades().get(0).tradeID();
+
+            // only bob may answer
+            expectUnauthorized(mallory, new TradeResponse(true, tradeID, malloryCard), "mallory accepting");
+            expectUnauthorized(mallory, new TradeResponse(false, tradeID, null), "mallory declining");
+            expectUnauthorized(alice, new TradeResponse(true, tradeID, aliceCard), "alice answering her own trade");
+            check(tradeRequestDatabase.getTradeRequest(tradeID).isRequest(), "trade changed by a refused response");
+
+            bob.sendMessage(new TradeResponse(true, tradeID, bobCard));
+            check(bob.getMessage() instanceof ServerTradeStatus, "bob could not answer the trade");
+
+            // only alice may confirm
+            expectUnauthorized(mallory, new TradeConfirmation(tradeID, true), "mallory confirming");
+            expectUnauthorized(bob, new TradeConfirmation(tradeID, true), "bob confirming");
+            check(tradeRequestDatabase.getTradeRequest(tradeID).isResponse(), "trade changed by a refused confirmation");
+
+            alice.sendMessage(new TradeConfirmation(tradeID, true));
+            Message confirmed = alice.getMessage();
+            check(confirmed instanceof ServerTradeStatus status && status.getStatus(), "alice could not confirm");
+            System.out.println("TradeAuthorizationTest passed");
+        } finally {
+            handler.shutdown();
+        }
+    }
+
+    private static MessageSocket register(String username) throws IOException, InterruptedException {
+        for (int attempt = 0;; attempt++) {
+            try {
+                MessageSocket socket = new MessageSocket("localhost", port);
+                socket.sendMessage(new UserCredRequest("Register", username, "pw"));
+                check(((UserCredResponse) socket.getMessage()).isSuccess(), "could not register " + username);
+                return socket;
+            } catch (IOException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(100); // the server is still starting
+            }
+        }
+    }
+
+    private static String pull(MessageSocket socket, String username) {
+        socket.sendMessage(new PackRequest(username, "Worlds Collide", 1));
+        return ((PackResponse) socket.getMessage()).getCards().getObject(0).getString("cardID");
+    }
+
+    private static void expectUnauthorized(MessageSocket socket, Message request, String what) {
+        socket.sendMessage(request);
+        Message response = socket.getMessage();
+        check(response instanceof ErrorResponse error && ErrorResponse.UNAUTHORIZED.equals(error.getCode()),
+                what + " was not refused: " + response.getType());
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new AssertionError(failure);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import merrimackutil.json.types.JSONObject;
+
+/**
+ * Checks that the log replays what was appended, cuts a torn record off its
+ * end, refuses damage in the middle, and that an append which fails part
+ * way leaves nothing behind for the next one to land on. Run with
+ * "ant test", exits non-zero on a failure.
+ */
+public class WriteAheadLogTest {
+
+    public static void main(String[] args) throws Exception {
+        File directory = Files.createTempDirectory("wal-test").toFile();
+        try {
+            replaysAppendedRecords(new File(directory, "replay.log"));
+            cutsTornTail(new File(directory, "torn.log"));
+            cutsDamagedLastLine(new File(directory, "damaged-last.log"));
+            refusesDamageInTheMiddle(new File(directory, "damaged-middle.log"));
+            failedAppendLeavesNothing(new File(directory, "failed.log"));
+            System.out.println("WriteAheadLogTest passed");
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private static void replaysAppendedRecords(File file) throws IOException {
+        WriteAheadLog log = new WriteAheadLog(file);
+        log.open(0, record -> {
+        });
+        for (int i = 1; i <= 3; i++) {
+            check(log.append(record("r" + i)) == i, "sequence numbers count up from 1");
+        }
+        log.sync();
+        log.close();
+
+        List<String> replayed = replay(file, 0);
+        check(replayed.equals(List.of("r1", "r2", "r3")), "all records replayed, got " + replayed);
+        replayed = replay(file, 2);
+        check(replayed.equals(List.of("r3")), "records the snapshot holds are skipped, got " + replayed);
+    }
+
+    private static void cutsTornTail(File file) throws IOException {
+        write(file, "r1", "r2");
+        Files.write(file.toPath(), "{\"seq\":3,\"val".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        WriteAheadLog log = new WriteAheadLog(file);
+        List<String> replayed = new ArrayList<>();
+        log.open(0, record -> replayed.add(record.getString("value")));
+        check(replayed.equals(List.of("r1", "r2")), "records before a torn tail survive, got " + replayed);
+        check(log.append(record("r3")) == 3, "append after a torn tail takes the next sequence number");
+        log.close();
+        check(replay(file, 0).equals(List.of("r1", "r2", "r3")), "append after a torn tail is replayed");
+    }
+
+    private static void cutsDamagedLastLine(File file) throws IOException {
+        write(file, "r1");
+        Files.write(file.toPath(), "{\"seq\":2,\"val\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        check(replay(file, 0).equals(List.of("r1")), "a damaged last line is cut off");
+        check(replay(file, 0).equals(List.of("r1")), "the damaged last line is gone from the file");
+    }
+
+    private static void refusesDamageInTheMiddle(File file) throws IOException {
+        write(file, "r1");
+        // a record written onto the end of a torn one
+        Files.write(file.toPath(), "{\"seq\":2,\"val\n{\"seq\":3,\"value\":\"r3\"}\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        try {
+            replay(file, 0);
+            check(false, "a damaged record before the last one is refused");
+        } catch (IOException e) {
+            System.out.println("Refused as expected: " + e.getMessage());
+        }
+        check(Files.readString(file.toPath()).contains("\"r3\""), "a refused log is left as it was");
+    }
+
+    private static void failedAppendLeavesNothing(File file) throws IOException {
+        FailingChannel[] channel = new FailingChannel[1];
+        WriteAheadLog log = new WriteAheadLog(file) {
+            @Override
+            FileChannel openChannel() throws IOException {
+                channel[0] = new FailingChannel(super.openChannel());
+                return channel[0];
+            }
+        };
+        log.open(0, record -> {
+        });
+        log.append(record("r1"));
+
+        channel[0].failNextWrite = true;
+        try {
+            log.append(record("lost"));
+            check(false, "the failing append throws");
+        } catch (IOException e) {
+            System.out.println("Append failed as expected: " + e.getMessage());
+        }
+        check(channel[0].partialWrites == 1, "the failing append wrote part of its record first");
+        check(log.append(record("r2")) == 2, "the failed append took no sequence number");
+        log.sync();
+        log.close();
+
+        List<String> replayed = replay(file, 0);
+        check(replayed.equals(List.of("r1", "r2")), "the append after a failed one is replayed, got " + replayed);
+    }
+
+    private static JSONObject record(String value) {
+        JSONObject record = new JSONObject();
+        record.put("value", value);
+        return record;
+    }
+
+    /**
+     * Replaces the file with a log of the given records
+     */
+    private static void write(File file, String... values) throws IOException {
+        file.delete();
+        WriteAheadLog log = new WriteAheadLog(file);
+        log.open(0, record -> {
+        });
+        for (String value : values) {
+            log.append(record(value));
+        }
+        log.close();
+    }
+
+    private static List<String> replay(File file, long snapshotSeq) throws IOException {
+        List<String> replayed = new ArrayList<>();
+        WriteAheadLog log = new WriteAheadLog(file);
+        try {
+            log.open(snapshotSeq, record -> replayed.add(record.getString("value")));
+        } finally {
+            log.close();
+        }
+        return replayed;
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new AssertionError(failure);
+        }
+    }
+
+    /**
+     * Passes everything to a real channel, except that a write can be made to
+     * get half its bytes out and then fail like a full disk would
+     */
+    private static class FailingChannel extends FileChannel {
+        private final FileChannel channel;
+        boolean failNextWrite;
+        int partialWrites;
+
+        FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!failNextWrite) {
+                return channel.write(src);
+            }
+            if (partialWrites == 0) {
+                partialWrites++;
+                ByteBuffer half = src.duplicate();
+                half.limit(src.position() + src.remaining() / 2);
+                int written = channel.write(half);
+                src.position(src.position() + written);
+                return written;
+            }
+            failNextWrite = false;
+            throw new IOException("No space left on device");
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
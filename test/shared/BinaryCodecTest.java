@@ -0,0 +1,272 @@
+package shared;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import merrimackutil.json.JsonIO;
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+import shared.messages.Message;
+import shared.messages.PackRequest;
+import shared.messages.PackResponse;
+import shared.messages.TradeEvent;
+import shared.messages.UserCredRequest;
+
+/**
+ * Checks that messages survive the binary codec unchanged, that both string
+ * tables stay in step, and that malformed input is refused with a
+ * ProtocolException instead of anything worse. Run with "ant test", exits
+ * non-zero on a failure.
+ */
+public class BinaryCodecTest {
+    // mirror BinaryCodec's private limits and tags
+    private static final int MAX_INTERNED = 8192;
+    private static final int MAX_INTERNED_LENGTH = 128;
+    private static final int MAX_DEPTH = 64;
+    private static final int STRING_NEW = 6;
+    private static final int STRING_REF = 7;
+    private static final int STRING = 8;
+    private static final int ARRAY = 10;
+    private static final int NULL = 0;
+
+    public static void main(String[] args) throws Exception {
+        roundTrips();
+        repeatedStringsShrink();
+        internsWithinLimits();
+        failedEncodeLeavesTableAlone();
+        refusesMalformedInput();
+        refusesDeepNesting();
+        refusesTableOverflow();
+        System.out.println("BinaryCodecTest passed");
+    }
+
+    private static void roundTrips() throws ProtocolException {
+        BinaryCodec sender = new BinaryCodec();
+        BinaryCodec receiver = new BinaryCodec();
+
+        JSONArray cards = new JSONArray();
+        for (int i = 0; i < 5; i++) {
+            JSONObject card = new JSONObject();
+            card.put("cardID", "card00" + i);
+            card.put("name", "Card " + i);
+            card.put("rarity", i % 2 == 0 ? "Common" : "Rare");
+            card.put("hp", i * 40 - 100); // negative numbers are zigzagged
+            card.put("weight", i + 0.25);
+            card.put("holo", i == 3);
+            card.put("set", null);
+            cards.add(card);
+        }
+        Message[] messages = {
+                new UserCredRequest("Register", "alice", "pw"),
+                new PackRequest("alice", "Worlds Collide", Integer.MAX_VALUE),
+                new PackResponse(cards),
+                new TradeEvent(TradeEvent.REQUESTED, Integer.MIN_VALUE, "bob"),
+        };
+        messages[1].setRequestID(-1); // ids are unsigned on the wire
+        for (Message message : messages) {
+            JSONObject expected = JsonIO.readObject(MessageSocket.encode(message));
+            JSONObject decoded = roundTrip(sender, receiver, message);
+            check(expected.equals(decoded), message.getType() + " changed on the way: " + expected + " became " + decoded);
+            check(MessageSocket.decode(decoded).getClass() == message.getClass(), message.getType() + " decodes to its class");
+        }
+    }
+
+    private static void repeatedStringsShrink() throws ProtocolException {
+        BinaryCodec sender = new BinaryCodec();
+        BinaryCodec receiver = new BinaryCodec();
+        Message message = new UserCredRequest("Login", "alice", "secret");
+        int first = encodedLength(sender, receiver, message);
+        int second = encodedLength(sender, receiver, message);
+        check(second < first, "a repeated message is sent as references, " + first + " then " + second + " bytes");
+    }
+
+    private static void internsWithinLimits() throws ProtocolException {
+        BinaryCodec sender = new BinaryCodec();
+        BinaryCodec receiver = new BinaryCodec();
+        // more distinct strings than the table holds, the receiver would refuse any past the cap
+        for (int i = 0; i < MAX_INTERNED + 100; i++) {
+            roundTrip(sender, receiver, new UserCredRequest("Login", "user" + i, "pw"));
+        }
+        char[] longName = new char[MAX_INTERNED_LENGTH + 1];
+        Arrays.fill(longName, 'x');
+        Message message = new UserCredRequest("Login", new String(longName), "pw");
+        int first = encodedLength(sender, receiver, message);
+        int second = encodedLength(sender, receiver, message);
+        check(first == second, "a string over the length limit is never interned");
+        JSONObject decoded = roundTrip(sender, receiver, message);
+        check(new String(longName).equals(decoded.get("username")), "a long string still arrives whole");
+    }
+
+    private static void failedEncodeLeavesTableAlone() throws ProtocolException {
+        BinaryCodec sender = new BinaryCodec();
+        BinaryCodec receiver = new BinaryCodec();
+        Message broken = new Message("Broken") {
+            @Override
+            public JSONObject toJSONType() {
+                JSONObject obj = super.toJSONType();
+                obj.put("fresh", "never sent");
+                obj.put("value", new Object() {
+                    @Override
+                    public String toString() {
+                        throw new IllegalStateException("cannot be written");
+                    }
+                });
+                return obj;
+            }
+        };
+        try {
+            sender.encode(broken);
+            check(false, "encoding a value that cannot be written throws");
+        } catch (IllegalStateException e) {
+            // the frame is never sent, so the receiver never learns its strings
+        }
+        Message message = new Message("Broken") {
+            @Override
+            public JSONObject toJSONType() {
+                JSONObject obj = super.toJSONType();
+                obj.put("fresh", "never sent");
+                return obj;
+            }
+        };
+        JSONObject decoded = roundTrip(sender, receiver, message);
+        check("never sent".equals(decoded.get("fresh")), "strings of a failed encode are sent again in full");
+    }
+
+    private static void refusesMalformedInput() throws ProtocolException {
+        BinaryCodec sender = new BinaryCodec();
+        byte[] valid = Arrays.copyOf(sender.encode(new UserCredRequest("Login", "alice", "pw")), sender.length());
+        for (int length = 0; length < valid.length; length++) {
+            refused(valid, length, "message cut to " + length + " bytes");
+        }
+
+        byte[] trailing = Arrays.copyOf(valid, valid.length + 1);
+        refused(trailing, trailing.length, "trailing byte");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(STRING_REF);
+        bytes.write(5); // nothing is interned yet
+        refused(bytes.toByteArray(), bytes.size(), "reference to a string never sent");
+
+        bytes.reset();
+        bytes.write(STRING);
+        bytes.write(100); // longer than the message
+        bytes.write('X');
+        refused(bytes.toByteArray(), bytes.size(), "string running past the end");
+
+        bytes.reset();
+        writeString(bytes, STRING, "Unregistered");
+        bytes.write(0); // request id
+        bytes.write(1); // one extra field
+        writeString(bytes, STRING, "key");
+        bytes.write(ARRAY);
+        bytes.write(120); // more elements than bytes left
+        refused(bytes.toByteArray(), bytes.size(), "count larger than the message");
+
+        byte[] longVarint = new byte[13];
+        Arrays.fill(longVarint, (byte) 0xFF); // the type's length never ends
+        longVarint[0] = STRING;
+        refused(longVarint, longVarint.length, "varint longer than 64 bits");
+    }
+
+    private static void refusesDeepNesting() throws ProtocolException {
+        check(new BinaryCodec().decode(nested(MAX_DEPTH), 0, nested(MAX_DEPTH).length) != null,
+                "nesting up to the limit is read");
+        byte[] tooDeep = nested(MAX_DEPTH + 1);
+        refused(tooDeep, tooDeep.length, "nesting past " + MAX_DEPTH);
+        byte[] attack = nested(100_000);
+        refused(attack, attack.length, "nesting deep enough to overflow the stack");
+    }
+
+    private static void refusesTableOverflow() {
+        char[] longName = new char[MAX_INTERNED_LENGTH + 1];
+        Arrays.fill(longName, 'x');
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeString(bytes, STRING_NEW, new String(longName));
+        refused(bytes.toByteArray(), bytes.size(), "interning a string over the length limit");
+
+        BinaryCodec receiver = new BinaryCodec();
+        try {
+            for (int i = 0; i < MAX_INTERNED; i++) {
+                bytes.reset();
+                writeString(bytes, STRING_NEW, "t" + i);
+                bytes.write(0);
+                bytes.write(0);
+                receiver.decode(bytes.toByteArray(), 0, bytes.size());
+            }
+        } catch (ProtocolException e) {
+            throw new AssertionError("interning up to the table's limit is accepted: " + e.getMessage());
+        }
+        bytes.reset();
+        writeString(bytes, STRING_NEW, "one too many");
+        bytes.write(0);
+        bytes.write(0);
+        try {
+            receiver.decode(bytes.toByteArray(), 0, bytes.size());
+            check(false, "interning past the table's limit is refused");
+        } catch (ProtocolException e) {
+            // expected
+        }
+    }
+
+    /**
+     * @return an unregistered message with one extra field holding arrays
+     *         nested depth deep
+     */
+    private static byte[] nested(int depth) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeString(bytes, STRING, "Unregistered");
+        bytes.write(0); // request id
+        bytes.write(1); // one extra field
+        writeString(bytes, STRING, "deep");
+        for (int i = 0; i < depth; i++) {
+            bytes.write(ARRAY);
+            bytes.write(1);
+        }
+        bytes.write(NULL);
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(ByteArrayOutputStream bytes, int tag, String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        bytes.write(tag);
+        int length = utf8.length;
+        while ((length & ~0x7F) != 0) {
+            bytes.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        bytes.write(length);
+        bytes.write(utf8, 0, utf8.length);
+    }
+
+    private static JSONObject roundTrip(BinaryCodec sender, BinaryCodec receiver, Message message)
+            throws ProtocolException {
+        byte[] encoded = sender.encode(message);
+        return receiver.decode(encoded, 0, sender.length());
+    }
+
+    private static int encodedLength(BinaryCodec sender, BinaryCodec receiver, Message message)
+            throws ProtocolException {
+        byte[] encoded = sender.encode(message);
+        receiver.decode(encoded, 0, sender.length());
+        return sender.length();
+    }
+
+    private static void refused(byte[] bytes, int length, String what) {
+        try {
+            new BinaryCodec().decode(bytes, 0, length);
+        } catch (ProtocolException e) {
+            return;
+        } catch (RuntimeException | StackOverflowError e) {
+            throw new AssertionError(what + " threw " + e + " instead of a ProtocolException");
+        }
+        throw new AssertionError(what + " was accepted");
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new AssertionError(failure);
+        }
+    }
+}
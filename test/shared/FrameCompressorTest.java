@@ -0,0 +1,188 @@
+package shared;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import shared.messages.Hello;
+import shared.messages.UserCredRequest;
+
+/**
+ * Checks the threshold and shrink rules of FrameCompressor, that frames come
+ * back as they went in, and that corrupt frames and length prefixes are
+ * refused. Run with "ant test", exits non-zero on a failure.
+ */
+public class FrameCompressorTest {
+    private static final int THRESHOLD = 512;
+
+    public static void main(String[] args) throws Exception {
+        compressesFromThreshold();
+        roundTrips();
+        leavesIncompressibleFrames();
+        refusesCorruptBodies();
+        socketChecksCompressedFlag();
+        System.out.println("FrameCompressorTest passed");
+    }
+
+    private static void compressesFromThreshold() throws ProtocolException {
+        FrameCompressor compressor = new FrameCompressor(THRESHOLD);
+        byte[] text = repetitive(THRESHOLD + 1);
+        check(compressor.compress(text, THRESHOLD - 1) == -1, "a frame just under the threshold is sent as it is");
+        int length = compressor.compress(text, THRESHOLD);
+        check(length > 0 && length < THRESHOLD, "a frame at the threshold is compressed, got " + length);
+        check(FrameCompressor.originalLength(compressor.compressed(), 0, length) == THRESHOLD,
+                "the body starts with the original length");
+        check(new FrameCompressor(0).compress(new byte[0], 0) == -1, "an empty frame never shrinks");
+    }
+
+    private static void roundTrips() throws ProtocolException {
+        FrameCompressor sender = new FrameCompressor(THRESHOLD);
+        FrameCompressor receiver = new FrameCompressor(THRESHOLD);
+        // sizes around the threshold, and past the 8 KB the compressed buffer starts with
+        for (int size : new int[] { THRESHOLD, THRESHOLD + 1, 4096, 65536, 1 << 20 }) {
+            byte[] original = repetitive(size);
+            int length = sender.compress(original, size);
+            check(length > 0, size + " bytes of text compress");
+            byte[] body = Arrays.copyOf(sender.compressed(), length);
+            byte[] target = new byte[size];
+            check(receiver.decompress(body, 0, length, target) == size, size + " bytes come back at their length");
+            check(Arrays.equals(original, target), size + " bytes come back unchanged");
+        }
+
+        // a body in the middle of a bigger buffer, as the NIO handler reads them
+        byte[] original = repetitive(2000);
+        int length = sender.compress(original, original.length);
+        byte[] buffer = new byte[length + 20];
+        System.arraycopy(sender.compressed(), 0, buffer, 7, length);
+        byte[] target = new byte[original.length];
+        receiver.decompress(buffer, 7, length, target);
+        check(Arrays.equals(original, target), "a body at an offset comes back unchanged");
+    }
+
+    private static void leavesIncompressibleFrames() {
+        byte[] noise = new byte[THRESHOLD * 4];
+        new Random(42).nextBytes(noise);
+        check(new FrameCompressor(THRESHOLD).compress(noise, noise.length) == -1,
+                "a frame that would not shrink is sent as it is");
+    }
+
+    private static void refusesCorruptBodies() {
+        FrameCompressor sender = new FrameCompressor(THRESHOLD);
+        byte[] original = repetitive(4096);
+        int length = sender.compress(original, original.length);
+        byte[] body = Arrays.copyOf(sender.compressed(), length);
+
+        refused(body, 3, original.length, "a body too short for its length");
+        refused(body, length - 1, original.length, "a body missing its last byte");
+
+        byte[] claimsMore = body.clone();
+        claimsMore[2]++; // 256 bytes more than it holds
+        refused(claimsMore, length, original.length + 256, "a body claiming more than it inflates to");
+
+        byte[] claimsLess = body.clone();
+        claimsLess[2]--; // 256 bytes less than it holds
+        refused(claimsLess, length, original.length, "a body claiming less than it inflates to");
+
+        byte[] garbage = body.clone();
+        for (int i = 4; i < garbage.length; i++) {
+            garbage[i] = (byte) 0xFF;
+        }
+        refused(garbage, length, original.length, "a body that is not DEFLATE");
+    }
+
+    /**
+     * A compressed frame where compression was not negotiated, or one whose
+     * original length is over the limit, ends the connection
+     */
+    private static void socketChecksCompressedFlag() throws IOException {
+        byte[] body = new byte[] { 0, 0, 0, 10, 1, 2, 3 };
+        check(readFrame(Hello.COMPRESSION_NONE, FrameCompressor.COMPRESSED_FLAG | body.length, body) == null,
+                "a compressed frame without negotiated compression is refused");
+
+        FrameCompressor sender = new FrameCompressor(THRESHOLD);
+        byte[] json = MessageSocket.encode(new UserCredRequest("Register", pad(THRESHOLD), "pw"))
+                .getBytes(StandardCharsets.UTF_8);
+        int length = sender.compress(json, json.length);
+        byte[] valid = Arrays.copyOf(sender.compressed(), length);
+        Object message = readFrame(Hello.COMPRESSION_DEFLATE, FrameCompressor.COMPRESSED_FLAG | length, valid);
+        check(message instanceof UserCredRequest, "a valid compressed frame is read, got " + message);
+
+        byte[] huge = valid.clone();
+        huge[0] = 0x7F; // original length far over the frame limit
+        check(readFrame(Hello.COMPRESSION_DEFLATE, FrameCompressor.COMPRESSED_FLAG | length, huge) == null,
+                "an original length over the frame limit is refused");
+        byte[] negative = valid.clone();
+        negative[0] = (byte) 0x80;
+        check(readFrame(Hello.COMPRESSION_DEFLATE, FrameCompressor.COMPRESSED_FLAG | length, negative) == null,
+                "a negative original length is refused");
+        check(readFrame(Hello.COMPRESSION_DEFLATE, FrameCompressor.COMPRESSED_FLAG | (1 << 30), valid) == null,
+                "a compressed frame over the frame limit is refused");
+    }
+
+    /**
+     * Negotiates framing with a MessageSocket, sends it one raw frame and
+     * reads it back
+     *
+     * @return the message read, null if the socket refused the frame
+     */
+    private static Object readFrame(String compression, int prefix, byte[] body) throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+                MessageSocket socket = new MessageSocket(server.accept())) {
+            socket.setMaxFrameBytes(64 * 1024);
+            DataOutputStream out = new DataOutputStream(client.getOutputStream());
+            out.write((MessageSocket.encode(new Hello(Hello.FRAMING_LENGTH, Hello.CODEC_JSON, compression)) + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            out.writeInt(prefix);
+            out.write(body);
+            out.flush();
+            try {
+                return socket.getMessage();
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+        }
+    }
+
+    private static void refused(byte[] body, int length, int targetLength, String what) {
+        try {
+            new FrameCompressor(THRESHOLD).decompress(body, 0, length, new byte[Math.max(targetLength, 0)]);
+        } catch (ProtocolException e) {
+            return;
+        } catch (RuntimeException e) {
+            throw new AssertionError(what + " threw " + e + " instead of a ProtocolException");
+        }
+        throw new AssertionError(what + " was accepted");
+    }
+
+    /**
+     * @return text that compresses well but is not one byte over and over
+     */
+    private static byte[] repetitive(int size) {
+        byte[] text = new byte[size];
+        String words = "card001 Worlds Collide Common card002 Rare holo ";
+        for (int i = 0; i < size; i++) {
+            text[i] = (byte) words.charAt((i * 7 + i / 64) % words.length());
+        }
+        return text;
+    }
+
+    private static String pad(int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'a');
+        return new String(chars);
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new AssertionError(failure);
+        }
+    }
+}